@@ -0,0 +1,7 @@
+#! /bin/bash
+# Builds the application and the benchmarks and runs them.
+# Example: bash bench.sh $USER"_DB" $PGPORT $USER -wi 3 -i 5 -r 1000 Validators
+rm -rf bench-bin
+mkdir -p bench-bin
+javac -cp "lib/postgresql-42.1.4.jar" src/*.java bench/*.java -d bench-bin/ || exit 1
+java -Xms512m -Xmx512m -cp "lib/*:bench-bin/" Benchmarks "$@"
@@ -0,0 +1,165 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * This class is a small JMH-style benchmark harness. Every benchmark runs a
+ * number of timed warmup iterations, whose results are thrown away, and then
+ * a number of timed measurement iterations. For each benchmark it reports
+ *   - throughput (ops/s),
+ *   - average time per operation (us/op, with a 99.9% error margin),
+ *   - bytes allocated per operation by the benchmark thread (B/op).
+ *
+ * Results returned by a benchmark are consumed by a sink so the JIT cannot
+ * drop the work that produced them.
+ *
+ */
+
+public class Bench{
+	/**
+	 * One benchmarked operation.
+	 */
+	public interface Op{
+		Object run() throws Exception;
+	}
+
+	private static class Entry{
+		final String name;
+		final Op op;
+
+		Entry(String name, Op op) {
+			this.name = name;
+			this.op = op;
+		}
+	}
+
+	//every result is written here so it stays observable
+	static volatile Object sink;
+
+	private final List<Entry> _entries = new ArrayList<Entry>();
+	private final int _warmupIterations;
+	private final int _iterations;
+	private final long _iterationNanos;
+	private final Pattern _filter;
+	private final com.sun.management.ThreadMXBean _threads;
+	private final PrintStream _out;
+
+	/**
+	 * @param warmupIterations iterations run before measuring
+	 * @param iterations iterations measured
+	 * @param iterationMillis length of one iteration
+	 * @param filter only benchmarks whose name matches run, null for all
+	 * @param out where the report is printed
+	 */
+	public Bench(int warmupIterations, int iterations, long iterationMillis, String filter, PrintStream out) {
+		this._out = out;
+		this._warmupIterations = warmupIterations;
+		this._iterations = iterations;
+		this._iterationNanos = iterationMillis * 1000000L;
+		this._filter = filter == null ? null : Pattern.compile(filter);
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		this._threads = mx instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) mx : null;
+	}
+
+	/**
+	 * Method to register a benchmark.
+	 *
+	 * @param name the name it is reported under, "Suite.benchmark"
+	 * @param op the operation to measure
+	 */
+	public void add(String name, Op op) {
+		if (this._filter == null || this._filter.matcher(name).find()) {
+			this._entries.add(new Entry(name, op));
+		}
+	}
+
+	/**
+	 * Method to run every registered benchmark and print the report.
+	 *
+	 * @return the number of benchmarks that failed
+	 */
+	public int run() {
+		this._out.println(String.format("%-60s %12s %12s %10s %12s", "Benchmark", "ops/s", "us/op", "+-", "B/op"));
+		int failed = 0;
+		for (Entry e : this._entries) {
+			try {
+				for (int i = 0; i < this._warmupIterations; ++i) {
+					iteration(e.op, null);
+				}
+				double[] usPerOp = new double[this._iterations];
+				long ops = 0;
+				long nanos = 0;
+				long bytes = 0;
+				for (int i = 0; i < this._iterations; ++i) {
+					long[] r = new long[3];
+					iteration(e.op, r);
+					ops += r[0];
+					nanos += r[1];
+					bytes += r[2];
+					usPerOp[i] = r[1] / 1000.0 / r[0];
+				}
+				double avg = nanos / 1000.0 / ops;
+				this._out.println(String.format("%-60s %12.1f %12.3f %10.3f %12s", e.name,
+					ops / (nanos / 1e9), avg, error(usPerOp, avg),
+					bytes < 0 ? "n/a" : Long.toString(bytes / ops)));
+			} catch (Exception ex) {
+				++failed;
+				this._out.println(String.format("%-60s FAILED: %s", e.name, ex.getMessage()));
+			}
+		}
+		return failed;
+	}
+
+	//runs the op until the iteration time is up, r receives ops, nanos and allocated bytes
+	private void iteration(Op op, long[] r) throws Exception {
+		long tid = Thread.currentThread().getId();
+		long alloc0 = allocatedBytes(tid);
+		long t0 = System.nanoTime();
+		long deadline = t0 + this._iterationNanos;
+		long ops = 0;
+		long now;
+		do {
+			sink = op.run();
+			++ops;
+			now = System.nanoTime();
+		} while (now < deadline);
+		if (r != null) {
+			long alloc1 = allocatedBytes(tid);
+			r[0] = ops;
+			r[1] = now - t0;
+			r[2] = alloc0 < 0 || alloc1 < 0 ? -1 : alloc1 - alloc0;
+		}
+	}
+
+	private long allocatedBytes(long tid) {
+		return this._threads == null ? -1 : this._threads.getThreadAllocatedBytes(tid);
+	}
+
+	//half width of a 99.9% interval over the iteration averages (normal approximation)
+	private static double error(double[] samples, double mean) {
+		if (samples.length < 2) {
+			return 0;
+		}
+		double var = 0;
+		for (double s : samples) {
+			var += (s - mean) * (s - mean);
+		}
+		var /= samples.length - 1;
+		return 3.29 * Math.sqrt(var / samples.length);
+	}
+}
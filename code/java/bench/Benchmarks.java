@@ -0,0 +1,122 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * This class holds the benchmark suites, run against a local Postgres
+ * database seeded from code/data (see postgresql/createPostgreDB.sh):
+ *   QueryHelpers  - executeQueryAndReturnResult against
+ *                   executeQueryAndPrintResult and the streaming and
+ *                   columnar helpers, on the same query
+ *   Validators    - validDoctor, validAppointment, validPatient, getValidDate,
+ *                   getValidTimeslot, getValidAppointmentStatus
+ *   Codec         - InputCodec on its own, and the parse and bind step an
+ *                   AddAppointment row goes through on the batch ingest path
+ *   Operations    - the eight menu operations end to end, through the same
+ *                   Operations entry point the batch and HTTP modes use
+ *
+ * The Operations suite writes doctors, patients, appointments and bookings,
+ * so run it against a scratch copy of the database.
+ *
+ *   bash bench.sh <dbname> <port> <user> [-wi 3] [-i 5] [-r 1000] [regex]
+ *
+ */
+
+public class Benchmarks{
+	private final DBproject _esql;
+	private final Operations _ops;
+	private final SampleData _samples;
+
+	Benchmarks(DBproject esql) throws Exception {
+		this._esql = esql;
+		this._ops = new Operations(esql);
+		this._samples = new SampleData(esql, 100000);
+	}
+
+	void register(Bench bench) {
+		final String query = "select * from Appointment";
+		bench.add("QueryHelpers.executeQueryAndReturnResult", () -> this._esql.executeQueryAndReturnResult(query));
+		bench.add("QueryHelpers.executeQueryAndPrintResult", () -> this._esql.executeQueryAndPrintResult(query));
+		bench.add("QueryHelpers.executeQueryColumnar", () -> this._esql.executeQueryColumnar(query));
+		bench.add("QueryHelpers.executeQueryStreaming", () -> this._esql.executeQueryStreaming(query, rs -> Bench.sink = rs.getString(1)));
+
+		bench.add("Validators.validDoctor", () -> DBproject.validDoctor(this._esql, Integer.toString(SampleData.pick(this._samples.doctors))));
+		bench.add("Validators.validAppointment", () -> DBproject.validAppointment(this._esql, Integer.toString(SampleData.pick(this._samples.appointments))));
+		bench.add("Validators.validPatient", () -> DBproject.validPatient(this._esql, SampleData.pick(this._samples.patients)));
+		bench.add("Validators.getValidDate", () -> DBproject.getValidDate(SampleData.pick(this._samples.dates)));
+		bench.add("Validators.getValidTimeslot", () -> DBproject.getValidTimeslot("10:00-11:00"));
+		bench.add("Validators.getValidAppointmentStatus", () -> DBproject.getValidAppointmentStatus("WL"));
+
+		bench.add("Codec.parseDate", () -> InputCodec.parseDate(SampleData.pick(this._samples.dates)));
+		bench.add("Codec.parseSlot", () -> InputCodec.parseSlot("8:00-10:00"));
+		bench.add("Codec.parseStatus", () -> InputCodec.parseStatus("AV"));
+		bench.add("Codec.ingestAppointmentRow", () -> {
+			String date = SampleData.pick(this._samples.dates);
+			int day = InputCodec.parseDate(date);
+			if (day == InputCodec.NO_DATE || InputCodec.parseSlot("10:00-12:00") == TimeSlot.INVALID) {
+				throw new Exception("Invalid row " + date);
+			}
+			return new Object[]{ 0, InputCodec.sqlDate(day), "10:00-12:00", InputCodec.statusName(InputCodec.parseStatus("AV")) };
+		});
+
+		int n = 0;
+		for (final String op : Operations.ALL) {
+			bench.add("Operations." + (++n) + "_" + op, () -> op(op));
+		}
+	}
+
+	private Object op(String name) throws Exception {
+		Map<String, Object> result = this._ops.run(name, this._samples.params(name));
+		if (result.containsKey("sqlstate")) {
+			throw new Exception(String.valueOf(result.get("error")));
+		}
+		return result;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] Benchmarks <dbname> <port> <user> [-wi n] [-i n] [-r ms] [regex]");
+			return;
+		}
+		int warmup = 3;
+		int iterations = 5;
+		long millis = 1000;
+		String filter = null;
+		for (int i = 3; i < args.length; ++i) {
+			switch (args[i]) {
+				case "-wi": warmup = Integer.parseInt(args[++i]); break;
+				case "-i": iterations = Integer.parseInt(args[++i]); break;
+				case "-r": millis = Long.parseLong(args[++i]); break;
+				default: filter = args[i];
+			}
+		}
+
+		//executeQueryAndPrintResult and the connection banner write to stdout, keep the report readable
+		PrintStream report = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			Bench bench = new Bench(warmup, iterations, millis, filter, report);
+			new Benchmarks(esql).register(bench);
+			if (bench.run() > 0) {
+				System.exit(1);
+			}
+		} finally {
+			esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the date partitioned Appointment table in shape from a
+ * background thread (see sql/partition_appointments.sql). Every interval it
+ *   - creates the monthly partitions up to some days ahead, so new
+ *     appointments do not pile up in the default partition, and
+ *   - moves the past (PA) appointments older than the retention, with their
+ *     has_appointment, searches and schedules links, into the archive
+ *     tables, in batches so no transaction holds many locks for long.
+ *
+ * Archived appointments are gone from the live tables, so after a run that
+ * moved some the reference index is reloaded and the cached reports reading
+ * them are invalidated.
+ *
+ * Enabled with -Dcs166.archive.intervalMs, see DBproject.
+ *
+ */
+
+public class AppointmentArchiver{
+	private final DBproject _esql;
+	private final int _keepDays;
+	private final int _batchSize;
+	private final int _aheadDays;
+	private final ScheduledExecutorService _scheduler;
+	private final AtomicLong _runs = new AtomicLong();
+	private final AtomicLong _archived = new AtomicLong();
+	private final AtomicLong _partitions = new AtomicLong();
+	private final AtomicLong _failures = new AtomicLong();
+
+	/**
+	 * @param esql the database
+	 * @param intervalMs the time between two runs
+	 * @param keepDays PA appointments older than this many days are archived
+	 * @param batchSize the most appointments moved in one transaction
+	 * @param aheadDays how far ahead of today the monthly partitions are created
+	 */
+	public AppointmentArchiver(DBproject esql, long intervalMs, int keepDays, int batchSize, int aheadDays) {
+		this._esql = esql;
+		this._keepDays = keepDays;
+		this._batchSize = batchSize;
+		this._aheadDays = aheadDays;
+		this._scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "appointment-archiver");
+			t.setDaemon(true);
+			return t;
+		});
+		this._scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				runOnce();
+			} catch (SQLException e) {
+				this._failures.incrementAndGet();
+				System.err.println("Could not archive appointments: " + e.getMessage());
+			}
+		}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to create the missing partitions and archive the old PA
+	 * appointments, batch by batch until none is left.
+	 *
+	 * @return the number of appointments archived
+	 * @throws java.sql.SQLException when a call failed
+	 */
+	public int runOnce() throws SQLException {
+		this._partitions.addAndGet(this._esql.executeQueryColumnar(
+			"select ensure_date_partitions('appointment', current_date, current_date + ?, 'month')", this._aheadDays).getLong(0, 0));
+
+		int total = 0;
+		int moved;
+		do {
+			moved = this._esql.executeQueryColumnar("select archive_appointments(current_date - ?, ?)",
+				this._keepDays, this._batchSize).getInt(0, 0);
+			total += moved;
+		} while (moved >= this._batchSize);
+
+		if (total > 0) {
+			this._esql.getQueryCache().invalidate(QueryCache.APPOINTMENT, QueryCache.SEARCHES, QueryCache.HAS_APPOINTMENT);
+			this._esql.getReferenceIndex().reload(this._esql);
+		}
+		this._runs.incrementAndGet();
+		this._archived.addAndGet(total);
+		return total;
+	}
+
+	/**
+	 * Method to stop the background thread, letting a running batch finish.
+	 */
+	public void close() {
+		this._scheduler.shutdown();
+		try {
+			this._scheduler.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the counters, for the /metrics endpoint
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("keep_days", this._keepDays);
+		m.put("runs", this._runs.get());
+		m.put("archived", this._archived.get());
+		m.put("partitions_created", this._partitions.get());
+		m.put("failures", this._failures.get());
+		return m;
+	}
+}
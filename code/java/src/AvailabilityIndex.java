@@ -0,0 +1,528 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class answers "the available appointments of a department on a day"
+ * (ListAvailableAppointmentsOfDepartment) from memory. It maps every
+ * (department name, day) to the available (status AV) appointments linked
+ * to a doctor of a department of that name, sorted by appointment id, so a
+ * lookup is one hash probe and a walk over the result, without a round trip.
+ *
+ * An appointment linked to several such doctors is listed once per link,
+ * as the join over has_appointment lists it.
+ *
+ * It is kept current by the writes of this process (new appointments and
+ * doctors, status changes and bookings) and synced with the database every
+ * refresh interval (refreshEvery, -Dcs166.availability.refreshMs in
+ * DBproject). A sync re-reads only the appointments other clients changed
+ * since the last one, as sent by the triggers of sql/notify_changes.sql on
+ * the appointment_changes channel, which this class LISTENs on over a
+ * connection of its own. It reloads everything when it starts listening,
+ * when a doctor or department changed, and after the listening connection
+ * was lost; without the triggers every sync is a full reload. The writes
+ * of this process that land while a reload reads the database are applied
+ * again to the reloaded data, so a reload never undoes them.
+ *
+ * The lists may therefore lag the database by up to one interval (see
+ * getSyncedAt); make_appointment checks the status again when booking.
+ *
+ */
+
+public class AvailabilityIndex{
+	/**
+	 * One available appointment, as listed.
+	 */
+	public static class Available{
+		public final int appointmentId;
+		public final String timeSlot;
+
+		Available(int appointmentId, String timeSlot) {
+			this.appointmentId = appointmentId;
+			this.timeSlot = timeSlot;
+		}
+	}
+
+	private static final String AVAILABLE = "AV";
+	private static final String CHANNEL = "appointment_changes";
+	//past this many changed appointments a full reload is cheaper
+	private static final int MAX_CHANGED = 10000;
+	//the current rows of some appointments, by id and date so each lookup
+	//reads one monthly partition; the ids are bound as an array literal
+	private static final String CHANGED = "select a.appnt_ID, a.adate, a.time_slot, h.doctor_id " +
+		"from appointment_ids i join appointment a on a.appnt_ID = i.appnt_ID and a.adate = i.adate " +
+		"left join has_appointment h on h.appt_id = a.appnt_ID where i.appnt_ID = any(?::int[]) and a.status = 'AV'";
+
+	//an available appointment and the doctors it is linked to
+	private static class Open{
+		final int day;
+		final String slot;
+		final List<Integer> doctors = new ArrayList<Integer>(1);
+
+		Open(int day, String slot) {
+			this.day = day;
+			this.slot = slot;
+		}
+	}
+
+	private static class Key{
+		final String department;
+		final int day;
+
+		Key(String department, int day) {
+			this.department = department;
+			this.day = day;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.department.hashCode() + this.day;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return this.day == k.day && this.department.equals(k.department);
+		}
+	}
+
+	private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+	//department id -> name
+	private Map<Integer, String> _departments = new HashMap<Integer, String>();
+	//doctor id -> department id
+	private IntIntHashMap _doctors = new IntIntHashMap();
+	//the available appointments by id, linked or not
+	private Map<Integer, Open> _open = new HashMap<Integer, Open>();
+	//(department name, day) -> appointment id -> number of links listing it
+	private Map<Key, TreeMap<Integer, Integer>> _index = new HashMap<Key, TreeMap<Integer, Integer>>();
+	//the changes made while a reload reads the database, null when none runs
+	private List<Runnable> _replay = null;
+	//runs the periodic sync, null until refreshEvery
+	private ScheduledExecutorService _scheduler = null;
+	//LISTENs on CHANNEL, null until the first sync and after it was lost
+	private Connection _listener = null;
+	//set once the notify triggers turn out not to be installed
+	private boolean _noTriggers = false;
+	//when the data last read from the database started being read
+	private volatile long _syncedAt = 0;
+
+	/**
+	 * Method to (re)load the index from the database. One reload runs at a
+	 * time; lookups and changes go on while it reads.
+	 *
+	 * @param esql the database the data is read from
+	 * @throws java.sql.SQLException when a query failed
+	 */
+	public synchronized void reload(DBproject esql) throws SQLException {
+		long started = System.currentTimeMillis();
+		this._lock.writeLock().lock();
+		try {
+			this._replay = new ArrayList<Runnable>();
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+		try {
+			load(esql);
+			this._syncedAt = started;
+		} finally {
+			this._lock.writeLock().lock();
+			try {
+				this._replay = null;
+			} finally {
+				this._lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Method to apply the changes other clients committed since the last
+	 * sync. The first sync, and the first after the listening connection was
+	 * lost, starts listening and reloads everything.
+	 *
+	 * @param esql the database the data is read from
+	 * @throws java.sql.SQLException when a query failed
+	 */
+	public synchronized void sync(DBproject esql) throws SQLException {
+		long started = System.currentTimeMillis();
+		if (this._listener == null) {
+			if (!this._noTriggers) {
+				listen(esql);
+			}
+			reload(esql);
+			return;
+		}
+		Set<Integer> changed = new HashSet<Integer>();
+		boolean all = false;
+		try {
+			//notifications arrive with the reply to a query
+			try (Statement st = this._listener.createStatement()) {
+				st.execute("select 1");
+			}
+			PGNotification[] notifications = this._listener.unwrap(PGConnection.class).getNotifications();
+			for (int i = 0; notifications != null && i < notifications.length && !all; ++i) {
+				for (String id : notifications[i].getParameter().split(",")) {
+					if ("*".equals(id)) {
+						all = true;
+						break;
+					}
+					changed.add(Integer.valueOf(id));
+				}
+			}
+		} catch (SQLException e) {
+			unlisten();
+			throw e;
+		}
+		if (all || changed.size() > MAX_CHANGED) {
+			reload(esql);
+		} else if (!changed.isEmpty()) {
+			refresh(esql, changed);
+			this._syncedAt = started;
+		} else {
+			this._syncedAt = started;
+		}
+	}
+
+	/**
+	 * @return when the data the index holds was last read from the database,
+	 * in milliseconds since 1970-01-01, 0 before the first load
+	 */
+	public long getSyncedAt() {
+		return this._syncedAt;
+	}
+
+	/**
+	 * Method to sync the index from a background thread every interval,
+	 * until close().
+	 *
+	 * @param esql the database the data is read from
+	 * @param intervalMs the time between two syncs
+	 */
+	public synchronized void refreshEvery(final DBproject esql, long intervalMs) {
+		if (this._scheduler != null) {
+			return;
+		}
+		this._scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "availability-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		this._scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				sync(esql);
+			} catch (SQLException e) {
+				System.err.println("Could not sync the available appointments: " + e.getMessage());
+			}
+		}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to stop the periodic sync, letting a running one finish, and
+	 * close the listening connection.
+	 */
+	public void close() {
+		ScheduledExecutorService scheduler;
+		synchronized (this) {
+			scheduler = this._scheduler;
+		}
+		if (scheduler != null) {
+			scheduler.shutdown();
+			try {
+				scheduler.awaitTermination(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			unlisten();
+		}
+	}
+
+	//opens the listening connection, or notes that there is nothing to listen to
+	private void listen(DBproject esql) throws SQLException {
+		Connection conn = esql.getPool().openDedicated();
+		try {
+			try (Statement st = conn.createStatement()) {
+				try (ResultSet rs = st.executeQuery("select to_regproc('appointment_notify') is not null")) {
+					if (!rs.next() || !rs.getBoolean(1)) {
+						System.err.println("sql/notify_changes.sql is not installed, the available appointments are reloaded in full");
+						this._noTriggers = true;
+						conn.close();
+						return;
+					}
+				}
+				st.execute("LISTEN " + CHANNEL);
+			}
+			this._listener = conn;
+		} catch (SQLException e) {
+			conn.close();
+			throw e;
+		}
+	}
+
+	private void unlisten() {
+		if (this._listener == null) {
+			return;
+		}
+		try {
+			this._listener.close();
+		} catch (SQLException e) {
+			System.err.println(e.getMessage());
+		}
+		this._listener = null;
+	}
+
+	//re-reads the given appointments: each is taken out of the lists and put
+	//back if it is still available
+	private void refresh(DBproject esql, Set<Integer> ids) throws SQLException {
+		StringBuilder array = new StringBuilder("{");
+		for (Integer id : ids) {
+			array.append(array.length() > 1 ? "," : "").append(id);
+		}
+		array.append('}');
+		final Map<Integer, Open> open = new HashMap<Integer, Open>();
+		final Map<Integer, List<Integer>> links = new HashMap<Integer, List<Integer>>();
+		esql.executeQueryStreaming(CHANGED, rs -> {
+			int id = rs.getInt(1);
+			if (!open.containsKey(id)) {
+				open.put(id, new Open((int) rs.getDate(2).toLocalDate().toEpochDay(), rs.getString(3)));
+				links.put(id, new ArrayList<Integer>(1));
+			}
+			int doctor = rs.getInt(4);
+			if (!rs.wasNull()) {
+				links.get(id).add(doctor);
+			}
+		}, array.toString());
+
+		this._lock.writeLock().lock();
+		try {
+			for (Integer id : ids) {
+				unlist(id);
+			}
+			for (Map.Entry<Integer, Open> e : open.entrySet()) {
+				this._open.put(e.getKey(), e.getValue());
+				for (Integer doctor : links.get(e.getKey())) {
+					link(this._index, this._departments, this._doctors, e.getKey(), e.getValue(), doctor);
+				}
+			}
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	private void load(DBproject esql) throws SQLException {
+		final Map<Integer, String> departments = new HashMap<Integer, String>();
+		esql.executeQueryStreaming("select dept_ID, name from department",
+			rs -> departments.put(rs.getInt(1), rs.getString(2)));
+		final IntIntHashMap doctors = new IntIntHashMap();
+		esql.executeQueryStreaming("select doctor_ID, did from doctor",
+			rs -> doctors.put(rs.getInt(1), rs.getInt(2)));
+		final Map<Integer, Open> open = new HashMap<Integer, Open>();
+		final Map<Key, TreeMap<Integer, Integer>> index = new HashMap<Key, TreeMap<Integer, Integer>>();
+		esql.executeQueryStreaming("select a.appnt_ID, a.adate, a.time_slot, h.doctor_id from appointment a " +
+			"left join has_appointment h on h.appt_id = a.appnt_ID where a.status = 'AV'", rs -> {
+			int id = rs.getInt(1);
+			Open o = open.get(id);
+			if (o == null) {
+				o = new Open((int) rs.getDate(2).toLocalDate().toEpochDay(), rs.getString(3));
+				open.put(id, o);
+			}
+			int doctor = rs.getInt(4);
+			if (!rs.wasNull()) {
+				link(index, departments, doctors, id, o, doctor);
+			}
+		});
+
+		this._lock.writeLock().lock();
+		try {
+			this._departments = departments;
+			this._doctors = doctors;
+			this._open = open;
+			this._index = index;
+			for (Runnable change : this._replay) {
+				change.run();
+			}
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @param department the department name
+	 * @param day the date as days since 1970-01-01
+	 * @return the available appointments, by appointment id
+	 */
+	public List<Available> lookup(String department, int day) {
+		this._lock.readLock().lock();
+		try {
+			TreeMap<Integer, Integer> appointments = this._index.get(new Key(department, day));
+			if (appointments == null) {
+				return new ArrayList<Available>(0);
+			}
+			List<Available> result = new ArrayList<Available>(appointments.size());
+			for (Map.Entry<Integer, Integer> e : appointments.entrySet()) {
+				Available a = new Available(e.getKey(), this._open.get(e.getKey()).slot);
+				for (int n = e.getValue(); n > 0; --n) {
+					result.add(a);
+				}
+			}
+			return result;
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param id the appointment
+	 * @return its time slot as stored, or null if it is not available
+	 */
+	public String slotOf(int id) {
+		this._lock.readLock().lock();
+		try {
+			Open o = this._open.get(id);
+			return o == null ? null : o.slot;
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to record an appointment this process inserted. It is not
+	 * linked to a doctor yet, so it is only listed once it is.
+	 *
+	 * @param id the new appointment id
+	 * @param date its date
+	 * @param slot its time slot as entered
+	 * @param status its status
+	 */
+	public void addAppointment(int id, Date date, String slot, String status) {
+		if (!AVAILABLE.equals(status)) {
+			return;
+		}
+		final int day = (int) date.toLocalDate().toEpochDay();
+		change(() -> this._open.putIfAbsent(id, new Open(day, slot)));
+	}
+
+	/**
+	 * Method to record a doctor this process inserted.
+	 *
+	 * @param id the new doctor id
+	 * @param departmentId the doctor's department
+	 */
+	public void addDoctor(int id, int departmentId) {
+		change(() -> this._doctors.put(id, departmentId));
+	}
+
+	/**
+	 * Method to record a status change of an appointment. An appointment
+	 * that is no longer available is taken out of every list.
+	 *
+	 * @param id the appointment
+	 * @param status its new status
+	 */
+	public void setStatus(int id, String status) {
+		if (AVAILABLE.equals(status)) {
+			return;
+		}
+		change(() -> unlist(id));
+	}
+
+	/**
+	 * Method to record a booking: the appointment is linked to the doctor
+	 * and takes its new status.
+	 *
+	 * @param appointmentId the booked appointment
+	 * @param doctorId the doctor it was booked with
+	 * @param status the appointment's status after the booking
+	 */
+	public void book(int appointmentId, int doctorId, String status) {
+		change(() -> {
+			Open o = this._open.get(appointmentId);
+			if (o != null && !o.doctors.contains(doctorId)) {
+				link(this._index, this._departments, this._doctors, appointmentId, o, doctorId);
+			}
+			if (!AVAILABLE.equals(status)) {
+				unlist(appointmentId);
+			}
+		});
+	}
+
+	//applies a change now and, while a reload runs, again to the reloaded data;
+	//changes are written so applying one twice does no harm
+	private void change(Runnable change) {
+		this._lock.writeLock().lock();
+		try {
+			change.run();
+			if (this._replay != null) {
+				this._replay.add(change);
+			}
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	//takes an appointment that is no longer available out of every list
+	private void unlist(int id) {
+		Open o = this._open.remove(id);
+		if (o == null) {
+			return;
+		}
+		for (Integer doctor : o.doctors) {
+			Key key = key(this._departments, this._doctors, doctor, o.day);
+			TreeMap<Integer, Integer> appointments = key == null ? null : this._index.get(key);
+			if (appointments != null) {
+				appointments.remove(id);
+				if (appointments.isEmpty()) {
+					this._index.remove(key);
+				}
+			}
+		}
+	}
+
+	private static void link(Map<Key, TreeMap<Integer, Integer>> index, Map<Integer, String> departments,
+			IntIntHashMap doctors, int id, Open o, int doctor) {
+		o.doctors.add(doctor);
+		Key key = key(departments, doctors, doctor, o.day);
+		if (key != null) {
+			index.computeIfAbsent(key, k -> new TreeMap<Integer, Integer>()).merge(id, 1, Integer::sum);
+		}
+	}
+
+	//null when the doctor or their department is unknown, such a link lists nothing
+	private static Key key(Map<Integer, String> departments, IntIntHashMap doctors, int doctor, int day) {
+		String name = departments.get(doctors.get(doctor, -1));
+		return name == null ? null : new Key(name, day);
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class runs the menu operations headless, from a stream of JSON lines:
+ *
+ *   {"op": "AddDoctor", "name": "john smith", "specialty": "cardiology", "did": 3}
+ *   {"op": "MakeAppointment", "name": "jane doe", "gender": "F", "age": 40,
+ *    "address": "1 main st", "doctor_id": 12, "appointment_id": 345}
+ *   {"op": "FindPatientsCountWithStatus", "status": "AC"}
+ *
+ * See Operations for the parameters of every operation. Blank lines and
+ * lines starting with # are skipped. The input is cut into chunks of
+ * cs166.batch.size records that run in parallel on up to the given number of
+ * threads; within a chunk, consecutive inserts of the same kind go to the
+ * database as one batch. One JSON result line is written per record, in
+ * input order, e.g.
+ *
+ *   {"line":1,"op":"AddDoctor","ok":true,"doctor_id":250}
+ *
+ * Records of one chunk run in order, records of different chunks may run
+ * concurrently, so with more than one thread a record should not depend on
+ * a record close before it.
+ *
+ */
+
+public class BatchRunner{
+	static final int BATCH_SIZE = Integer.getInteger("cs166.batch.size", 100);
+
+	/**
+	 * One chunk of consecutive input records.
+	 */
+	private static class Chunk{
+		final List<Integer> lines = new ArrayList<Integer>();
+		final List<String> ops = new ArrayList<String>();
+		final List<Map<String, Object>> params = new ArrayList<Map<String, Object>>();
+		//results for records that could not be parsed, by position in the chunk
+		final List<Map<String, Object>> parseErrors = new ArrayList<Map<String, Object>>();
+	}
+
+	private final Operations _ops;
+	private final int _threads;
+	private long _records = 0;
+	private final AtomicLong _failed = new AtomicLong();
+
+	/**
+	 * @param esql the database to run the operations against
+	 * @param threads the number of chunks run concurrently
+	 */
+	public BatchRunner(DBproject esql, int threads) {
+		this._ops = new Operations(esql);
+		this._threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Method to run every record of the input and write the results.
+	 *
+	 * @param input the JSON lines to run
+	 * @param out where the result lines are written
+	 */
+	public void run(BufferedReader input, PrintStream out) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(this._threads);
+		//bounded so a large input is not read into memory ahead of the workers
+		Deque<Future<List<String>>> pending = new ArrayDeque<Future<List<String>>>();
+		long t0 = System.nanoTime();
+		try {
+			int lineNo = 0;
+			Chunk chunk = new Chunk();
+			String line;
+			while ((line = input.readLine()) != null) {
+				++lineNo;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				add(chunk, lineNo, line);
+				if (chunk.lines.size() >= BATCH_SIZE) {
+					submit(pool, pending, chunk);
+					chunk = new Chunk();
+					while (pending.size() > 2 * this._threads) {
+						write(pending.removeFirst(), out);
+					}
+				}
+			}
+			if (!chunk.lines.isEmpty()) {
+				submit(pool, pending, chunk);
+			}
+			while (!pending.isEmpty()) {
+				write(pending.removeFirst(), out);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		out.flush();
+		double secs = (System.nanoTime() - t0) / 1e9;
+		System.err.println(String.format("%d records, %d failed, %.2f seconds, %.0f records/sec",
+			this._records, this._failed.get(), secs, this._records / Math.max(secs, 1e-9)));
+	}
+
+	private static void add(Chunk chunk, int lineNo, String line) {
+		Map<String, Object> params;
+		String op;
+		Map<String, Object> parseError = null;
+		try {
+			params = Json.parseObject(line);
+			Object o = params.get("op");
+			op = o == null ? null : o.toString();
+		} catch (IllegalArgumentException e) {
+			params = null;
+			op = null;
+			parseError = Operations.error(e.getMessage());
+		}
+		chunk.lines.add(lineNo);
+		chunk.ops.add(op);
+		chunk.params.add(params);
+		chunk.parseErrors.add(parseError);
+	}
+
+	private void submit(ExecutorService pool, Deque<Future<List<String>>> pending, final Chunk chunk) {
+		pending.addLast(pool.submit(() -> {
+			List<Map<String, Object>> results = this._ops.runAll(chunk.ops, chunk.params);
+			List<String> lines = new ArrayList<String>(results.size());
+			for (int i = 0; i < results.size(); ++i) {
+				Map<String, Object> r = chunk.parseErrors.get(i) != null ? chunk.parseErrors.get(i) : results.get(i);
+				if (!Boolean.TRUE.equals(r.get("ok"))) {
+					this._failed.incrementAndGet();
+				}
+				StringBuilder sb = new StringBuilder();
+				sb.append("{\"line\":").append(chunk.lines.get(i)).append(",\"op\":");
+				Json.write(sb, chunk.ops.get(i));
+				for (Map.Entry<String, Object> e : r.entrySet()) {
+					sb.append(',');
+					Json.write(sb, e.getKey());
+					sb.append(':');
+					Json.write(sb, e.getValue());
+				}
+				lines.add(sb.append('}').toString());
+			}
+			return lines;
+		}));
+	}
+
+	private void write(Future<List<String>> f, PrintStream out) throws Exception {
+		for (String line : f.get()) {
+			++this._records;
+			out.println(line);
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class books appointments through the make_appointment function from
+ * sql/booking.sql. The whole booking (checks, patient registration, status
+ * change and the searches / has_appointment links) runs as one statement on
+ * the server, so it costs a single round trip and is never left half done.
+ *
+ * A booking of an available appointment outside the doctor's time slots is
+ * turned down from memory (AvailabilityIndex knows the appointment's slot,
+ * TimeSlotIndex the doctor's) without reserving a patient id or a round
+ * trip; make_appointment checks the slots again either way.
+ *
+ * The function takes row locks, so concurrent bookers of the same
+ * appointment or doctor queue up instead of overbooking. Bookings that fail
+ * with a serialization failure or a deadlock are retried with backoff.
+ *
+ */
+
+public class BookingEngine{
+	public static final String BOOKED = "BOOKED";
+	public static final String WAITLISTED = "WAITLISTED";
+	public static final String NO_APPOINTMENT = "NO_APPOINTMENT";
+	public static final String NO_DOCTOR = "NO_DOCTOR";
+	public static final String NO_TIMESLOT = "NO_TIMESLOT";
+	public static final String FULL = "FULL";
+	public static final String OTHER_DOCTOR = "OTHER_DOCTOR";
+	public static final String PAST = "PAST";
+
+	private static final String BOOK = "select * from make_appointment(?, ?, ?, ?, ?, ?, ?)";
+	private static final String BOOK_ANY = "select * from book_any_appointment(?, ?, ?, ?, ?, ?)";
+	private static final int MAX_ATTEMPTS = Integer.getInteger("cs166.booking.maxAttempts", 5);
+
+	/**
+	 * Outcome of one booking attempt.
+	 */
+	public static class Result{
+		public final String outcome;
+		public final int doctorId;
+		public final int appointmentId;
+		//the fields below are only meaningful when isBooked() is true
+		public final int patientId;
+		public final boolean patientCreated;
+		public final String previousStatus;
+		public final String status;
+		public final int hospitalId;
+
+		Result(String outcome, int doctorId, int appointmentId, int patientId, boolean patientCreated,
+				String previousStatus, String status, int hospitalId) {
+			this.outcome = outcome;
+			this.doctorId = doctorId;
+			this.appointmentId = appointmentId;
+			this.patientId = patientId;
+			this.patientCreated = patientCreated;
+			this.previousStatus = previousStatus;
+			this.status = status;
+			this.hospitalId = hospitalId;
+		}
+
+		/**
+		 * @return true if the patient got the appointment or was waitlisted for it
+		 */
+		public boolean isBooked() {
+			return BOOKED.equals(this.outcome) || WAITLISTED.equals(this.outcome);
+		}
+
+		@Override
+		public String toString() {
+			if (!isBooked()) {
+				return this.outcome + " (doctor " + this.doctorId + ", appointment " + this.appointmentId + ")";
+			}
+			return this.outcome + ": patient " + this.patientId + (this.patientCreated ? " (new)" : "") +
+				", doctor " + this.doctorId + ", appointment " + this.appointmentId +
+				" " + this.previousStatus + " -> " + this.status + ", hospital " + this.hospitalId;
+		}
+	}
+
+	private final DBproject _esql;
+	private final AtomicLong _retries = new AtomicLong();
+	private final AtomicLong _localRejects = new AtomicLong();
+
+	public BookingEngine(DBproject esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * @return the number of booking attempts retried after a transient failure
+	 */
+	public long getRetries() {
+		return this._retries.get();
+	}
+
+	/**
+	 * @return the number of bookings turned down from memory for being
+	 * outside the doctor's time slots
+	 */
+	public long getLocalRejects() {
+		return this._localRejects.get();
+	}
+
+	/**
+	 * Method to book an appointment for a patient with a doctor. The patient
+	 * is looked up by name, gender, age and address and registered if they
+	 * are not known yet.
+	 *
+	 * @return the outcome of the booking
+	 * @throws java.sql.SQLException when the booking could not be run
+	 */
+	public Result book(String name, char gender, int age, String address,
+			int doctorId, int appointmentId) throws SQLException {
+		String slot = this._esql.getAvailabilityIndex().slotOf(appointmentId);
+		TimeSlotIndex slots = this._esql.getTimeSlotIndex();
+		if (slot != null && slots.knows(doctorId) && !slots.covers(doctorId, TimeSlot.parse(slot))) {
+			this._localRejects.incrementAndGet();
+			return new Result(NO_TIMESLOT, doctorId, appointmentId, 0, false, null, null, 0);
+		}
+		return run(BOOK, name, gender, age, address, doctorId, appointmentId);
+	}
+
+	/**
+	 * Method to book the earliest available appointment of a doctor. Rows
+	 * locked by concurrent bookers are skipped rather than waited on.
+	 *
+	 * @return the outcome of the booking, NO_APPOINTMENT when nothing was free
+	 * @throws java.sql.SQLException when the booking could not be run
+	 */
+	public Result bookAny(String name, char gender, int age, String address, int doctorId) throws SQLException {
+		return run(BOOK_ANY, name, gender, age, address, doctorId, -1);
+	}
+
+	private Result run(final String sql, final String name, final char gender, final int age, final String address,
+			final int doctorId, final int appointmentId) throws SQLException {
+		// reserved up front so the function can register a new patient without
+		// another round trip, an id that ends up unused just leaves a gap
+		final int newPatientId = DBproject.newPatientID(this._esql);
+		for (int attempt = 1; ; ++attempt) {
+			try {
+				final Object[] params = appointmentId < 0
+					? new Object[]{ name, gender, age, address, newPatientId, doctorId }
+					: new Object[]{ name, gender, age, address, newPatientId, doctorId, appointmentId };
+				Result result = Metrics.query("booking", sql, params, () -> this._esql.withConnection(conn -> {
+					try (ResultSet rs = this._esql.prepare(conn, sql, params).executeQuery()) {
+						if (!rs.next()) {
+							throw new SQLException(sql + " returned no row");
+						}
+						int appt = appointmentId;
+						if (appt < 0) {
+							appt = rs.getInt(7);
+							if (rs.wasNull()) {
+								appt = -1;
+							}
+						}
+						return new Result(rs.getString(1), doctorId, appt, rs.getInt(2), rs.getBoolean(3),
+							rs.getString(4), rs.getString(5), rs.getInt(6));
+					}
+				}));
+				if (result.patientCreated) {
+					this._esql.getReferenceIndex().addPatientName(name);
+				}
+				if (result.isBooked()) {
+					this._esql.getQueryCache().invalidate(QueryCache.APPOINTMENT, QueryCache.PATIENT,
+						QueryCache.SEARCHES, QueryCache.HAS_APPOINTMENT);
+					this._esql.getAvailabilityIndex().book(result.appointmentId, doctorId, result.status);
+				}
+				return result;
+			} catch (SQLException e) {
+				if (attempt >= MAX_ATTEMPTS || !isRetryable(e)) {
+					throw e;
+				}
+				this._retries.incrementAndGet();
+				backoff(attempt);
+			}
+		}
+	}
+
+	//serialization_failure and deadlock_detected, the transaction was rolled back and can simply be rerun
+	private static boolean isRetryable(SQLException e) {
+		String state = e.getSQLState();
+		return "40001".equals(state) || "40P01".equals(state);
+	}
+
+	private static void backoff(int attempt) throws SQLException {
+		long ceiling = Math.min(200L, 5L << attempt);
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(1, ceiling + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while retrying a booking", "40001");
+		}
+	}
+}
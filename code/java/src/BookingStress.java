@@ -0,0 +1,252 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a multi-threaded stress test for the booking path. It runs
+ * rounds of concurrent bookings with a growing number of threads, half of
+ * them aimed at specific (doctor, appointment) pairs and half through the
+ * SKIP LOCKED "any free appointment" path, and checks after every round that
+ * nothing was overbooked:
+ *   - no appointment was moved AV -> AC more than once,
+ *   - no appointment ended up linked to more than one doctor,
+ *   - no doctor took more bookings in a time slot on one day than
+ *     patient_per_hour allows,
+ *   - the maintained counts in slot_load, doctor_status_count and
+ *     doctor_status_patients still match has_appointment, searches and the
+ *     appointment statuses.
+ * Bookings per second are reported for every thread count.
+ *
+ * The test writes real bookings, so run it against a scratch database:
+ *   java -cp lib/*:bin/ BookingStress <dbname> <port> <user> [seconds] [threads...]
+ *
+ */
+
+public class BookingStress{
+	//bookings per doctor, time slot (as a minute range) and day, counted from the links themselves,
+	//archived ones included
+	static final String SLOT_LOAD = "select h.doctor_id, time_slot_range(a.time_slot), a.adate, count(*) " +
+		"from has_appointment_history h join appointment_history a on a.appnt_ID = h.appt_id " +
+		"where time_slot_range(a.time_slot) is not null group by 1, 2, 3";
+	static final String SLOT_LOAD_DRIFT = "select count(*) from (" + SLOT_LOAD + ") t (did, slot, adate, n) " +
+		"full join slot_load s using (did, slot, adate) where coalesce(t.n, 0) <> coalesce(s.booked, 0)";
+	//the booked slots none of whose covering shifts is within its patient_per_hour, counting every
+	//slot inside the shift; make_appointment only books while one of them has a place left
+	static final String OVER_CAPACITY = "with t (did, slot, adate, n) as (" + SLOT_LOAD + "), " +
+		"r as (select did, time_slot_range(time_slot) as shift, max(patient_per_hour) as cap from request_maintenance " +
+		"where time_slot_range(time_slot) is not null group by 1, 2), " +
+		"s as (select r.did, r.shift, t.adate, r.cap, sum(t.n) as n from r join t on t.did = r.did and t.slot <@ r.shift " +
+		"group by 1, 2, 3, 4) " +
+		"select t.did, t.slot, t.adate, t.n from t where not exists (select 1 from s where s.did = t.did " +
+		"and s.adate = t.adate and s.shift @> t.slot and s.n <= s.cap)";
+	static final String STATUS_PIVOT_DRIFT = "select count(*) from (select h.doctor_id, " +
+		"count(*) filter (where a.status = 'PA') as pa, count(*) filter (where a.status = 'AC') as ac, " +
+		"count(*) filter (where a.status = 'AV') as av, count(*) filter (where a.status = 'WL') as wl " +
+		"from has_appointment_history h join appointment_history a on a.appnt_ID = h.appt_id group by h.doctor_id) t " +
+		"full join doctor_status_count c using (doctor_id) " +
+		"where (coalesce(t.pa, 0), coalesce(t.ac, 0), coalesce(t.av, 0), coalesce(t.wl, 0)) <> " +
+		"(coalesce(c.pa, 0), coalesce(c.ac, 0), coalesce(c.av, 0), coalesce(c.wl, 0))";
+	static final String PATIENT_COUNT_DRIFT = "select count(*) from (select a.status, h.doctor_id, count(distinct s.pid) as n " +
+		"from has_appointment_history h join appointment_history a on a.appnt_ID = h.appt_id join searches_history s on s.aid = h.appt_id " +
+		"where a.status is not null group by a.status, h.doctor_id) t " +
+		"full join (select * from doctor_status_patients where patients <> 0) c using (status, doctor_id) " +
+		"where coalesce(t.n, 0) <> coalesce(c.patients, 0)";
+
+	private final DBproject _esql;
+	//(doctor, appointment) pairs where the doctor works the appointment's slot
+	private final List<int[]> _pairs = new ArrayList<int[]>();
+	private final int[] _doctors;
+	//bookings by "doctor|slot|date" of the slots over capacity before the first round
+	private final Map<String, Integer> _initialOver = new HashMap<String, Integer>();
+	private final ConcurrentHashMap<Integer, AtomicInteger> _activations = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+	public BookingStress(DBproject esql) throws Exception {
+		this._esql = esql;
+		esql.executeQueryStreaming("select r.did, a.appnt_ID from request_maintenance r " +
+			"join appointment a on time_slot_range(r.time_slot) @> time_slot_range(a.time_slot) " +
+			"where a.status in ('AV', 'AC', 'WL')",
+			rs -> this._pairs.add(new int[]{ rs.getInt(1), rs.getInt(2) }));
+		esql.executeQueryStreaming(OVER_CAPACITY, rs -> this._initialOver.put(slotKey(rs), rs.getInt(4)));
+		ColumnarResult doctors = esql.executeQueryColumnar("select distinct did from request_maintenance");
+		this._doctors = new int[doctors.rowCount()];
+		for (int i = 0; i < this._doctors.length; ++i) {
+			this._doctors[i] = doctors.getInt(i, 0);
+		}
+	}
+
+	/**
+	 * Method to run one round of bookings.
+	 *
+	 * @param threads the number of concurrent bookers
+	 * @param seconds how long the round lasts
+	 * @return one formatted report line
+	 */
+	public String round(int threads, long seconds) throws Exception {
+		final AtomicLong attempts = new AtomicLong();
+		final AtomicLong booked = new AtomicLong();
+		final AtomicLong waitlisted = new AtomicLong();
+		final AtomicLong rejected = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		long retriesBefore = this._esql.getBookingEngine().getRetries();
+		int multiDoctorBefore = countMultiDoctorAppointments();
+
+		final long deadline = System.nanoTime() + seconds * 1000000000L;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; ++t) {
+			final int worker = t;
+			Thread th = new Thread(() -> {
+				try {
+					start.await();
+					ThreadLocalRandom rnd = ThreadLocalRandom.current();
+					while (System.nanoTime() < deadline) {
+						//a small pool of names makes bookers race on registering the same patient
+						String name = "stress patient " + (char) ('a' + rnd.nextInt(26));
+						BookingEngine.Result r;
+						try {
+							if (worker % 2 == 0 && !this._pairs.isEmpty()) {
+								int[] pair = this._pairs.get(rnd.nextInt(this._pairs.size()));
+								r = this._esql.getBookingEngine().book(name, 'F', 30, "stress", pair[0], pair[1]);
+							} else {
+								int did = this._doctors[rnd.nextInt(this._doctors.length)];
+								r = this._esql.getBookingEngine().bookAny(name, 'F', 30, "stress", did);
+							}
+						} catch (Exception e) {
+							errors.incrementAndGet();
+							continue;
+						}
+						attempts.incrementAndGet();
+						if (BookingEngine.BOOKED.equals(r.outcome)) {
+							booked.incrementAndGet();
+							this._activations.computeIfAbsent(r.appointmentId, k -> new AtomicInteger()).incrementAndGet();
+						} else if (BookingEngine.WAITLISTED.equals(r.outcome)) {
+							waitlisted.incrementAndGet();
+						} else {
+							rejected.incrementAndGet();
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					done.countDown();
+				}
+			}, "booker-" + t);
+			th.start();
+		}
+
+		long t0 = System.nanoTime();
+		start.countDown();
+		done.await();
+		double elapsed = (System.nanoTime() - t0) / 1e9;
+
+		List<String> violations = new ArrayList<String>();
+		for (Map.Entry<Integer, AtomicInteger> e : this._activations.entrySet()) {
+			if (e.getValue().get() > 1) {
+				violations.add("appointment " + e.getKey() + " activated " + e.getValue().get() + " times");
+			}
+		}
+		final Map<String, Integer> over = new HashMap<String, Integer>();
+		this._esql.executeQueryStreaming(OVER_CAPACITY, rs -> over.put(slotKey(rs), rs.getInt(4)));
+		for (Map.Entry<String, Integer> e : over.entrySet()) {
+			//a slot may only be over capacity if the seed data already had it so
+			int before = this._initialOver.getOrDefault(e.getKey(), 0);
+			if (e.getValue() > before) {
+				violations.add("doctor|slot|date " + e.getKey() + " has " + e.getValue() +
+					" bookings and every shift covering it is full");
+			}
+		}
+		ColumnarResult drift = this._esql.executeQueryColumnar(SLOT_LOAD_DRIFT);
+		if (drift.getLong(0, 0) > 0) {
+			violations.add(drift.getLong(0, 0) + " slot_load counts out of step with has_appointment");
+		}
+		drift = this._esql.executeQueryColumnar(STATUS_PIVOT_DRIFT);
+		if (drift.getLong(0, 0) > 0) {
+			violations.add(drift.getLong(0, 0) + " doctor_status_count rows out of step with the appointments");
+		}
+		drift = this._esql.executeQueryColumnar(PATIENT_COUNT_DRIFT);
+		if (drift.getLong(0, 0) > 0) {
+			violations.add(drift.getLong(0, 0) + " doctor_status_patients rows out of step with searches");
+		}
+		int multiDoctorAfter = countMultiDoctorAppointments();
+		if (multiDoctorAfter > multiDoctorBefore) {
+			violations.add((multiDoctorAfter - multiDoctorBefore) + " appointments gained a second doctor");
+		}
+
+		long ok = booked.get() + waitlisted.get();
+		return String.format("%7d %9d %7d %10d %8d %7d %7d %12.1f   %s",
+			threads, attempts.get(), booked.get(), waitlisted.get(), rejected.get(), errors.get(),
+			this._esql.getBookingEngine().getRetries() - retriesBefore, ok / elapsed,
+			violations.isEmpty() ? "OK" : "OVERBOOKED " + violations);
+	}
+
+	private static String slotKey(ResultSet rs) throws SQLException {
+		return rs.getInt(1) + "|" + rs.getString(2) + "|" + rs.getString(3);
+	}
+
+	private int countMultiDoctorAppointments() throws Exception {
+		ColumnarResult r = this._esql.executeQueryColumnar(
+			"select count(*) from (select appt_id from has_appointment group by appt_id having count(*) > 1) t");
+		return (int) r.getLong(0, 0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] BookingStress <dbname> <port> <user> [seconds] [threads...]");
+			return;
+		}
+		long seconds = args.length > 3 ? Long.parseLong(args[3]) : 5;
+		int[] threadCounts = { 1, 2, 4, 8, 16 };
+		if (args.length > 4) {
+			threadCounts = new int[args.length - 4];
+			for (int i = 4; i < args.length; ++i) {
+				threadCounts[i - 4] = Integer.parseInt(args[i]);
+			}
+		}
+		int maxThreads = 1;
+		for (int t : threadCounts) {
+			maxThreads = Math.max(maxThreads, t);
+		}
+		if (System.getProperty("cs166.pool.maxSize") == null) {
+			System.setProperty("cs166.pool.maxSize", Integer.toString(maxThreads));
+		}
+
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			BookingStress stress = new BookingStress(esql);
+			System.out.println("threads  attempts  booked waitlisted rejected  errors retries bookings/sec   check");
+			boolean failed = false;
+			for (int t : threadCounts) {
+				String line = stress.round(t, seconds);
+				failed |= !line.endsWith("OK");
+				System.out.println(line);
+			}
+			if (failed) {
+				System.exit(1);
+			}
+		} finally {
+			esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+/**
+ * This class bulk loads the CSV files from code/data through the driver's
+ * COPY FROM STDIN API, so the files do not have to be copied into the server
+ * data directory first. Dates in M/D/YYYY form are rewritten to ISO on the
+ * fly so the load does not depend on the server's DateStyle.
+ *
+ * Tables are loaded in foreign key order, level by level, and the tables of
+ * one level are loaded in parallel on separate pooled connections. The
+ * indexes from create_indexes.sql are dropped before the load and built once
+ * the data is in, the key sequences are resynced, the appointments are
+ * moved into their monthly partitions (partition_appointments.sql) and the
+ * counts maintained by capacity.sql, status_pivot.sql and patient_count.sql
+ * are rebuilt at the end.
+ *
+ * The rows come from a Source, by default the CSV files of a directory; the
+ * data generator plugs in here to stream synthetic rows instead.
+ *
+ * The schema (create.sql) must exist and the tables should be empty.
+ *
+ */
+
+public class BulkLoader{
+	private static final int BUFFER_SIZE = 64 * 1024;
+	//run after the indexes are built, they resync the sequences, split the appointments into their
+	//monthly partitions and rebuild the maintained counts
+	private static final String[] POST_LOAD_SCRIPTS = { "create_sequences.sql", "partition_appointments.sql",
+		"capacity.sql", "status_pivot.sql", "patient_count.sql" };
+	static final Pattern INDEX_NAME = Pattern.compile("create\\s+(?:unique\\s+)?index\\s+(?:if\\s+not\\s+exists\\s+)?(\\w+)",
+		Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * One table to load from one CSV file.
+	 */
+	static class Table{
+		final String name;
+		final String columns;
+		final String file;
+		//index of the column holding a date, or -1
+		final int dateColumn;
+
+		Table(String name, String columns, String file, int dateColumn) {
+			this.name = name;
+			this.columns = columns;
+			this.file = file;
+			this.dateColumn = dateColumn;
+		}
+	}
+
+	//each level only references tables of earlier levels
+	static final Table[][] LEVELS = {
+		{
+			new Table("Hospital", "hospital_ID, name", "hospital.csv", -1),
+			new Table("Patient", "patient_ID, name, gtype, age, address, number_of_appts", "patient.csv", -1),
+			new Table("Appointment", "appnt_ID, adate, time_slot, status", "appointment.csv", 1),
+		},
+		{
+			new Table("Department", "dept_ID, name, hid", "department.csv", -1),
+			new Table("Staff", "staff_ID, name, hid", "staff.csv", -1),
+		},
+		{
+			new Table("Doctor", "doctor_ID, name, specialty, did", "doctor.csv", -1),
+		},
+		{
+			new Table("request_maintenance", "patient_per_hour, dept_name, time_slot, did, sid", "request_maintenance.csv", -1),
+			new Table("searches", "hid, pid, aid", "searches.csv", -1),
+			new Table("schedules", "appt_id, staff_id", "schedules.csv", -1),
+			new Table("has_appointment", "appt_id, doctor_id", "has_appointment.csv", -1),
+		},
+	};
+
+	/**
+	 * Producer of the CSV rows of a table.
+	 */
+	public interface Source{
+		/**
+		 * Method to write every row of a table as CSV lines, columns in the
+		 * order given by Table.columns.
+		 */
+		void write(Table table, Writer out) throws IOException;
+	}
+
+	private final DBproject _esql;
+	private final Source _source;
+	private final Path _sqlDir;
+
+	/**
+	 * @param esql the database to load into
+	 * @param dataDir the directory holding the CSV files
+	 * @param sqlDir the directory holding create_indexes.sql and the POST_LOAD_SCRIPTS
+	 */
+	public BulkLoader(DBproject esql, Path dataDir, Path sqlDir) {
+		this(esql, csvFiles(dataDir), sqlDir);
+	}
+
+	/**
+	 * @param esql the database to load into
+	 * @param source where the rows come from
+	 * @param sqlDir the directory holding create_indexes.sql and the POST_LOAD_SCRIPTS
+	 */
+	public BulkLoader(DBproject esql, Source source, Path sqlDir) {
+		this._esql = esql;
+		this._source = source;
+		this._sqlDir = sqlDir;
+	}
+
+	/**
+	 * Method to get a source reading the CSV files of a directory, such as
+	 * code/data.
+	 */
+	public static Source csvFiles(final Path dataDir) {
+		return (table, out) -> {
+			try (BufferedReader reader = Files.newBufferedReader(dataDir.resolve(table.file), StandardCharsets.UTF_8)) {
+				StringBuilder buf = new StringBuilder(256);
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isEmpty()) {
+						continue;
+					}
+					if (table.dateColumn >= 0) {
+						buf.setLength(0);
+						appendWithIsoDate(buf, line, table.dateColumn);
+						out.append(buf);
+					} else {
+						out.write(line);
+					}
+					out.write('\n');
+				}
+			}
+		};
+	}
+
+	/**
+	 * Method to run the whole load and print a report to standard out.
+	 */
+	public void run() throws Exception {
+		long t0 = System.nanoTime();
+		Path indexScript = this._sqlDir.resolve("create_indexes.sql");
+		if (Files.exists(indexScript)) {
+			dropIndexes(indexScript);
+		}
+
+		int threads = Math.min(this._esql.getPool().getMaxSize(), 4);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long totalRows = 0;
+		try {
+			System.out.println(String.format("%-20s %10s %9s %12s", "table", "rows", "seconds", "rows/sec"));
+			for (Table[] level : LEVELS) {
+				List<Future<String>> results = new ArrayList<Future<String>>();
+				final long[] rows = new long[level.length];
+				for (int i = 0; i < level.length; ++i) {
+					final Table table = level[i];
+					final int slot = i;
+					results.add(pool.submit(() -> {
+						long start = System.nanoTime();
+						rows[slot] = copy(table);
+						double secs = (System.nanoTime() - start) / 1e9;
+						return String.format("%-20s %10d %9.2f %12.0f", table.name, rows[slot], secs, rows[slot] / Math.max(secs, 1e-9));
+					}));
+				}
+				// a level has to be complete before the tables referencing it are loaded
+				for (Future<String> f : results) {
+					System.out.println(f.get());
+				}
+				for (long r : rows) {
+					totalRows += r;
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		double loadSecs = (System.nanoTime() - t0) / 1e9;
+
+		long t1 = System.nanoTime();
+		if (Files.exists(indexScript)) {
+			SqlScript.run(this._esql, indexScript);
+		}
+		for (String name : POST_LOAD_SCRIPTS) {
+			Path script = this._sqlDir.resolve(name);
+			if (Files.exists(script)) {
+				SqlScript.run(this._esql, script);
+			}
+		}
+		double indexSecs = (System.nanoTime() - t1) / 1e9;
+
+		System.out.println(String.format("%-20s %10d %9.2f %12.0f", "total", totalRows, loadSecs, totalRows / Math.max(loadSecs, 1e-9)));
+		System.out.println(String.format("indexes, sequences and maintained counts built in %.2f seconds", indexSecs));
+	}
+
+	/**
+	 * Method to stream the rows of one table into the database.
+	 *
+	 * @return the number of rows loaded
+	 */
+	long copy(final Table table) throws SQLException {
+		final String sql = "COPY " + table.name + " (" + table.columns + ") FROM STDIN WITH (FORMAT csv)";
+		try {
+			return this._esql.withConnection(conn -> {
+				PGCopyOutputStream copy = new PGCopyOutputStream(conn.unwrap(PGConnection.class), sql, BUFFER_SIZE);
+				try {
+					Writer out = new BufferedWriter(new OutputStreamWriter(copy, StandardCharsets.UTF_8), BUFFER_SIZE);
+					this._source.write(table, out);
+					out.flush();
+					return copy.endCopy();
+				} catch (IOException | RuntimeException e) {
+					if (copy.isActive()) {
+						copy.cancelCopy();
+					}
+					throw new SQLException("Loading " + table.name + " failed: " + e.getMessage(), e);
+				}
+			});
+		} catch (SQLException e) {
+			throw new SQLException(table.name + ": " + e.getMessage(), e.getSQLState(), e);
+		}
+	}
+
+	/**
+	 * Method to copy a CSV line, rewriting a M/D/YYYY date in the given
+	 * column to YYYY-MM-DD. Values already in ISO form are copied as is.
+	 */
+	static void appendWithIsoDate(StringBuilder out, String line, int column) {
+		int start = 0;
+		for (int c = 0; c < column; ++c) {
+			int comma = line.indexOf(',', start);
+			if (comma < 0) {
+				out.append(line);
+				return;
+			}
+			start = comma + 1;
+		}
+		int end = line.indexOf(',', start);
+		if (end < 0) {
+			end = line.length();
+		}
+		out.append(line, 0, start);
+		int s1 = line.indexOf('/', start);
+		int s2 = s1 < 0 ? -1 : line.indexOf('/', s1 + 1);
+		if (s1 < 0 || s2 < 0 || s2 >= end) {
+			out.append(line, start, end);
+		} else {
+			out.append(line, s2 + 1, end).append('-');
+			if (s1 - start == 1) {
+				out.append('0');
+			}
+			out.append(line, start, s1).append('-');
+			if (s2 - s1 == 2) {
+				out.append('0');
+			}
+			out.append(line, s1 + 1, s2);
+		}
+		out.append(line, end, line.length());
+	}
+
+	//drops the indexes the script creates, so they are built once after the load
+	private void dropIndexes(Path indexScript) throws IOException, SQLException {
+		for (String sql : SqlScript.read(indexScript)) {
+			Matcher m = INDEX_NAME.matcher(sql);
+			if (m.find()) {
+				this._esql.executeUpdate("DROP INDEX IF EXISTS " + m.group(1).toLowerCase(Locale.ROOT));
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds a query result column by column. Integer columns are kept
+ * in int[] or long[] arrays, dates as int[] epoch days and everything else as
+ * dictionary encoded strings, so repeated values such as statuses or time
+ * slots are stored once. Column types are taken from the ResultSetMetaData.
+ *
+ * It is the form QueryCache keeps report results in (executeQueryCached,
+ * read by the report menus and Operations), so a cached result takes little
+ * memory, and it is read through the typed getters by AppointmentArchiver
+ * and the test data tools (SampleData, BookingStress). The menu validators
+ * it was first written for now check ReferenceIndex instead and no longer
+ * run a query per lookup.
+ *
+ * Rows and columns are numbered from 0.
+ *
+ */
+
+public class ColumnarResult{
+	public static final int INT = 0;
+	public static final int LONG = 1;
+	public static final int DATE = 2;
+	public static final int STRING = 3;
+
+	private final String[] _names;
+	private final int[] _types;
+	//int, date and dictionary code columns share the int[] storage
+	private final int[][] _ints;
+	private final long[][] _longs;
+	private final long[][] _nulls;
+	private final List<List<String>> _dictionaries;
+	private int _rows = 0;
+	private int _capacity;
+
+	private ColumnarResult(String[] names, int[] types, int capacity) {
+		this._names = names;
+		this._types = types;
+		this._capacity = capacity;
+		int cols = names.length;
+		this._ints = new int[cols][];
+		this._longs = new long[cols][];
+		this._nulls = new long[cols][];
+		this._dictionaries = new ArrayList<List<String>>(cols);
+		for (int c = 0; c < cols; ++c) {
+			if (types[c] == LONG) {
+				this._longs[c] = new long[capacity];
+			} else {
+				this._ints[c] = new int[capacity];
+			}
+			this._nulls[c] = new long[(capacity + 63) >>> 6];
+			this._dictionaries.add(types[c] == STRING ? new ArrayList<String>() : null);
+		}
+	}
+
+	/**
+	 * Method to read every remaining row of a result set into columns.
+	 *
+	 * @param rs the result set, positioned before its first row
+	 * @return the result in columnar form
+	 * @throws java.sql.SQLException when the rows could not be read
+	 */
+	public static ColumnarResult from(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int cols = rsmd.getColumnCount();
+		String[] names = new String[cols];
+		int[] types = new int[cols];
+		for (int c = 0; c < cols; ++c) {
+			names[c] = rsmd.getColumnName(c + 1);
+			types[c] = mapType(rsmd.getColumnType(c + 1));
+		}
+
+		ColumnarResult result = new ColumnarResult(names, types, 16);
+		List<Map<String, Integer>> encoders = new ArrayList<Map<String, Integer>>(cols);
+		for (int c = 0; c < cols; ++c) {
+			encoders.add(types[c] == STRING ? new HashMap<String, Integer>() : null);
+		}
+
+		while (rs.next()) {
+			int row = result._rows;
+			if (row == result._capacity) {
+				result.grow();
+			}
+			for (int c = 0; c < cols; ++c) {
+				switch (types[c]) {
+					case INT:
+						result._ints[c][row] = rs.getInt(c + 1);
+						break;
+					case LONG:
+						result._longs[c][row] = rs.getLong(c + 1);
+						break;
+					case DATE: {
+						Date d = rs.getDate(c + 1);
+						if (d != null) {
+							result._ints[c][row] = (int) d.toLocalDate().toEpochDay();
+						}
+						break;
+					}
+					default: {
+						String v = rs.getString(c + 1);
+						if (v != null) {
+							Map<String, Integer> encoder = encoders.get(c);
+							Integer code = encoder.get(v);
+							if (code == null) {
+								List<String> dict = result._dictionaries.get(c);
+								code = dict.size();
+								dict.add(v);
+								encoder.put(v, code);
+							}
+							result._ints[c][row] = code.intValue();
+						}
+						break;
+					}
+				}
+				if (rs.wasNull()) {
+					result._nulls[c][row >>> 6] |= 1L << row;
+				}
+			}
+			result._rows++;
+		}
+		return result;
+	}
+
+	public int rowCount() {
+		return this._rows;
+	}
+
+	public boolean isEmpty() {
+		return this._rows == 0;
+	}
+
+	public int columnCount() {
+		return this._names.length;
+	}
+
+	public String columnName(int col) {
+		return this._names[col];
+	}
+
+	/**
+	 * @return one of INT, LONG, DATE or STRING
+	 */
+	public int columnType(int col) {
+		return this._types[col];
+	}
+
+	public boolean isNull(int row, int col) {
+		checkRow(row);
+		return (this._nulls[col][row >>> 6] & (1L << row)) != 0;
+	}
+
+	/**
+	 * @return the value of an INT column, 0 when null
+	 */
+	public int getInt(int row, int col) {
+		checkRow(row);
+		if (this._types[col] == LONG) {
+			return Math.toIntExact(this._longs[col][row]);
+		}
+		checkType(col, INT);
+		return this._ints[col][row];
+	}
+
+	/**
+	 * @return the value of an INT or LONG column, 0 when null
+	 */
+	public long getLong(int row, int col) {
+		checkRow(row);
+		if (this._types[col] == INT) {
+			return this._ints[col][row];
+		}
+		checkType(col, LONG);
+		return this._longs[col][row];
+	}
+
+	/**
+	 * @return the value of a DATE column as days since 1970-01-01, 0 when null
+	 */
+	public int getEpochDay(int row, int col) {
+		checkRow(row);
+		checkType(col, DATE);
+		return this._ints[col][row];
+	}
+
+	/**
+	 * @return the value of any column in its text form, null when null
+	 */
+	public String getString(int row, int col) {
+		if (isNull(row, col)) {
+			return null;
+		}
+		switch (this._types[col]) {
+			case INT:
+				return Integer.toString(this._ints[col][row]);
+			case LONG:
+				return Long.toString(this._longs[col][row]);
+			case DATE:
+				return LocalDate.ofEpochDay(this._ints[col][row]).toString();
+			default:
+				return this._dictionaries.get(col).get(this._ints[col][row]);
+		}
+	}
+
+	/**
+	 * @return the number of distinct values held for a STRING column
+	 */
+	public int dictionarySize(int col) {
+		checkType(col, STRING);
+		return this._dictionaries.get(col).size();
+	}
+
+	private static int mapType(int sqlType) {
+		switch (sqlType) {
+			case Types.INTEGER:
+			case Types.SMALLINT:
+			case Types.TINYINT:
+				return INT;
+			case Types.BIGINT:
+				return LONG;
+			case Types.DATE:
+				return DATE;
+			default:
+				return STRING;
+		}
+	}
+
+	private void grow() {
+		int capacity = this._capacity << 1;
+		for (int c = 0; c < this._names.length; ++c) {
+			if (this._longs[c] != null) {
+				this._longs[c] = Arrays.copyOf(this._longs[c], capacity);
+			} else {
+				this._ints[c] = Arrays.copyOf(this._ints[c], capacity);
+			}
+			this._nulls[c] = Arrays.copyOf(this._nulls[c], (capacity + 63) >>> 6);
+		}
+		this._capacity = capacity;
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= this._rows) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + this._rows);
+		}
+	}
+
+	private void checkType(int col, int type) {
+		if (this._types[col] != type) {
+			throw new IllegalStateException("Column " + this._names[col] + " is not of the requested type");
+		}
+	}
+}
@@ -0,0 +1,425 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections.
+ * Connections are validated before they are handed out, retired once they
+ * reach their maximum lifetime and closed after sitting idle for too long.
+ * Callers block for at most the acquire timeout when the pool is exhausted.
+ *
+ * Every physical connection carries its own StatementCache, so a SQL
+ * template is parsed and planned once per connection and reused after.
+ *
+ */
+
+public class ConnectionPool{
+	//connections idle for less than this are handed out without a validation round trip
+	private static final long VALIDATION_BYPASS_MS = 500;
+
+	private final String _url;
+	private final Properties _props;
+	private final int _maxSize;
+	private final long _acquireTimeoutMs;
+	private final long _idleTimeoutMs;
+	private final long _maxLifetimeMs;
+	private final int _validationTimeoutSec;
+	private final int _statementCacheSize;
+	private final AtomicLong _statementHits = new AtomicLong();
+	private final AtomicLong _statementMisses = new AtomicLong();
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _available = _lock.newCondition();
+	//most recently used first, so the hot connections stay warm and the cold ones age out
+	private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	private final Map<Connection, PooledConnection> _inUse = new IdentityHashMap<Connection, PooledConnection>();
+	private int _total = 0;
+	private boolean _closed = false;
+	private final ScheduledExecutorService _housekeeper;
+
+	/**
+	 * Bookkeeping for one physical connection owned by the pool.
+	 */
+	private static class PooledConnection{
+		final Connection connection;
+		final StatementCache statements;
+		final long createdAt;
+		long lastUsed;
+
+		PooledConnection(Connection connection, StatementCache statements){
+			this.connection = connection;
+			this.statements = statements;
+			this.createdAt = System.currentTimeMillis();
+			this.lastUsed = this.createdAt;
+		}
+	}
+
+	/**
+	 * Creates a pool. No connection is opened until the first acquire.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @param maxSize the maximum number of physical connections
+	 * @param acquireTimeoutMs how long acquire() waits for a free connection
+	 * @param idleTimeoutMs idle connections older than this are closed
+	 * @param maxLifetimeMs connections older than this are retired
+	 */
+	public ConnectionPool(String url, String user, String passwd, int maxSize,
+			long acquireTimeoutMs, long idleTimeoutMs, long maxLifetimeMs) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1: " + maxSize);
+		}
+		this._url = url;
+		this._props = new Properties();
+		this._props.setProperty("user", user);
+		this._props.setProperty("password", passwd);
+		// use a named server-side statement from the first execution on, the
+		// statement cache is what keeps it alive between calls
+		this._props.setProperty("prepareThreshold", "1");
+		// counts the bytes and round trips of every connection, see Metrics
+		this._props.setProperty("socketFactory", CountingSocketFactory.class.getName());
+		this._maxSize = maxSize;
+		this._acquireTimeoutMs = acquireTimeoutMs;
+		this._idleTimeoutMs = idleTimeoutMs;
+		this._maxLifetimeMs = maxLifetimeMs;
+		this._validationTimeoutSec = 2;
+		this._statementCacheSize = Integer.getInteger("cs166.pool.statementCacheSize", 64);
+
+		this._housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "connection-pool-housekeeper");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, Math.min(idleTimeoutMs, maxLifetimeMs) / 2);
+		this._housekeeper.scheduleWithFixedDelay(this::evictStale, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to borrow a connection from the pool. The connection must be
+	 * handed back with release() once the caller is done with it.
+	 *
+	 * @return a validated connection in auto-commit mode
+	 * @throws java.sql.SQLException when no connection could be obtained in time
+	 */
+	public Connection acquire() throws SQLException {
+		long deadline = System.currentTimeMillis() + this._acquireTimeoutMs;
+		while (true) {
+			PooledConnection pc = null;
+			boolean create = false;
+
+			this._lock.lock();
+			try {
+				while (pc == null && !create) {
+					if (this._closed) {
+						throw new SQLException("Connection pool is closed", "08003");
+					}
+					pc = this._idle.pollFirst();
+					if (pc == null) {
+						if (this._total < this._maxSize) {
+							this._total++;
+							create = true;
+						} else {
+							long remaining = deadline - System.currentTimeMillis();
+							if (remaining <= 0) {
+								throw new SQLException("Timed out after " + this._acquireTimeoutMs +
+									"ms waiting for a database connection (pool size " + this._maxSize + ")", "08001");
+							}
+							try {
+								this._available.await(remaining, TimeUnit.MILLISECONDS);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								throw new SQLException("Interrupted while waiting for a database connection", "08001");
+							}
+						}
+					}
+				}
+				if (pc != null) {
+					this._inUse.put(pc.connection, pc);
+				}
+			} finally {
+				this._lock.unlock();
+			}
+
+			if (create) {
+				try {
+					Connection conn = DriverManager.getConnection(this._url, this._props);
+					pc = new PooledConnection(conn,
+						new StatementCache(conn, this._statementCacheSize, this._statementHits, this._statementMisses));
+				} catch (SQLException e) {
+					this._lock.lock();
+					try {
+						this._total--;
+						this._available.signal();
+					} finally {
+						this._lock.unlock();
+					}
+					throw e;
+				}
+				this._lock.lock();
+				try {
+					this._inUse.put(pc.connection, pc);
+				} finally {
+					this._lock.unlock();
+				}
+				return pc.connection;
+			}
+
+			// validate outside the lock, a dead connection is dropped and we try again
+			if (isUsable(pc, System.currentTimeMillis())) {
+				return pc.connection;
+			}
+			discard(pc);
+		}
+	}
+
+	/**
+	 * Method to hand a borrowed connection back to the pool.
+	 *
+	 * @param conn the connection returned by acquire()
+	 */
+	public void release(Connection conn) {
+		release(conn, null);
+	}
+
+	/**
+	 * Method to hand a borrowed connection back to the pool after a failure.
+	 * Connections that failed with a connection-level error (SQLState class
+	 * 08) are closed instead of being reused.
+	 *
+	 * @param conn the connection returned by acquire()
+	 * @param failure the exception the caller saw, or null
+	 */
+	public void release(Connection conn, SQLException failure) {
+		if (conn == null) {
+			return;
+		}
+		PooledConnection pc;
+		this._lock.lock();
+		try {
+			pc = this._inUse.remove(conn);
+		} finally {
+			this._lock.unlock();
+		}
+		if (pc == null) {
+			return; // not ours, or already released
+		}
+
+		boolean broken = isConnectionFailure(failure);
+		if (!broken) {
+			try {
+				// never leak an open transaction to the next borrower
+				if (!conn.getAutoCommit()) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+				}
+				broken = conn.isClosed();
+			} catch (SQLException e) {
+				broken = true;
+			}
+		}
+
+		long now = System.currentTimeMillis();
+		this._lock.lock();
+		try {
+			if (!broken && !this._closed && now - pc.createdAt < this._maxLifetimeMs) {
+				pc.lastUsed = now;
+				this._idle.addFirst(pc);
+				this._available.signal();
+				return;
+			}
+		} finally {
+			this._lock.unlock();
+		}
+		discard(pc);
+	}
+
+	/**
+	 * Method to fetch a cached prepared statement for a borrowed connection.
+	 * The statement stays owned by the pool and must not be closed.
+	 *
+	 * @param conn the connection returned by acquire()
+	 * @param sql the SQL template with ? placeholders
+	 * @return the prepared statement, with its parameters cleared
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+		PooledConnection pc;
+		this._lock.lock();
+		try {
+			pc = this._inUse.get(conn);
+		} finally {
+			this._lock.unlock();
+		}
+		if (pc == null) {
+			throw new SQLException("Connection is not borrowed from this pool");
+		}
+		return pc.statements.get(sql);
+	}
+
+	/**
+	 * @return the number of statement lookups served from a statement cache
+	 */
+	public long getStatementCacheHits() {
+		return this._statementHits.get();
+	}
+
+	/**
+	 * @return the number of statement lookups that had to prepare a statement
+	 */
+	public long getStatementCacheMisses() {
+		return this._statementMisses.get();
+	}
+
+	/**
+	 * Method to open a connection outside the pool, with the pool's settings,
+	 * for work that keeps its connection for good, such as a LISTEN. It does
+	 * not count against the pool size; the caller closes it.
+	 *
+	 * @return a new connection in auto-commit mode
+	 * @throws java.sql.SQLException when the connection could not be opened
+	 */
+	public Connection openDedicated() throws SQLException {
+		return DriverManager.getConnection(this._url, this._props);
+	}
+
+	/**
+	 * Method to close every connection and stop handing out new ones.
+	 * Connections still borrowed are closed when they are released.
+	 */
+	public void close() {
+		this._housekeeper.shutdownNow();
+		ArrayDeque<PooledConnection> toClose;
+		this._lock.lock();
+		try {
+			this._closed = true;
+			toClose = new ArrayDeque<PooledConnection>(this._idle);
+			this._idle.clear();
+			this._available.signalAll();
+		} finally {
+			this._lock.unlock();
+		}
+		for (PooledConnection pc : toClose) {
+			discard(pc);
+		}
+	}
+
+	/**
+	 * @return the number of physical connections currently open
+	 */
+	public int getTotalConnections() {
+		this._lock.lock();
+		try {
+			return this._total;
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of connections currently borrowed
+	 */
+	public int getActiveConnections() {
+		this._lock.lock();
+		try {
+			return this._inUse.size();
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the maximum number of physical connections
+	 */
+	public int getMaxSize() {
+		return this._maxSize;
+	}
+
+	private boolean isUsable(PooledConnection pc, long now) {
+		if (now - pc.createdAt >= this._maxLifetimeMs) {
+			return false;
+		}
+		if (now - pc.lastUsed < VALIDATION_BYPASS_MS) {
+			return true;
+		}
+		try {
+			return pc.connection.isValid(this._validationTimeoutSec);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private static boolean isConnectionFailure(SQLException e) {
+		for (SQLException cur = e; cur != null; cur = cur.getNextException()) {
+			String state = cur.getSQLState();
+			if (state != null && state.startsWith("08")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void discard(PooledConnection pc) {
+		this._lock.lock();
+		try {
+			this._inUse.remove(pc.connection);
+			this._total--;
+			this._available.signal();
+		} finally {
+			this._lock.unlock();
+		}
+		pc.statements.close();
+		try {
+			pc.connection.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+
+	//closes idle connections past their idle timeout or lifetime
+	private void evictStale() {
+		long now = System.currentTimeMillis();
+		ArrayDeque<PooledConnection> stale = new ArrayDeque<PooledConnection>();
+		this._lock.lock();
+		try {
+			Iterator<PooledConnection> it = this._idle.iterator();
+			while (it.hasNext()) {
+				PooledConnection pc = it.next();
+				if (now - pc.lastUsed >= this._idleTimeoutMs || now - pc.createdAt >= this._maxLifetimeMs) {
+					it.remove();
+					stale.add(pc);
+				}
+			}
+		} finally {
+			this._lock.unlock();
+		}
+		for (PooledConnection pc : stale) {
+			discard(pc);
+		}
+	}
+}
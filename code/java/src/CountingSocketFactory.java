@@ -0,0 +1,170 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Properties;
+import javax.net.SocketFactory;
+
+/**
+ * This class opens the sockets of the database connections so that every
+ * byte the driver reads and writes is counted in Metrics. A round trip is
+ * counted each time the first bytes of an answer arrive after a request was
+ * written; the driver flushes several times per request, so flushes would
+ * overcount.
+ *
+ * The driver instantiates it by name through the socketFactory connection
+ * property, see ConnectionPool.
+ *
+ */
+
+public class CountingSocketFactory extends SocketFactory{
+	public CountingSocketFactory() {
+	}
+
+	//the constructor the driver tries first
+	public CountingSocketFactory(Properties info) {
+	}
+
+	@Override
+	public Socket createSocket() throws IOException {
+		return new CountingSocket();
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket s = new CountingSocket();
+		s.connect(new InetSocketAddress(host, port));
+		return s;
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		Socket s = new CountingSocket();
+		s.bind(new InetSocketAddress(localHost, localPort));
+		s.connect(new InetSocketAddress(host, port));
+		return s;
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		Socket s = new CountingSocket();
+		s.connect(new InetSocketAddress(host, port));
+		return s;
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		Socket s = new CountingSocket();
+		s.bind(new InetSocketAddress(localAddress, localPort));
+		s.connect(new InetSocketAddress(address, port));
+		return s;
+	}
+
+	private static class CountingSocket extends Socket{
+		private InputStream _in;
+		private OutputStream _out;
+		//set by a write, cleared by the read that starts the answer
+		volatile boolean awaitingAnswer = false;
+
+		@Override
+		public synchronized InputStream getInputStream() throws IOException {
+			if (this._in == null) {
+				this._in = new CountingInputStream(this, super.getInputStream());
+			}
+			return this._in;
+		}
+
+		@Override
+		public synchronized OutputStream getOutputStream() throws IOException {
+			if (this._out == null) {
+				this._out = new CountingOutputStream(this, super.getOutputStream());
+			}
+			return this._out;
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream{
+		private final CountingSocket _socket;
+
+		CountingInputStream(CountingSocket socket, InputStream in) {
+			super(in);
+			this._socket = socket;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = this.in.read();
+			if (b >= 0) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = this.in.read(b, off, len);
+			if (n > 0) {
+				count(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = this.in.skip(n);
+			if (skipped > 0) {
+				count(skipped);
+			}
+			return skipped;
+		}
+
+		private void count(long n) {
+			if (this._socket.awaitingAnswer) {
+				this._socket.awaitingAnswer = false;
+				Metrics.roundTrip();
+			}
+			Metrics.bytesRead(n);
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream{
+		private final CountingSocket _socket;
+
+		CountingOutputStream(CountingSocket socket, OutputStream out) {
+			super(out);
+			this._socket = socket;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this._socket.awaitingAnswer = true;
+			Metrics.bytesWritten(1);
+		}
+
+		//FilterOutputStream would write the array one byte at a time
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this._socket.awaitingAnswer = true;
+			Metrics.bytesWritten(len);
+		}
+	}
+}
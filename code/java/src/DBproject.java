@@ -13,14 +13,21 @@
 
 import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.Types;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Scanner;
@@ -34,8 +41,33 @@ import java.util.Scanner;
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections shared by every query helper
+	private ConnectionPool _pool = null;
+	//rows fetched per round trip by executeQueryStreaming
+	static final int FETCH_SIZE = Integer.getInteger("cs166.fetchSize", 1000);
+	//ids and names the validators check against, loaded on first use
+	private ReferenceIndex _refIndex = null;
+	//the doctors' time slots as minute ranges, loaded on first use and
+	//reloaded every -Dcs166.timeslots.refreshMs (0 turns the reload off)
+	private TimeSlotIndex _slotIndex = null;
+	//available appointments by department and day, loaded on first use and
+	//synced every -Dcs166.availability.refreshMs (0 turns the sync off)
+	private AvailabilityIndex _availability = null;
+	//results of the report queries, invalidated by the writes of this process
+	private final QueryCache _queryCache = new QueryCache(Integer.getInteger("cs166.cache.maxEntries", 1000),
+		Long.getLong("cs166.cache.ttlMs", 30000L));
+	//statements slower than the threshold with their plans, null when off
+	private SlowQueryLog _slowLog = null;
+	//the statements run, saved on cleanup, null when off
+	private WorkloadRecorder _workload = null;
+	//moves old PA appointments to the archive in the background, null when off
+	private AppointmentArchiver _archiver = null;
+	//runs MakeAppointment as a single server-side call, see sql/booking.sql
+	private final BookingEngine _bookingEngine = new BookingEngine(this);
+	//hi-lo key generators, see sql/create_sequences.sql
+	private final IdAllocator _doctorIds = new IdAllocator(this, "doctor_id_seq");
+	private final IdAllocator _patientIds = new IdAllocator(this, "patient_id_seq");
+	private final IdAllocator _appointmentIds = new IdAllocator(this, "appointment_id_seq");
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
@@ -45,8 +77,48 @@ public class DBproject{
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// pool sizing can be tuned with -Dcs166.pool.* system properties
+			this._pool = new ConnectionPool(url, user, passwd,
+				Integer.getInteger("cs166.pool.maxSize", 8),
+				Long.getLong("cs166.pool.acquireTimeoutMs", 10000L),
+				Long.getLong("cs166.pool.idleTimeoutMs", 300000L),
+				Long.getLong("cs166.pool.maxLifetimeMs", 1800000L));
+
+			// obtain a physical connection up front so a bad setup fails fast
+			this._pool.release(this._pool.acquire());
+
+			// log the statements slower than -Dcs166.slowlog.thresholdMs with their plans
+			long slowMs = Long.getLong("cs166.slowlog.thresholdMs", -1L);
+			if (slowMs >= 0) {
+				this._slowLog = new SlowQueryLog(this, slowMs,
+					Paths.get(System.getProperty("cs166.slowlog.file", "slow_queries.log")),
+					Long.getLong("cs166.slowlog.maxBytes", 10L * 1024 * 1024),
+					Integer.getInteger("cs166.slowlog.files", 5),
+					Long.getLong("cs166.slowlog.explainIntervalMs", 60000L));
+				Metrics.setSlowQueryLog(this._slowLog);
+			}
+
+			// record the statements run for IndexAdvisor with -Dcs166.workload.file
+			if (System.getProperty("cs166.workload.file") != null) {
+				this._workload = new WorkloadRecorder(Integer.getInteger("cs166.workload.samples", 5));
+				Metrics.setWorkloadRecorder(this._workload);
+			}
+
+			// archive old PA appointments every -Dcs166.archive.intervalMs, see sql/partition_appointments.sql
+			long archiveMs = Long.getLong("cs166.archive.intervalMs", -1L);
+			if (archiveMs > 0) {
+				this._archiver = new AppointmentArchiver(this, archiveMs,
+					Integer.getInteger("cs166.archive.keepDays", 90),
+					Integer.getInteger("cs166.archive.batchSize", 1000),
+					Integer.getInteger("cs166.archive.aheadDays", 90));
+			}
+
+			// publish the statistics over JMX, and to a file with -Dcs166.metrics.file
+			Metrics.attach(this);
+			String metricsFile = System.getProperty("cs166.metrics.file");
+			if (metricsFile != null) {
+				Metrics.startReporter(Paths.get(metricsFile), Long.getLong("cs166.metrics.intervalMs", 10000L));
+			}
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -55,65 +127,313 @@ public class DBproject{
 		}
 	}
 	
+	/**
+	 * @return the connection pool backing this instance
+	 */
+	public ConnectionPool getPool() {
+		return this._pool;
+	}
+
+	/**
+	 * Method to get the reference data index, loading it from the database
+	 * the first time it is needed.
+	 * 
+	 * @return the loaded index
+	 * @throws java.sql.SQLException when the index could not be loaded
+	 */
+	public synchronized ReferenceIndex getReferenceIndex() throws SQLException {
+		if (this._refIndex == null) {
+			ReferenceIndex index = new ReferenceIndex();
+			index.reload(this);
+			this._refIndex = index;
+		}
+		return this._refIndex;
+	}
+
+	/**
+	 * Method to get the time slot index, loading it from the database the
+	 * first time it is needed.
+	 * 
+	 * @return the loaded index
+	 * @throws java.sql.SQLException when the index could not be loaded
+	 */
+	public synchronized TimeSlotIndex getTimeSlotIndex() throws SQLException {
+		if (this._slotIndex == null) {
+			TimeSlotIndex index = new TimeSlotIndex();
+			index.reload(this);
+			long refreshMs = Long.getLong("cs166.timeslots.refreshMs", 60000L);
+			if (refreshMs > 0) {
+				index.refreshEvery(this, refreshMs);
+			}
+			this._slotIndex = index;
+		}
+		return this._slotIndex;
+	}
+
+	/**
+	 * Method to get the availability index, loading it from the database the
+	 * first time it is needed. From then on it is synced in the background
+	 * every -Dcs166.availability.refreshMs, so it lags the other clients by
+	 * about that long (0 turns the sync off).
+	 * 
+	 * @return the loaded index
+	 * @throws java.sql.SQLException when the index could not be loaded
+	 */
+	public synchronized AvailabilityIndex getAvailabilityIndex() throws SQLException {
+		if (this._availability == null) {
+			AvailabilityIndex index = new AvailabilityIndex();
+			long refreshMs = Long.getLong("cs166.availability.refreshMs", 5000L);
+			if (refreshMs > 0) {
+				//starts listening for the changes of other clients, then loads
+				index.sync(this);
+				index.refreshEvery(this, refreshMs);
+			} else {
+				index.reload(this);
+			}
+			this._availability = index;
+		}
+		return this._availability;
+	}
+
+	/**
+	 * @return the cache of report query results
+	 */
+	public QueryCache getQueryCache() {
+		return this._queryCache;
+	}
+
+	/**
+	 * @return the slow query log, null unless -Dcs166.slowlog.thresholdMs is set
+	 */
+	public SlowQueryLog getSlowQueryLog() {
+		return this._slowLog;
+	}
+
+	/**
+	 * @return the appointment archiver, null unless -Dcs166.archive.intervalMs is set
+	 */
+	public AppointmentArchiver getArchiver() {
+		return this._archiver;
+	}
+
+	/**
+	 * @return the engine that books appointments in a single round trip
+	 */
+	public BookingEngine getBookingEngine() {
+		return this._bookingEngine;
+	}
+
+	/**
+	 * Unit of work run against a borrowed connection.
+	 */
+	public interface ConnectionWork<T> {
+		T run (Connection conn) throws SQLException;
+	}
+
+	/**
+	 * Method to run some work on a connection borrowed from the pool. The
+	 * connection is handed back afterwards, or discarded when the work failed
+	 * with a connection-level error.
+	 * 
+	 * @param work the work to run
+	 * @return whatever the work returns
+	 * @throws java.sql.SQLException when the work failed
+	 */
+	public <T> T withConnection (ConnectionWork<T> work) throws SQLException {
+		Connection conn = this._pool.acquire ();
+		try {
+			return work.run (conn);
+		} catch (SQLException e) {
+			this._pool.release (conn, e);
+			conn = null;
+			throw e;
+		} finally {
+			this._pool.release (conn);
+		}
+	}
+
+	/**
+	 * Method to fetch the cached prepared statement for a SQL template on a
+	 * borrowed connection and bind the parameters to it. The statement is
+	 * owned by the statement cache and must not be closed.
+	 * 
+	 * @param conn a connection borrowed with withConnection
+	 * @param sql the SQL template with ? placeholders
+	 * @param params the parameter values, in placeholder order
+	 * @return the bound statement
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public PreparedStatement prepare (Connection conn, String sql, Object... params) throws SQLException {
+		PreparedStatement ps = this._pool.prepare (conn, sql);
+		bind (ps, params);
+		return ps;
+	}
+
+	/**
+	 * Method to bind parameter values to a prepared statement using the
+	 * setter that matches each value's type.
+	 * 
+	 * @param ps the statement to bind
+	 * @param params the parameter values, in placeholder order
+	 * @throws java.sql.SQLException when a value could not be bound
+	 */
+	public static void bind (PreparedStatement ps, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; ++i) {
+			Object p = params[i];
+			int idx = i + 1;
+			if (p == null) {
+				ps.setNull (idx, Types.VARCHAR);
+			} else if (p instanceof Integer) {
+				ps.setInt (idx, ((Integer) p).intValue ());
+			} else if (p instanceof Long) {
+				ps.setLong (idx, ((Long) p).longValue ());
+			} else if (p instanceof String) {
+				ps.setString (idx, (String) p);
+			} else if (p instanceof Character) {
+				ps.setString (idx, p.toString ());
+			} else if (p instanceof java.sql.Date) {
+				ps.setDate (idx, (java.sql.Date) p);
+			} else if (p instanceof Boolean) {
+				ps.setBoolean (idx, ((Boolean) p).booleanValue ());
+			} else {
+				ps.setObject (idx, p);
+			}
+		}
+	}
+
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with ? placeholders for the parameters
+	 * @param params the parameter values, in placeholder order
+	 * @return the number of rows affected
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
+	public int executeUpdate (final String sql, final Object... params) throws SQLException { 
+		return Metrics.query ("executeUpdate", sql, params, () -> withConnection (conn -> {
+			// fetches the cached statement object and binds the parameters
+			PreparedStatement stmt = prepare (conn, sql, params);
+
+			// issues the update instruction
+			return stmt.executeUpdate ();
+		}));
 	}//end executeUpdate
 
+	/**
+	 * Method to execute one update SQL statement for many parameter rows.
+	 * The rows are sent as a single JDBC batch inside one transaction, so
+	 * either all of them are applied or none is.
+	 *
+	 * @param sql the input SQL string, with ? placeholders for the parameters
+	 * @param rows one array of parameter values per execution
+	 * @return the number of rows affected by each execution
+	 * @throws java.sql.SQLException when the batch failed
+	 */
+	public int[] executeBatch (final String sql, final List<Object[]> rows) throws SQLException {
+		if (rows.isEmpty ()) {
+			return new int[0];
+		}
+		return Metrics.query ("executeBatch", sql, rows.get (0), () -> withConnection (conn -> {
+			conn.setAutoCommit (false);
+			PreparedStatement stmt = this._pool.prepare (conn, sql);
+			try {
+				for (Object[] params : rows) {
+					bind (stmt, params);
+					stmt.addBatch ();
+				}
+				int[] counts = stmt.executeBatch ();
+				conn.commit ();
+				conn.setAutoCommit (true);
+				return counts;
+			} finally {
+				//the statement is cached, do not leave rows queued on it
+				stmt.clearBatch ();
+			}
+		}));
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the parameter values, in placeholder order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	public int executeQueryAndPrintResult (final String query, final Object... params) throws SQLException {
+		//streams the rows so large results are printed in constant memory
+		return Metrics.query ("executeQueryAndPrintResult", query, params, () -> executeQueryStreaming (query, new RowHandler () {
+			private boolean outputHeader = true;
+
+			public void row (ResultSet rs) throws SQLException {
+				/*
+				 *  obtains the metadata object for the returned result set.  The metadata
+				 *  contains row and column info.
+				 */
+				ResultSetMetaData rsmd = rs.getMetaData ();
+				int numCol = rsmd.getColumnCount ();
+
+				//outputs the row to standard out.
+				if(outputHeader){
+					for(int i = 1; i <= numCol; i++){
+						System.out.print(rsmd.getColumnName(i) + "\t");
+				    }
+				    System.out.println();
+				    outputHeader = false;
+				}
+				for (int i=1; i<=numCol; ++i)
+					System.out.print (rs.getString (i) + "\t");
+				System.out.println ();
+			}
+		}, params));
+	}
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
+	/**
+	 * Callback handed each row of a streamed query.
+	 */
+	public interface RowHandler {
+		/**
+		 * @param rs the result set, positioned on the current row
 		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
+		void row (ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+	 * the rows to a callback one at a time. The query runs in a transaction
+	 * with a fetch size set, so Postgres serves it through a server-side
+	 * cursor and only one batch of rows is held in memory at a time.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param handler called once per row, in result order
+	 * @param params the parameter values, in placeholder order
+	 * @return the number of rows streamed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryStreaming (final String query, final RowHandler handler, final Object... params) throws SQLException {
+		return Metrics.query ("executeQueryStreaming", query, params, () -> withConnection (conn -> {
+			//a cursor only lives inside a transaction
+			conn.setAutoCommit (false);
+			PreparedStatement stmt = prepare (conn, query, params);
+			stmt.setFetchSize (FETCH_SIZE);
+			int rowCount = 0;
+			try (ResultSet rs = stmt.executeQuery ()) {
+				while (rs.next ()) {
+					handler.row (rs);
+					++rowCount;
+				}
+				conn.commit ();
+			} finally {
+				//the statement is cached, leave it as we found it
+				stmt.setFetchSize (0);
+				Metrics.rows (rowCount);
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			conn.setAutoCommit (true);
+			return rowCount;
+		}));
 	}
 	
 	/**
@@ -121,92 +441,195 @@ public class DBproject{
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the parameter values, in placeholder order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
+	public List<List<String>> executeQueryAndReturnResult (final String query, final Object... params) throws SQLException { 
+		return Metrics.query ("executeQueryAndReturnResult", query, params, () -> withConnection (conn -> {
+			//issues the query instruction 
+			try (ResultSet rs = prepare (conn, query, params).executeQuery ()) {
+				return returnResult (rs);
+			}
+		}));
+	}//end executeQueryAndReturnResult
+
+	private static List<List<String>> returnResult (ResultSet rs) throws SQLException { 
 		/*
 		 * obtains the metadata object for the returned result set.  The metadata 
 		 * contains row and column info. 
 		*/ 
 		ResultSetMetaData rsmd = rs.getMetaData (); 
 		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
 	 
 		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
 		List<List<String>> result  = new ArrayList<List<String>>(); 
 		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
+			List<String> record = new ArrayList<String>(numCol); 
 			for (int i=1; i<=numCol; ++i) 
 				record.add(rs.getString (i)); 
 			result.add(record); 
 		}//end while 
-		stmt.close (); 
+		Metrics.rows (result.size ());
 		return result; 
-	}//end executeQueryAndReturnResult
+	}
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
+	 * method issues the query to the DBMS and returns the results column by
+	 * column, with integer and date columns kept as primitives instead of
+	 * strings.
 	 * 
-	 * @param query the input query string
-	 * @return the number of rows returned
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the parameter values, in placeholder order
+	 * @return the query result in columnar form
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public ColumnarResult executeQueryColumnar (final String query, final Object... params) throws SQLException {
+		return Metrics.query ("executeQueryColumnar", query, params, () -> withConnection (conn -> {
+			//issues the query instruction
+			try (ResultSet rs = prepare (conn, query, params).executeQuery ()) {
+				ColumnarResult result = ColumnarResult.from (rs);
+				Metrics.rows (result.rowCount ());
+				return result;
+			}
+		}));
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to execute a read-only query through the query cache, see
+	 * QueryCache. The query only reaches the DBMS when no current result is
+	 * cached.
+	 * 
+	 * @param tables the tables the query reads, for invalidation
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the parameter values, in placeholder order
+	 * @return the query result in columnar form, shared and not to be changed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ColumnarResult executeQueryCached (String[] tables, final String query, final Object... params) throws SQLException {
+		return this._queryCache.get (tables, query, params, () -> executeQueryColumnar (query, params));
+	}
 
-		int rowCount = 0;
+	/**
+	 * Method to print a query result the way executeQueryAndPrintResult does.
+	 * 
+	 * @param result the result to print
+	 * @return the number of rows printed
+	 */
+	public static int printResult (ColumnarResult result) {
+		if (result.isEmpty ()) {
+			return 0;
+		}
+		for (int i = 0; i < result.columnCount (); ++i) {
+			System.out.print (result.columnName (i) + "\t");
+		}
+		System.out.println ();
+		for (int r = 0; r < result.rowCount (); ++r) {
+			for (int i = 0; i < result.columnCount (); ++i) {
+				System.out.print (result.getString (r, i) + "\t");
+			}
+			System.out.println ();
+		}
+		return result.rowCount ();
+	}
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the number of results
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the parameter values, in placeholder order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (final String query, final Object... params) throws SQLException {
+		return Metrics.query ("executeQuery", query, params, () -> withConnection (conn -> {
+			//issues the query instruction
+			try (ResultSet rs = prepare (conn, query, params).executeQuery ()) {
+				int rowCount = 0;
+
+				//iterates through the result set and count nuber of results.
+				if(rs.next()){
+					rowCount++;
+				}//end while
+				Metrics.rows (rowCount);
+				return rowCount;
+			}
+		}));
 	}
 	
 	/**
-	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * Method to advance a sequence. This method issues the query to the
+	 * DBMS and returns the value nextval handed out.
 	 * 
 	 * @param sequence name of the DB sequence
-	 * @return current value of a sequence
+	 * @return next value of a sequence
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	
-	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+	public int getNextSeqVal(final String sequence) throws SQLException {
+		return withConnection (conn -> {
+			try (ResultSet rs = prepare (conn, "Select nextval(?::text::regclass)", sequence).executeQuery ()) {
+				if (!rs.next()) {
+					throw new SQLException("nextval returned no row for " + sequence);
+				}
+				return rs.getInt(1);
+			}
+		});
+	}
+
+	/**
+	 * Method to fetch the INCREMENT BY of a sequence.
+	 * 
+	 * @param sequence name of the DB sequence
+	 * @return the amount every nextval advances the sequence by
+	 * @throws java.sql.SQLException when failed to execute the query or the sequence does not exist
+	 */
+	public int getSeqIncrement(final String sequence) throws SQLException {
+		return withConnection (conn -> {
+			String query = "Select increment_by from pg_sequences where schemaname = current_schema() and sequencename = ?";
+			try (ResultSet rs = prepare (conn, query, sequence).executeQuery ()) {
+				if (!rs.next()) {
+					throw new SQLException("Sequence " + sequence + " does not exist, run sql/create_sequences.sql");
+				}
+				long increment = rs.getLong(1);
+				if (increment < 1 || increment > Integer.MAX_VALUE) {
+					throw new SQLException("Sequence " + sequence + " has an unusable increment " + increment);
+				}
+				return (int) increment;
+			}
+		});
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to close the pooled physical connections if they are open.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		if (this._archiver != null){
+			this._archiver.close ();
+		}//end if
+		if (this._availability != null){
+			this._availability.close ();
+		}//end if
+		if (this._slotIndex != null){
+			this._slotIndex.close ();
+		}//end if
+		if (this._slowLog != null){
+			Metrics.setSlowQueryLog (null);
+			this._slowLog.close ();
+		}//end if
+		if (this._workload != null){
+			Metrics.setWorkloadRecorder (null);
+			try {
+				this._workload.save (Paths.get (System.getProperty ("cs166.workload.file")));
+			} catch (java.io.IOException e) {
+				System.err.println ("Could not save the workload: " + e.getMessage ());
+			}
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -215,12 +638,21 @@ public class DBproject{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		boolean load = args.length >= 5 && args.length <= 6 && args[3].equals("load");
+		boolean batch = args.length >= 4 && args.length <= 6 && args[3].equals("batch");
+		boolean serve = args.length >= 4 && args.length <= 5 && args[3].equals("serve");
+		if (args.length != 3 && !load && !batch && !serve) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [load <datadir> [<sqldir>] | batch [<file>|-] [<threads>] | serve [<httpport>]]");
 			return;
 		}//end if
+
+		//in batch mode stdout only carries the result lines, everything else goes to stderr
+		java.io.PrintStream results = System.out;
+		if (batch) {
+			System.setOut(System.err);
+		}
 		
 		DBproject esql = null;
 		
@@ -242,7 +674,49 @@ public class DBproject{
 			String user = args[2];
 			
 			esql = new DBproject (dbname, dbport, user, "");
+
+			if (load) {
+				// bulk load the CSV files instead of opening the menu
+				Path dataDir = Paths.get(args[4]);
+				Path sqlDir = args.length > 5 ? Paths.get(args[5]) : dataDir.resolve("../sql").normalize();
+				new BulkLoader(esql, dataDir, sqlDir).run();
+				return;
+			}
+
+			// built up front, so the first availability lookup does not wait for it
+			esql.getAvailabilityIndex();
+
+			if (batch) {
+				// run operation records from a file or stdin instead of opening the menu
+				String file = args.length > 4 ? args[4] : "-";
+				int threads = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+				try (BufferedReader input = file.equals("-") ? in
+						: java.nio.file.Files.newBufferedReader(Paths.get(file), java.nio.charset.StandardCharsets.UTF_8)) {
+					new BatchRunner(esql, threads).run(input, results);
+				}
+				return;
+			}
+			if (serve) {
+				// serve the operations over HTTP until the process is stopped
+				final HttpService service = new HttpService(esql, args.length > 4 ? Integer.parseInt(args[4]) : 8080);
+				final Thread mainThread = Thread.currentThread();
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					service.stop();
+					try {
+						//let main close the pool before the JVM goes away
+						mainThread.join(5000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}));
+				service.start();
+				System.out.println("Serving on port " + service.getPort() + ", stop with Ctrl-C");
+				service.awaitStop();
+				return;
+			}
 			
+			//the menu operations are timed as lambdas, which need a final reference
+			final DBproject menu = esql;
 			boolean keepon = true;
 			while(keepon){
 				System.out.println("MAIN MENU");
@@ -258,14 +732,14 @@ public class DBproject{
 				System.out.println("9. < EXIT");
 				
 				switch (readChoice()){
-					case 1: AddDoctor(esql); break;
-					case 2: AddPatient(esql); break;
-					case 3: AddAppointment(esql); break;
-					case 4: MakeAppointment(esql); break;
-					case 5: ListAppointmentsOfDoctor(esql); break;
-					case 6: ListAvailableAppointmentsOfDepartment(esql); break;
-					case 7: ListStatusNumberOfAppointmentsPerDoctor(esql); break;
-					case 8: FindPatientsCountWithStatus(esql); break;
+					case 1: Metrics.operation(Operations.ADD_DOCTOR, () -> AddDoctor(menu)); break;
+					case 2: Metrics.operation(Operations.ADD_PATIENT, () -> AddPatient(menu)); break;
+					case 3: Metrics.operation(Operations.ADD_APPOINTMENT, () -> AddAppointment(menu)); break;
+					case 4: Metrics.operation(Operations.MAKE_APPOINTMENT, () -> MakeAppointment(menu)); break;
+					case 5: Metrics.operation(Operations.LIST_APPOINTMENTS_OF_DOCTOR, () -> ListAppointmentsOfDoctor(menu)); break;
+					case 6: Metrics.operation(Operations.LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT, () -> ListAvailableAppointmentsOfDepartment(menu)); break;
+					case 7: Metrics.operation(Operations.LIST_STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR, () -> ListStatusNumberOfAppointmentsPerDoctor(menu)); break;
+					case 8: Metrics.operation(Operations.FIND_PATIENTS_COUNT_WITH_STATUS, () -> FindPatientsCountWithStatus(menu)); break;
 					case 9: keepon = false; break;
 				}
 			}
@@ -274,6 +748,8 @@ public class DBproject{
 		}finally{
 			try{
 				if(esql != null) {
+					System.out.println("Statement cache: " + esql.getPool().getStatementCacheHits() + " hits, " +
+						esql.getPool().getStatementCacheMisses() + " misses");
 					System.out.print("Disconnecting from database...");
 					esql.cleanup ();
 					System.out.println("Done\n\nBye !");
@@ -301,44 +777,17 @@ public class DBproject{
 	}//end readChoice
 	
 	//GETTING FUNCTIONS
-	public static String getValidDoctorID(DBproject esql) { // should change to newDoctorID
-		List<List<String>> resultset = new ArrayList<List<String>>();
-
-		try {
-			String query = "SELECT MAX(doctor_ID) FROM Doctor";
-			resultset = esql.executeQueryAndReturnResult(query);
-		} catch(Exception e) {
-                        System.err.println(e.getMessage());
-                }
-
-		return resultset.get(0).get(0);
+	public static int newDoctorID(DBproject esql) throws SQLException {
+		return esql._doctorIds.nextId();
 	}
 	
-	public static String getValidAppointmentID(DBproject esql){
-		List<List<String>> resultset = new ArrayList<List<String>>();
-		
-		try{
-			String query = "select MAX(appnt_ID) from appointment";
-			resultset = esql.executeQueryAndReturnResult(query);
-		}catch(Exception e){
-			System.err.println(e.getMessage());
-		}
-
-		return resultset.get(0).get(0);		
+	public static int newAppointmentID(DBproject esql) throws SQLException {
+		return esql._appointmentIds.nextId();
 	}
 
-	public static String getValidPatientID(DBproject esql) { // should change to newDoctorID
-                List<List<String>> resultset = new ArrayList<List<String>>();
-
-                try {
-                        String query = "SELECT MAX(patient_ID) FROM Patient";
-                        resultset = esql.executeQueryAndReturnResult(query);
-                } catch(Exception e) {
-                        System.err.println(e.getMessage());
-                }
-
-                return resultset.get(0).get(0);
-        }
+	public static int newPatientID(DBproject esql) throws SQLException {
+		return esql._patientIds.nextId();
+	}
 
 	//VALID FUNCTIONS
 	public static boolean validString(String str) {
@@ -358,302 +807,100 @@ public class DBproject{
 		return true;
 	}
 
+	//parses a user entered id, returns -1 when it is not a non-negative number
+	private static int parseId(String id) {
+		try {
+			int value = Integer.parseInt(id.trim());
+			return value < 0 ? -1 : value;
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
 	public static boolean validDepartment(DBproject esql, String id) {
-		List<List<String>> resultset = new ArrayList<List<String>>();
+		int did = parseId(id);
+		if (did < 0) {
+			return false;
+		}
 		try {
-			String query = "select dept_ID from department";
-			resultset = esql.executeQueryAndReturnResult(query);		
+			return esql.getReferenceIndex().containsDepartment(esql, did);
 		} catch(Exception e) {
          		System.err.println(e.getMessage());
       		}
-
-		for (List<String> did : resultset) {
-			for (int i = 0; i < did.size(); ++i) {
-				if ((id).equals(did.get(i))) {
-					return true;
-				}
-			}
-		}	
-
 		return false;
 	}
   
 	public static boolean validDoctor(DBproject esql, String id) {
-                List<List<String>> resultset = new ArrayList<List<String>>();
-                try {
-                        String query = "select doctor_ID from doctor";
-                        resultset = esql.executeQueryAndReturnResult(query);
-                } catch(Exception e) {
-                        System.err.println(e.getMessage());
-                }
-
-                for (List<String> did : resultset) {
-                        for (int i = 0; i < did.size(); ++i) {
-                                if ((id).equals(did.get(i))) {
-                                        return true;
-                                }
-                        }
-                }
-
-                return false;
-        }
-	
-	public static boolean getValidDate(String input){
-		if(input.length() != 10){
-			return false;
-		}
-		String year, month, day = month = year =  "";
-		char[] charArray = input.toCharArray();
-
-
-
-		if(!(charArray[4] == '-') && !(charArray[7] == '-')){
-			return false;
-		}
-		for(int i = 0; i < 4; i++){
-			year = year + input.charAt(i);
-		}
-		try{
-			Integer.parseInt(year);
-		} catch(Exception e){
-		//	System.out.println("Not an integer(year)!");
-			return false;
-		}
-
-		for(int i = 5; i <= 6; i++){
-			month = month + input.charAt(i);
-		}
-		try{
-			Integer.parseInt(month);
-		} catch(Exception e){
-		//	System.out.println("Not an integer (month)!");		
+		int docid = parseId(id);
+		if (docid < 0) {
 			return false;
 		}
-		if(Integer.parseInt(month) > 12 || Integer.parseInt(month) < 1){
-			return false;
-		}
-			
-		for(int i = 8; i <= 9; i++){
-			day = day + input.charAt(i);
-		}
-		try{
-			Integer.parseInt(day);
-		} catch(Exception e){
-		//	System.out.println("Not an integer(day!)");
-			return false;
-		}		
-	//	System.out.println(Integer.parseInt(month));
-		int daysInMonth = 0;
-		switch(Integer.parseInt(month)){
-			case 1:
-			case 3:
-			case 5:
-			case 7:
-			case 8:
-			case 10:
-			case 12:
-				daysInMonth = 31;				
-				break;
-			case 2:
-				daysInMonth = 28;
-				break;
-			case 4:
-			case 6:
-			case 9:
-			case 11:
-				daysInMonth = 30;
-				break;
-			default:
-				daysInMonth = -1;
-			//	System.out.println("Error! Invalid month; cannot select proper days of the month");
-				return false;
-		}
-		if(Integer.parseInt(day) > daysInMonth || Integer.parseInt(day) < 1){
-			return false;
+		try {
+			return esql.getReferenceIndex().containsDoctor(esql, docid);
+		} catch(Exception e) {
+			System.err.println(e.getMessage());
 		}
-		return true;		
+		return false;
+	}
+	
+	/**
+	 * Method to check a date is a real calendar day in the YYYY-MM-DD form,
+	 * see InputCodec.parseDate.
+	 */
+	public static boolean getValidDate(String input){
+		return InputCodec.parseDate(input) != InputCodec.NO_DATE;
 	}
 			
 	
+	/**
+	 * Method to check a time slot is H:MM-H:MM or HH:MM-HH:MM and ends after
+	 * it starts, see TimeSlot.parse.
+	 */
 	public static boolean getValidTimeslot(String inputTimeslot){
-		int symbolcolon = 0;
-		int symboldash = 0;
-		switch(inputTimeslot.length()){
-			case 9:
-			for(int i = 0; i < inputTimeslot.length(); i++){
-				if(Character.isDigit(inputTimeslot.charAt(i))){
-				}
-				else if(((inputTimeslot.charAt(i) == '-') && (i == 4)) ||
-					 ( inputTimeslot.charAt(i) == ':') && ((i == 1) || (i == 6))){
-					symbolcolon++;
-				}
-				else{
-					return false;
-				}
-			}
-			if(symbolcolon == 3){
-				return true;
-			}
-			return false;
-
-			case 10:
-			for(int i = 0; i < inputTimeslot.length();i++){
-				if(Character.isDigit(inputTimeslot.charAt(i))){
-				} else if(((i == 5) && (inputTimeslot.charAt(i) == '-')) || 
-					((i == 4) && (inputTimeslot.charAt(i) == '-'))){
-					symboldash++;
-				}
-				else if(((i == 1) && (inputTimeslot.charAt(i) == ':')) || 
-					((i == 2) && (inputTimeslot.charAt(i) == ':')) ||
-					((i == 6) && (inputTimeslot.charAt(i) == ':')) ||
-					((i == 7) && (inputTimeslot.charAt(i) == ':'))){
-					symbolcolon++;
-				}
-				else{
-					return false;
-				}
-			}
-			if(symboldash == 1 && symbolcolon == 2){
-				return true;
-			}
-			return false;
-
-			case 11:
-			for(int i = 0; i < inputTimeslot.length(); i++){
-				if(Character.isDigit(inputTimeslot.charAt(i))){
-				} else if(((i == 2) && (inputTimeslot.charAt(i) == ':')) ||
-					((i == 5) && (inputTimeslot.charAt(i) == '-')) ||
-					((i == 8) && (inputTimeslot.charAt(i) == ':'))){
-					symbolcolon++;
-				}
-				else{
-					return false;
-				}
-			}
-			if(symbolcolon == 3){
-				return true;
-			}
-			return false;
-
-			default:
-			return false;				
-		}
+		return InputCodec.parseSlot(inputTimeslot) != TimeSlot.INVALID;
 	}
 	
 	public static boolean getValidAppointmentStatus(String input){
-
-		if(input.equals("PA") ||
-		   input.equals("AC") ||
-		   input.equals("AV") ||
-		   input.equals("WL")){
-			return true;
-		}
-		else{
-			return false;
-		}
+		return InputCodec.parseStatus(input) != InputCodec.NO_STATUS;
 	}
 
 	public static boolean validPatient(DBproject esql, String inputName){
-		List<List<String>> resultset = new ArrayList<List<String>>();
 		try{
-			String query = "select name from patient";
-			resultset = esql.executeQueryAndReturnResult(query);
+			return esql.getReferenceIndex().containsPatientName(esql, inputName);
 		} catch(Exception e){
 			System.err.println(e.getMessage());
 		}
-		
-		for(List<String> name : resultset){
-			for(int i = 0; i < name.size(); i++){
-				if((inputName).equals(name.get(i))){
-					return true;
-				}
-			}
-		}
 		return false;
 	}
 
 	public static boolean validAppointment(DBproject esql, String inputID){
-		List<List<String>> resultset = new ArrayList<List<String>>();
+		int appid = parseId(inputID);
+		if (appid < 0) {
+			return false;
+		}
 		try{
-			String query = "select appnt_id from appointment";
-			resultset = esql.executeQueryAndReturnResult(query);
+			return esql.getReferenceIndex().containsAppointment(esql, appid);
 		} catch(Exception e){
 			System.err.println(e.getMessage());
 		}
-		
-		for(List<String> appnt_id : resultset){
-			for(int i = 0; i < appnt_id.size(); i++){
-				if((inputID).equals(appnt_id.get(i))){
-					return true;
-				}
-			}
-		}
-			
 		return false;
 	}
   
-	public static boolean validAvailableAppointment(DBproject esql, String inputID){
-                List<List<String>> resultset = new ArrayList<List<String>>();
-                try{
-                        String query = "select appnt_id from appointment";
-                        resultset = esql.executeQueryAndReturnResult(query);
-                } catch(Exception e){
-                        System.err.println(e.getMessage());
-                }
-
-                for(List<String> appnt_id : resultset){
-                        for(int i = 0; i < appnt_id.size(); i++){
-                                if((inputID).equals(appnt_id.get(i))){
-                                        return false;
-                                }
-                        }
-                }
-
-                return true;
-        }
-
 	public static boolean validDepartmentName(DBproject esql, String inputName){
-		List<List<String>> resultset = new ArrayList<List<String>>();
 		try{
-			String query = "select name from department";
-			resultset = esql.executeQueryAndReturnResult(query);
+			return esql.getReferenceIndex().containsDepartmentName(esql, inputName);
 		} catch(Exception e){
 			System.err.println(e.getMessage());
 		}
-
-		for(List<String> name : resultset){
-			for(int i = 0; i < name.size(); i++){
-				if((inputName).equals(name.get(i))){
-					return true;
-				}
-			}
-		}
 		return false;
 	}
 	
-	public static boolean validDoctorName(DBproject esql, String dname) {
-		String query = "select * from Doctor where name = '" + dname + "'";
-		int rc = 0;		
-
-		try {
-			rc = esql.executeQuery(query);	
-		} catch(Exception e){
-                        System.err.println(e.getMessage());
-                }	
-
-		if (rc > 0) {
-			return false;
-		} else {
-			return true;
-		}
-	} 
-
 	public static boolean validDoctorEntry(DBproject esql, String dname, String specialty, String did) {
-		String query = "select * from Doctor where name = '" + dname + "' and specialty = '" + specialty + "' and did = " + did;
+		String query = "select * from Doctor where name = ? and specialty = ? and did = ?";
 		int rc = 0;
 
 		try {
-                        rc = esql.executeQuery(query);
+                        rc = esql.executeQuery(query, dname, specialty, Integer.parseInt(did));
                 } catch(Exception e){
                         System.err.println(e.getMessage());
                 }
@@ -666,28 +913,11 @@ public class DBproject{
 	}
 
 	public static boolean validPatientEntry(DBproject esql, String pname, char gender, int age, String address) {
-		String query = "select * from Patient where name = '" + pname + "' and gtype = '" + gender + "' and age = " + age + " and address = '" + address + "'";
+		String query = "select * from Patient where name = ? and gtype = ? and age = ? and address = ?";
 		int rc = 0;
 
                 try {
-                        rc = esql.executeQuery(query);
-                } catch(Exception e){
-                        System.err.println(e.getMessage());
-                }
-
-                if (rc > 0) {
-                        return false;
-                } else {
-                        return true;
-                }
-	}
-
-	public static boolean validAppEntry(DBproject esql, String date, String timeslot, String status) {
-		String query = "select * from Appointment where adate = '" + date + "' and time_slot = '" + timeslot + "' and status = '" + status + "'";
-		int rc = 0;
-
-		try {
-                        rc = esql.executeQuery(query);
+                        rc = esql.executeQuery(query, pname, gender, age, address);
                 } catch(Exception e){
                         System.err.println(e.getMessage());
                 }
@@ -700,9 +930,6 @@ public class DBproject{
 	}
 
 	public static void AddDoctor(DBproject esql) {//1
-		String lastID = getValidDoctorID(esql);
-		int newID = Integer.parseInt(lastID) + 1;
-
 		Scanner in = new Scanner(System.in);
 		System.out.println("Enter Doctor name: ");
 		String dname = in.nextLine();
@@ -733,13 +960,17 @@ public class DBproject{
 		} else {
 
 			try {
+				int newID = newDoctorID(esql);
 				String query = "INSERT INTO Doctor(doctor_ID, name, specialty, did) " + 
-					"VALUES ('" + newID + "', '" + dname + "', '" + dspecialty + "', '" + did + "')"; 
-				esql.executeUpdate(query);
+					"VALUES (?, ?, ?, ?)"; 
+				esql.executeUpdate(query, newID, dname, dspecialty, Integer.parseInt(did));
+				esql.getQueryCache().invalidate(QueryCache.DOCTOR);
+				esql.getReferenceIndex().addDoctor(newID);
+				esql.getAvailabilityIndex().addDoctor(newID, Integer.parseInt(did));
 			
 				System.out.println("New record inserted into Doctors: ");
-				String query2 = "select * from Doctor group by doctor_id order by doctor_id DESC limit 1";
-				int rowcount = esql.executeQueryAndPrintResult(query2);
+				String query2 = "select * from Doctor where doctor_id = ?";
+				int rowcount = esql.executeQueryAndPrintResult(query2, newID);
 				System.out.println("Rowcount: " + rowcount);
 			} catch(Exception e) {
                        		System.err.println(e.getMessage());
@@ -792,14 +1023,15 @@ public class DBproject{
 		} else {
 
 			try{	
-				String query = "insert into patient values ((select count(*) as yes from patient)+1, '" 
-					+ patientName + "', '" + String.valueOf(patientGender) + "', " 
-					+ Integer.toString(patientAge) + ", '" + patientAddress + "', 0)";
-				esql.executeUpdate(query);
+				int newID = newPatientID(esql);
+				String query = "insert into patient values (?, ?, ?, ?, ?, 0)";
+				esql.executeUpdate(query, newID, patientName, patientGender, patientAge, patientAddress);
+				esql.getQueryCache().invalidate(QueryCache.PATIENT);
+				esql.getReferenceIndex().addPatientName(patientName);
 
 				System.out.println("New record inserted into Patients: ");
-				String query2 = "select * from patient group by patient_ID order by patient_ID DESC limit 1";
-				int rowcount = esql.executeQueryAndPrintResult(query2);
+				String query2 = "select * from patient where patient_ID = ?";
+				int rowcount = esql.executeQueryAndPrintResult(query2, newID);
 				System.out.println("Rowcount: " + rowcount);
 			} catch(Exception e){
 				System.err.println(e.getMessage());
@@ -810,9 +1042,6 @@ public class DBproject{
 	public static void AddAppointment(DBproject esql) {//3
 		Scanner input = new Scanner(System.in);
 	
-		int newid = Integer.parseInt(getValidAppointmentID(esql));
-		newid += 1;	
-	
 		System.out.print("Enter date of appointment in format (YYYY-MM-DD): ");
 		String appointmentDate = input.nextLine();
 		
@@ -839,14 +1068,18 @@ public class DBproject{
 	
 		
 		try{
+			int newid = newAppointmentID(esql);
+			java.sql.Date day = InputCodec.sqlDate(appointmentDate);
 			String query = "insert into appointment " +
-				       "values (" + newid + ", '" + appointmentDate + "', '" +
-				       timeSlotInput + "', '" + appointmentStatus + "')";
-			esql.executeUpdate(query);
+				       "values (?, ?, ?, ?)";
+			esql.executeUpdate(query, newid, day, timeSlotInput, appointmentStatus);
+			esql.getQueryCache().invalidate(QueryCache.APPOINTMENT);
+			esql.getReferenceIndex().addAppointment(newid);
+			esql.getAvailabilityIndex().addAppointment(newid, day, timeSlotInput, appointmentStatus);
 
 			System.out.println("New record inserted into Appointments: ");
-			String query2 = "select * from appointment group by appnt_ID order by appnt_ID DESC limit 1";
-			int rowcount = esql.executeQueryAndPrintResult(query2);
+			String query2 = "select * from appointment where appnt_ID = ? and adate = ?";
+			int rowcount = esql.executeQueryAndPrintResult(query2, newid, day);
 			System.out.println("Rowcount: " + rowcount);
 		} catch(Exception e){
 			System.err.println(e.getMessage());
@@ -854,112 +1087,6 @@ public class DBproject{
 		
 	}	
 	
-	public static boolean updateStatus(DBproject esql, String inputAppointmentID, String inputDoctorID){
-		String query;
-		List<List<String>> resultset = new ArrayList<List<String>>();
-		try{
-			query = "select status from appointment " +
-				"where appnt_id = " + inputAppointmentID;
-			resultset = esql.executeQueryAndReturnResult(query);
-		} catch(Exception e){
-			System.err.println(e.getMessage());
-		}
-
-		if(resultset.get(0).get(0).equals("PA")){	
-			return false; //didn't have to update anything
-		}
-		else if(resultset.get(0).get(0).equals("AC")){
-			try{
-				query = "update appointment set status = 'WL' " +
-					"where appnt_ID = " + inputAppointmentID;
-				
-				esql.executeUpdate(query);
-				
-				System.out.println("Updated appointment record: ");
-				String query2 = "select * from appointment where appnt_ID = " + inputAppointmentID;
-				int rowcount = esql.executeQueryAndPrintResult(query2);
-				System.out.println("Rowcount: " + rowcount);
-	
-			} catch(Exception e){
-				System.err.println(e.getMessage());
-			}
-			
-			return true;
-		}
-		else if(resultset.get(0).get(0).equals("AV")){
-                        try{
-                                query = "update appointment set status = 'AC' " +
-                                        "where appnt_id = " + inputAppointmentID;
-	                        
-				esql.executeUpdate(query);
-				
-				System.out.println("Updated appointment record: ");
-                                String query2 = "select * from appointment where appnt_ID = " + inputAppointmentID;
-                                int rowcount = esql.executeQueryAndPrintResult(query2);
-                                System.out.println("Rowcount: " + rowcount);	
-                        } catch(Exception e){
-                                System.err.println(e.getMessage());
-                        }
-			
-			return true;
-		}
-		else if(resultset.get(0).get(0).equals("WL")){
-                       return true;
-		} //returns true if the has_apponitments table needs to be updated		
-		return false;
-	}
-
-	public static boolean validHasAppointment(DBproject esql, String docid, String appid) {
-		String query = "select doctor_id from has_appointment where appt_id = " + appid;
-		List<List<String>> resultset = new ArrayList<List<String>>();
-
-		try {
-			resultset = esql.executeQueryAndReturnResult(query);
-		} catch(Exception e){
-                	System.err.println(e.getMessage());
-                }
-			
-		if (resultset.isEmpty()) {
-			//need to link appointment with doctor
-			/*
-			try {
-				String query2 = "insert into has_appointment(appt_id, doctor_id) values (" + appid + ", " + docid + ")";
-				esql.executeUpdate(query2);
-				System.out.println("New record inserted into has_appointment: ");
-				String query3 = "select * from has_appointment where appt_id = " + appid;
-				int rowcount = esql.executeQueryAndPrintResult(query3);
-				System.out.println("Rowcount: " + rowcount);
-			} catch(Exception e){
-                        	System.err.println(e.getMessage());
-                	}*/
-		} else if (!resultset.get(0).get(0).equals(docid)) {
-			return false;
-		}
-		return true;
-	}
-
-	public static String getHospitalID(DBproject esql, String docid) {
-		String getDepartment = "select did from doctor where doctor_ID = " + docid;
-		List<List<String>> resultset = new ArrayList<List<String>>();
-
-		try {
-			resultset = esql.executeQueryAndReturnResult(getDepartment);
-		} catch(Exception e){
-                	System.err.println(e.getMessage());
-                }
-
-		String getHospital = "select hid from department where dept_ID = " + resultset.get(0).get(0);
-		List<List<String>> resultset1 = new ArrayList<List<String>>();
-
-		try {
-			resultset1 = esql.executeQueryAndReturnResult(getHospital);
-		} catch(Exception e){
-                        System.err.println(e.getMessage());
-                }
-
-		return resultset1.get(0).get(0);
-	}
-
 	public static void MakeAppointment(DBproject esql) {//4
 		// Given a patient, a doctor and an appointment of the doctor that s/he wants to take, add an appointment to the DB
 		Scanner input = new Scanner(System.in);	
@@ -998,39 +1125,6 @@ public class DBproject{
 		System.out.println("Enter patient address: "); 
 		String patientAddress = input.nextLine();
 
-		//get whether or not patient exists
-
-		boolean exists = validPatientEntry(esql, patientName, patientGender, patientAge, patientAddress); // exists will be false, not exists will be true
-		List<List<String>> patientIDresultset = new ArrayList<List<String>>();
-		String patientID = "";
-
-		if (!exists) { //actually is when it exists
-			//get patient ID
-			try {
-				String getPatientID = "select patient_ID from patient where name = '" + patientName + "' and gtype = '" + patientGender + "' and age = " + patientAge + " and address = '" + patientAddress + "'";
-				patientIDresultset = esql.executeQueryAndReturnResult(getPatientID);
-				patientID = patientIDresultset.get(0).get(0);
-			} catch(Exception e){
-                        	System.err.println(e.getMessage());
-                	}
-		} else {
-			int newID = Integer.parseInt(getValidPatientID(esql));
-			newID += 1;
-			patientID = Integer.toString(newID);
-			
-			try {
-				String insertNewPatient = "insert into patient (patient_ID, name, gtype, age, address, number_of_appts) values (" + patientID + ", '" + patientName + "', '" + patientGender + "', " + patientAge + ", '" + patientAddress + "', 0)";
-				esql.executeUpdate(insertNewPatient);
-
-				System.out.println("Updated patient table with new patient: ");
-				String getRecord = "select * from patient group by patient_id order by patient_id DESC limit 1";
-				int rowcount = esql.executeQueryAndPrintResult(getRecord);
-				System.out.println("Rowcount: " + rowcount); 
-			} catch(Exception e){
-                                System.err.println(e.getMessage());
-                        }
-		}
-
 		System.out.print("Please enter doctor ID: ");
 		String doctorID = input.nextLine();
 		while(!(validDoctor(esql, doctorID))){
@@ -1045,96 +1139,44 @@ public class DBproject{
 			appointmentID = input.nextLine();	
 		}
 
-		if (validTimeslot(esql, appointmentID, doctorID) && validPatientNumber(esql, doctorID)) {
-			if (!validHasAppointment(esql, doctorID, appointmentID)) {
-                        	System.out.println("This appointment already exists under a different doctor. Please retry.");
-                	} else {
-				if (updateStatus(esql, appointmentID, doctorID)) {// updates appointment
-				//update searches table as well
-					String hid = getHospitalID(esql, doctorID); 
-					try {
-						String updateSearches = "insert into searches(hid, pid, aid) values (" + hid + ", " + patientID + ", " + appointmentID + ")";
-						esql.executeUpdate(updateSearches);
-			
-						System.out.println("Updated searches table: ");
-						String getNewSearches = "select * from searches where hid = " + hid + " and pid = " + patientID + " and aid = " + appointmentID;
-						int rowcount = esql.executeQueryAndPrintResult(getNewSearches);
-						System.out.println("Rowcount: " + rowcount); 
-					} catch(Exception e){
-                        	        	System.err.println(e.getMessage());
-                        		}
-
-					try {
-                                		String query2 = "insert into has_appointment(appt_id, doctor_id) values (" + appointmentID + ", " + doctorID + ")";
-                                		esql.executeUpdate(query2);
-                  		              	System.out.println("Updated has_appointment table: ");
-                        		        String query3 = "select * from has_appointment where appt_id = " + appointmentID;
-                        		        int rowcount = esql.executeQueryAndPrintResult(query3);
-                  			        System.out.println("Rowcount: " + rowcount);
-            		            	} catch(Exception e){
-                                		System.err.println(e.getMessage());
-                        		}
-				} else {
-					System.out.println("Appointment is already PA status. Unable to schedule appointment.");
-				}
-			}
-		} else {
-			System.out.println("Doctor ID " + doctorID +  " either does not have an open timeslot at the time of appointment " + appointmentID + " or already has the maximum number of patients/appointments for that timeslot. Unable to schedule appointment " + appointmentID + " with Doctor ID " + doctorID + ".");
-		}
-	}
-
-	public static boolean validTimeslot(DBproject esql, String appid, String docid) {
-		String getAppTimeslot = "select time_slot from appointment where appnt_ID = " + appid;
-		List<List<String>> appTimeslotResult = new ArrayList<List<String>>();
-
-		String getDocTimeslot = "select time_slot from request_maintenance where did = " + docid;
-		List<List<String>> docTimeslotResult = new ArrayList<List<String>>();
-
+		//the patient lookup / registration, checks and all writes happen in one atomic call
 		try {
-			appTimeslotResult = esql.executeQueryAndReturnResult(getAppTimeslot);
-			docTimeslotResult = esql.executeQueryAndReturnResult(getDocTimeslot);
-		} catch(Exception e){
-                	System.err.println(e.getMessage());
-                }	
-
-		if (docTimeslotResult.isEmpty()) {
-			return false;
-		}
-
-		for (List<String> dtime : docTimeslotResult) {
-			for (String timeslot : dtime) {
-				if (timeslot.equals(appTimeslotResult.get(0).get(0))) {
-					return true;
-				}
+			BookingEngine.Result result = esql.getBookingEngine().book(patientName, patientGender, patientAge, patientAddress,
+				Integer.parseInt(doctorID), Integer.parseInt(appointmentID));
+
+			switch (result.outcome) {
+				case BookingEngine.BOOKED:
+				case BookingEngine.WAITLISTED:
+					if (result.patientCreated) {
+						System.out.println("Registered new patient with ID " + result.patientId + ".");
+					}
+					System.out.println("Appointment " + appointmentID + " with Doctor ID " + doctorID + " is now " + result.status +
+						" (was " + result.previousStatus + ") for patient " + result.patientId + " at hospital " + result.hospitalId + ".");
+					//the status is read again at booking time, a listing may be older
+					if (BookingEngine.WAITLISTED.equals(result.outcome)) {
+						System.out.println("The appointment was no longer available, the patient is on its waiting list.");
+					}
+					break;
+				case BookingEngine.OTHER_DOCTOR:
+					System.out.println("This appointment already exists under a different doctor. Please retry.");
+					break;
+				case BookingEngine.PAST:
+					System.out.println("Appointment is already PA status. Unable to schedule appointment.");
+					break;
+				case BookingEngine.NO_TIMESLOT:
+					String slot = esql.getAvailabilityIndex().slotOf(result.appointmentId);
+					if (slot != null && esql.getTimeSlotIndex().overlaps(result.doctorId, TimeSlot.parse(slot))) {
+						System.out.println("Doctor ID " + doctorID + " works only part of the time slot " + slot + " of appointment " + appointmentID + ". Unable to schedule appointment " + appointmentID + " with Doctor ID " + doctorID + ".");
+					} else {
+						System.out.println("Doctor ID " + doctorID + " does not have an open timeslot at the time of appointment " + appointmentID + ". Unable to schedule appointment " + appointmentID + " with Doctor ID " + doctorID + ".");
+					}
+					break;
+				default:
+					System.out.println("Doctor ID " + doctorID +  " either does not have an open timeslot at the time of appointment " + appointmentID + " or already has the maximum number of patients/appointments for that timeslot. Unable to schedule appointment " + appointmentID + " with Doctor ID " + doctorID + ".");
 			}
-		}
-
-		return false;
-	}
-
-	public static boolean validPatientNumber(DBproject esql, String docid) {
-		String getMaxNum = "select patient_per_hour from request_maintenance where did = " + docid;
-		List<List<String>> getNumPatientsResult = new ArrayList<List<String>>();
-
-		String getTotalAppointments = "select count(appt_id) from has_appointment where doctor_id = " + docid;
-		List<List<String>> getTotalAppointmentsResult = new ArrayList<List<String>>();
-
-		try {
-			getNumPatientsResult = esql.executeQueryAndReturnResult(getMaxNum);
-			getTotalAppointmentsResult = esql.executeQueryAndReturnResult(getTotalAppointments);
 		} catch(Exception e){
-                        System.err.println(e.getMessage());
-                }
-		
-		if (getNumPatientsResult.isEmpty()) {
-			return false;
-		} else if (getTotalAppointmentsResult.isEmpty()) {
-			return true;
-		} else if (Integer.parseInt(getNumPatientsResult.get(0).get(0)) > Integer.parseInt(getTotalAppointmentsResult.get(0).get(0))) {
-			return true;
+			System.err.println(e.getMessage());
 		}
-
-		return false;
 	}
 
 	public static void ListAppointmentsOfDoctor(DBproject esql) {//5
@@ -1168,8 +1210,8 @@ public class DBproject{
 		System.out.println("List of active and available appointments for Doctor ID " + docid + ": ");
 
 		try {
-			String query = "SELECT appnt_ID FROM appointment LEFT JOIN has_appointment ON appointment.appnt_ID = has_appointment.appt_id WHERE (appointment.adate >= '" + first + "' AND appointment.adate <= '" + second + "') AND (appointment.status = 'AC' OR appointment.status = 'AV') AND (has_appointment.doctor_id = " + docid + ")";
-			int rc = esql.executeQueryAndPrintResult(query);
+			int rc = printResult(esql.executeQueryCached(Operations.APPOINTMENTS_OF_DOCTOR_TABLES, Operations.APPOINTMENTS_OF_DOCTOR,
+				InputCodec.sqlDate(first), InputCodec.sqlDate(second), Integer.parseInt(docid)));
 			System.out.println("Row count: " + rc);
 		} catch(Exception e) {
 			System.err.println(e.getMessage());
@@ -1198,15 +1240,19 @@ public class DBproject{
 
 		System.out.println("List of available appointments for department " + departmentName + ": ");
 		try{
-			String query = "select appnt_id, time_slot " + 
-					"from appointment join has_appointment on appointment.appnt_ID = has_appointment.appt_id " + 
-					"join doctor " + 
-					"on has_appointment.doctor_id = doctor.doctor_id " + 
-					"join department " +
-					"on doctor.did = dept_ID " + 
-					"where appointment.status = 'AV' and appointment.adate = '" + inputDate + "' and department.name = '" + departmentName + "'";
-			int rowcount = esql.executeQueryAndPrintResult(query);
+			//answered from memory, see AvailabilityIndex
+			AvailabilityIndex index = esql.getAvailabilityIndex();
+			List<AvailabilityIndex.Available> available = index.lookup(departmentName, InputCodec.parseDate(inputDate));
+			if (!available.isEmpty()) {
+				System.out.println("appnt_id\ttime_slot\t");
+			}
+			for (AvailabilityIndex.Available a : available) {
+				System.out.println(a.appointmentId + "\t" + a.timeSlot + "\t");
+			}
+			int rowcount = available.size();
 			System.out.println("Rowcount: " + rowcount);
+			System.out.println("(as of " + new Timestamp(index.getSyncedAt()) +
+				"; availability is checked again when booking)");
 		} catch(Exception e){
 			System.err.println(e.getMessage());
 		}
@@ -1215,28 +1261,14 @@ public class DBproject{
 
 	public static void ListStatusNumberOfAppointmentsPerDoctor(DBproject esql) {//7
 		// Count number of different types of appointments per doctors and list them in descending order
-		List<List<String>> resultset = new ArrayList<List<String>>();
-		String query = "select doctor.name, count(appointment.appnt_ID) as num_appnt, appointment.status from doctor join has_appointment on doctor.doctor_ID = has_appointment.doctor_id left join appointment on has_appointment.appt_id = appointment.appnt_ID group by doctor.doctor_id, appointment.status order by doctor.doctor_id ASC, num_appnt DESC";
+		String query = Operations.STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR;
 
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024);
 		try {
-			resultset = esql.executeQueryAndReturnResult(query);
+			esql.executeQueryStreaming(query, new StatusPivotRenderer(out));
+			out.flush();
 		} catch(Exception e) {
-                        System.err.println(e.getMessage());
-                }
-
-		String output = "";
-		String prevname = "";
-
-		for (List<String> record : resultset) {
-			if (prevname.equals(record.get(0))) {
-				output += ", " + record.get(1) + record.get(2);
-			} else {
-				if (output.length() > 0) {
-					System.out.println(output);
-				}
-				output = record.get(0) + ": " + record.get(1) + record.get(2);
-				prevname = record.get(0);
-			}
+			System.err.println(e.getMessage());
 		}
 	}
 	
@@ -1252,9 +1284,9 @@ public class DBproject{
 			stat = in.nextLine();
 		}
 		
-		String query = "select doctor.name, count(distinct searches.pid) as number_of_patients from doctor join has_appointment on doctor.doctor_id = has_appointment.doctor_id join appointment on has_appointment.appt_id = appointment.appnt_id join searches on appointment.appnt_id = searches.aid where appointment.status = '" + stat  + "' group by doctor.name, doctor.doctor_id order by doctor.doctor_id";	
+		String query = Operations.PATIENTS_COUNT_WITH_STATUS;
 		try {
-			esql.executeQueryAndPrintResult(query);
+			printResult(esql.executeQueryCached(Operations.PATIENTS_COUNT_WITH_STATUS_TABLES, query, stat));
 		} catch(Exception e) {
                         System.err.println(e.getMessage());
                 }
@@ -0,0 +1,429 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class generates synthetic data for the hospital schema at any scale,
+ * in the same shape as the CSV files of code/data. The output is a pure
+ * function of the seed and the sizes: every row is derived from its own
+ * index, so a table can be produced on its own, in any order, and two runs
+ * with the same arguments produce the same bytes.
+ *
+ * The rows are referentially consistent:
+ *   - every department, staff member and doctor belongs to an existing
+ *     hospital / department,
+ *   - every doctor works 1 to 3 time slots (request_maintenance), each with
+ *     its own staff member,
+ *   - every appointment is in a slot of its doctor (has_appointment) and is
+ *     scheduled with that slot's staff member (schedules),
+ *   - every appointment that is not AV was searched by a patient at the
+ *     doctor's hospital (searches), and Patient.number_of_appts matches.
+ *
+ * Sizes default to ratios of the appointment count and can be set one by
+ * one. The rows are written as CSV files or streamed into a database through
+ * COPY (see BulkLoader):
+ *
+ *   java -cp lib/*:bin/ DataGenerator --appointments 10000000 --seed 1 --out /tmp/data
+ *   java -cp lib/*:bin/ DataGenerator --appointments 10000000 --db <dbname> <port> <user> [<sqldir>]
+ *
+ */
+
+public class DataGenerator implements BulkLoader.Source{
+	static final String[] FIRST_NAMES = { "Alvin", "Carrie", "Calvin", "Armand", "Alberto", "Wyatt", "Camille",
+		"Lindsey", "Maria", "James", "Sofia", "Daniel", "Grace", "Henry", "Olivia", "Lucas", "Emma", "Noah",
+		"Ava", "Ethan", "Mia", "Logan", "Chloe", "Mason", "Zoe", "Owen", "Ruby", "Isaac", "Nora", "Elijah" };
+	static final String[] LAST_NAMES = { "Saunders", "Cortez", "Morrison", "Enderle", "Scarlett", "Ruoff",
+		"Holmes", "Sullivan", "Newton", "Garcia", "Nguyen", "Patel", "Kim", "Lopez", "Walker", "Young",
+		"Hill", "Reed", "Price", "Bennett", "Hughes", "Foster", "Brooks", "Gray", "Ward", "Diaz", "Perry" };
+	static final String[] DEPARTMENTS = { "Cardiology", "Finance", "Gastroenterology", "Pediatric", "Neurology",
+		"Oncology", "Radiology", "Orthopedics", "Dermatology", "Urology", "Allergy and Immunology",
+		"Obstetrics/Gynecology", "Emergency", "Psychiatry", "Ophthalmology" };
+	static final String[] SPECIALTIES = { "Allergist", "Cardiologist", "Dermatologist", "Neurologist", "Oncologist",
+		"Pediatrician", "Psychiatrist", "Radiologist", "Surgeon", "Urologist", "Gastroenterologist" };
+	static final String[] HOSPITALS = { "Medical Center", "General Hospital", "Community Hospital", "Clinic" };
+	static final String[] CITIES = { "Riverside", "Irvine", "Fresno", "Oakland", "Pasadena", "Sacramento",
+		"San Diego", "Berkeley", "Davis", "Merced", "Santa Cruz", "Baton Rouge", "Melbourne" };
+	static final String[] STREETS = { "Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Oak Lane",
+		"Main Street", "Elm Court", "Sunset Blvd.", "Lake Road", "Pine Street", "Hillside Ave." };
+	static final String[] TIME_SLOTS = { "8:00-10:00", "10:00-12:00", "12:00-14:00", "14:00-16:00",
+		"16:00-18:00", "18:00-20:00" };
+
+	//one stream of random numbers per kind of row, so tables do not disturb each other
+	private static final long STAFF = 1, DOCTOR = 2, SLOT = 3, PATIENT = 4, APPOINTMENT = 5;
+
+	private final long _seed;
+	private final int _appointments;
+	private final int _patients;
+	private final int _doctors;
+	private final int _departments;
+	private final int _hospitals;
+	private final int _staff;
+	private final long _firstDay;
+	private final int _days;
+	//appointments before this day are PA, the rest AC, AV or WL
+	private final long _today;
+	//filled on first use, see patientCounts
+	private int[] _patientCounts = null;
+
+	/**
+	 * @param seed the random seed
+	 * @param appointments the number of appointments
+	 * @param patients the number of patients, or -1 for appointments / 2
+	 * @param doctors the number of doctors, or -1 for appointments / 50
+	 * @param departments the number of departments, or -1 for doctors / 2
+	 * @param hospitals the number of hospitals, or -1 for departments / 30
+	 * @param staff the number of staff members, or -1 for the number of doctors
+	 */
+	public DataGenerator(long seed, int appointments, int patients, int doctors, int departments, int hospitals, int staff) {
+		this._seed = seed;
+		this._appointments = Math.max(1, appointments);
+		this._patients = patients > 0 ? patients : Math.max(1, this._appointments / 2);
+		this._doctors = doctors > 0 ? doctors : Math.max(10, this._appointments / 50);
+		this._departments = departments > 0 ? departments : Math.max(1, this._doctors / 2);
+		this._hospitals = hospitals > 0 ? hospitals : Math.max(1, this._departments / 30);
+		//a doctor's slots need distinct staff members
+		this._staff = Math.max(3, staff > 0 ? staff : this._doctors);
+		this._firstDay = LocalDate.of(2019, 1, 1).toEpochDay();
+		this._days = (int) (LocalDate.of(2023, 1, 1).toEpochDay() - this._firstDay);
+		this._today = LocalDate.of(2021, 6, 1).toEpochDay();
+	}
+
+	/**
+	 * Small splitmix64 generator that can be re-seeded for every row, so
+	 * the value of a row depends only on its index.
+	 */
+	static final class Rng{
+		private long _state;
+
+		Rng seed(long seed, long kind, long index) {
+			this._state = mix(seed * 0x9E3779B97F4A7C15L + kind * 0xBF58476D1CE4E5B9L + index);
+			return this;
+		}
+
+		long nextLong() {
+			return mix(this._state += 0x9E3779B97F4A7C15L);
+		}
+
+		int nextInt(int bound) {
+			return (int) ((nextLong() >>> 33) % bound);
+		}
+
+		private static long mix(long z) {
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+	}
+
+	/**
+	 * One generated appointment with everything that hangs off it.
+	 */
+	static final class Appointment{
+		int doctor;
+		int slot;
+		long epochDay;
+		String status;
+		int staff;
+		//-1 when nobody searched for it (status AV)
+		int patient;
+	}
+
+	@Override
+	public void write(BulkLoader.Table table, Writer out) throws IOException {
+		Rng rng = new Rng();
+		StringBuilder line = new StringBuilder(256);
+		switch (table.name) {
+			case "Hospital":
+				//every city / kind pair once, then numbered
+				for (int h = 0; h < this._hospitals; ++h) {
+					line.setLength(0);
+					line.append(h).append(',').append(CITIES[h % CITIES.length]).append(' ')
+						.append(HOSPITALS[(h / CITIES.length) % HOSPITALS.length]);
+					if (h >= CITIES.length * HOSPITALS.length) {
+						line.append(' ').append(h / (CITIES.length * HOSPITALS.length) + 1);
+					}
+					emit(out, line);
+				}
+				break;
+			case "Department":
+				for (int d = 0; d < this._departments; ++d) {
+					line.setLength(0);
+					line.append(d).append(',');
+					csv(line, departmentName(d)).append(',').append(d % this._hospitals);
+					emit(out, line);
+				}
+				break;
+			case "Staff":
+				for (int s = 0; s < this._staff; ++s) {
+					rng.seed(this._seed, STAFF, s);
+					line.setLength(0);
+					line.append(s).append(',');
+					name(line, rng).append(',').append(s % this._hospitals);
+					emit(out, line);
+				}
+				break;
+			case "Doctor":
+				for (int k = 0; k < this._doctors; ++k) {
+					rng.seed(this._seed, DOCTOR, k);
+					line.setLength(0);
+					line.append(k).append(',');
+					name(line, rng).append(',').append(pick(rng, SPECIALTIES)).append(',').append(department(k));
+					emit(out, line);
+				}
+				break;
+			case "request_maintenance":
+				for (int k = 0; k < this._doctors; ++k) {
+					int slots = slotCount(rng, k);
+					for (int j = 0; j < slots; ++j) {
+						line.setLength(0);
+						line.append(perHour(rng, k, j)).append(',');
+						csv(line, departmentName(department(k))).append(',')
+							.append(TIME_SLOTS[slot(rng, k, j)]).append(',').append(k).append(',').append(slotStaff(k, j));
+						emit(out, line);
+					}
+				}
+				break;
+			case "Patient":
+				int[] counts = patientCounts();
+				for (int p = 0; p < this._patients; ++p) {
+					rng.seed(this._seed, PATIENT, p);
+					line.setLength(0);
+					line.append(p).append(',');
+					name(line, rng).append(',').append(rng.nextInt(2) == 0 ? 'F' : 'M').append(',').append(1 + rng.nextInt(95)).append(',');
+					line.append(100 + rng.nextInt(9900)).append(' ').append(pick(rng, STREETS)).append(' ').append(pick(rng, CITIES));
+					line.append(',').append(counts[p]);
+					emit(out, line);
+				}
+				break;
+			case "Appointment":
+			case "has_appointment":
+			case "schedules":
+			case "searches":
+				Appointment a = new Appointment();
+				for (int i = 0; i < this._appointments; ++i) {
+					appointment(rng, i, a);
+					line.setLength(0);
+					if (table.name.equals("Appointment")) {
+						line.append(i).append(',').append(LocalDate.ofEpochDay(a.epochDay)).append(',')
+							.append(TIME_SLOTS[a.slot]).append(',').append(a.status);
+					} else if (table.name.equals("has_appointment")) {
+						line.append(i).append(',').append(a.doctor);
+					} else if (table.name.equals("schedules")) {
+						line.append(i).append(',').append(a.staff);
+					} else if (a.patient >= 0) {
+						line.append(department(a.doctor) % this._hospitals).append(',').append(a.patient).append(',').append(i);
+					} else {
+						continue;
+					}
+					emit(out, line);
+				}
+				break;
+			default:
+				throw new IOException("Unknown table " + table.name);
+		}
+	}
+
+	/**
+	 * Method to derive appointment i.
+	 */
+	void appointment(Rng rng, int i, Appointment a) {
+		rng.seed(this._seed, APPOINTMENT, i);
+		a.doctor = rng.nextInt(this._doctors);
+		int j = rng.nextInt(3);
+		long day = this._firstDay + rng.nextInt(this._days);
+		int roll = rng.nextInt(100);
+		int patient = rng.nextInt(this._patients);
+		// the doctor's slots come from the doctor's own stream, so draw from this one first
+		j = j % slotCount(rng, a.doctor);
+		a.slot = slot(rng, a.doctor, j);
+		a.staff = slotStaff(a.doctor, j);
+		a.epochDay = day;
+		if (day < this._today) {
+			a.status = "PA";
+		} else if (roll < 40) {
+			a.status = "AV";
+		} else if (roll < 85) {
+			a.status = "AC";
+		} else {
+			a.status = "WL";
+		}
+		a.patient = a.status.equals("AV") ? -1 : patient;
+	}
+
+	//number of appointments searched by every patient
+	private synchronized int[] patientCounts() {
+		if (this._patientCounts == null) {
+			int[] counts = new int[this._patients];
+			Rng rng = new Rng();
+			Appointment a = new Appointment();
+			for (int i = 0; i < this._appointments; ++i) {
+				appointment(rng, i, a);
+				if (a.patient >= 0) {
+					++counts[a.patient];
+				}
+			}
+			this._patientCounts = counts;
+		}
+		return this._patientCounts;
+	}
+
+	private int department(int doctor) {
+		return doctor % this._departments;
+	}
+
+	private static String departmentName(int department) {
+		return DEPARTMENTS[department % DEPARTMENTS.length];
+	}
+
+	private int slotCount(Rng rng, int doctor) {
+		rng.seed(this._seed, SLOT, doctor);
+		rng.nextLong();
+		return 1 + (int) ((rng.nextLong() >>> 33) % 3);
+	}
+
+	//the j-th slot of a doctor, distinct slots for distinct j
+	private int slot(Rng rng, int doctor, int j) {
+		rng.seed(this._seed, SLOT, doctor);
+		int first = (int) ((rng.nextLong() >>> 33) % TIME_SLOTS.length);
+		return (first + j * 2) % TIME_SLOTS.length;
+	}
+
+	private int perHour(Rng rng, int doctor, int j) {
+		rng.seed(this._seed, SLOT, doctor);
+		rng.nextLong();
+		rng.nextLong();
+		for (int k = 0; k < j; ++k) {
+			rng.nextLong();
+		}
+		return 1 + (int) ((rng.nextLong() >>> 33) % 5);
+	}
+
+	private int slotStaff(int doctor, int j) {
+		return (int) (((long) doctor * 3 + j) % this._staff);
+	}
+
+	private static String pick(Rng rng, String[] values) {
+		return values[rng.nextInt(values.length)];
+	}
+
+	private static StringBuilder name(StringBuilder line, Rng rng) {
+		return line.append(pick(rng, FIRST_NAMES)).append(' ').append(pick(rng, LAST_NAMES));
+	}
+
+	//quotes a value when it holds a CSV special character
+	private static StringBuilder csv(StringBuilder line, String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+			return line.append(value);
+		}
+		return line.append('"').append(value.replace("\"", "\"\"")).append('"');
+	}
+
+	private static void emit(Writer out, StringBuilder line) throws IOException {
+		out.append(line).write('\n');
+	}
+
+	/**
+	 * Method to write every table as a CSV file named like the files of
+	 * code/data, the tables in parallel.
+	 */
+	public void writeCsv(final Path dir, int threads) throws Exception {
+		Files.createDirectories(dir);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (BulkLoader.Table[] level : BulkLoader.LEVELS) {
+				for (final BulkLoader.Table table : level) {
+					results.add(pool.submit(() -> {
+						long start = System.nanoTime();
+						Path file = dir.resolve(table.file);
+						try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+							write(table, out);
+						}
+						return String.format("%-20s %12d bytes %9.2f seconds", table.name, Files.size(file),
+							(System.nanoTime() - start) / 1e9);
+					}));
+				}
+			}
+			for (Future<String> f : results) {
+				System.out.println(f.get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		long seed = 1;
+		int appointments = 550;
+		int patients = -1, doctors = -1, departments = -1, hospitals = -1, staff = -1;
+		Path out = null;
+		String[] db = null;
+		Path sqlDir = Paths.get("../sql");
+		try {
+			for (int i = 0; i < args.length; ++i) {
+				switch (args[i]) {
+					case "--seed": seed = Long.parseLong(args[++i]); break;
+					case "--appointments": appointments = Integer.parseInt(args[++i]); break;
+					case "--patients": patients = Integer.parseInt(args[++i]); break;
+					case "--doctors": doctors = Integer.parseInt(args[++i]); break;
+					case "--departments": departments = Integer.parseInt(args[++i]); break;
+					case "--hospitals": hospitals = Integer.parseInt(args[++i]); break;
+					case "--staff": staff = Integer.parseInt(args[++i]); break;
+					case "--out": out = Paths.get(args[++i]); break;
+					case "--db":
+						db = new String[]{ args[i + 1], args[i + 2], args[i + 3] };
+						i += 3;
+						if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+							sqlDir = Paths.get(args[++i]);
+						}
+						break;
+					default: throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+			if ((out == null) == (db == null)) {
+				throw new IllegalArgumentException("Give exactly one of --out and --db");
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java [-classpath <classpath>] DataGenerator [--seed n] [--appointments n] " +
+				"[--patients n] [--doctors n] [--departments n] [--hospitals n] [--staff n] " +
+				"(--out <dir> | --db <dbname> <port> <user> [<sqldir>])");
+			System.exit(2);
+		}
+
+		DataGenerator gen = new DataGenerator(seed, appointments, patients, doctors, departments, hospitals, staff);
+		if (out != null) {
+			gen.writeCsv(out, Math.max(1, Runtime.getRuntime().availableProcessors()));
+			return;
+		}
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(db[0], db[1], db[2], "");
+		try {
+			new BulkLoader(esql, gen, sqlDir).run();
+		} finally {
+			esql.cleanup();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class serves the menu operations over HTTP/JSON, so one process and
+ * one connection pool can serve every front desk:
+ *
+ *   POST /api/AddDoctor      {"name": "john smith", "specialty": "cardiology", "did": 3}
+ *   GET  /api/FindPatientsCountWithStatus?status=AC
+ *   GET  /metrics            request latency per operation, pool and query
+ *                            cache statistics
+ *   GET  /metrics/text       the Metrics snapshot in the Prometheus text format
+ *   GET  /health
+ *
+ * Parameters can be given as a JSON object body, as query parameters or
+ * both; see Operations for the parameters of every operation. A successful
+ * operation answers 200, rejected input 422 and a database failure 500,
+ * always with the Operations result map as body.
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java
+ * 21+) and on a cached thread pool otherwise. Concurrency against the
+ * database is bounded by the connection pool either way.
+ *
+ */
+
+public class HttpService{
+	private final DBproject _esql;
+	private final Operations _ops;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+	private final Map<String, LatencyHistogram> _latency = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final CountDownLatch _stopped = new CountDownLatch(1);
+	private final long _startedAt = System.currentTimeMillis();
+
+	/**
+	 * @param esql the database to serve
+	 * @param port the TCP port to listen on
+	 */
+	public HttpService(DBproject esql, int port) throws IOException {
+		this._esql = esql;
+		this._ops = new Operations(esql);
+		this._executor = newRequestExecutor();
+		this._server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("cs166.http.backlog", 128));
+		this._server.setExecutor(this._executor);
+		this._server.createContext("/api/", this::handleOperation);
+		this._server.createContext("/metrics", this::handleMetrics);
+		this._server.createContext("/metrics/text", this::handleMetricsText);
+		this._server.createContext("/health", exchange -> send(exchange, 200, Operations.ok()));
+	}
+
+	/**
+	 * Method to start accepting requests.
+	 */
+	public void start() {
+		this._server.start();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return this._server.getAddress().getPort();
+	}
+
+	/**
+	 * Method to stop the server, letting requests in flight finish for up to
+	 * a second.
+	 */
+	public void stop() {
+		this._server.stop(1);
+		this._executor.shutdown();
+		this._stopped.countDown();
+	}
+
+	/**
+	 * Method to block until stop is called.
+	 */
+	public void awaitStop() throws InterruptedException {
+		this._stopped.await();
+	}
+
+	//one virtual thread per request where the JDK supports it
+	static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private void handleOperation(HttpExchange exchange) throws IOException {
+		long t0 = System.nanoTime();
+		String op = exchange.getRequestURI().getPath().substring("/api/".length());
+		if (!Operations.ALL.contains(op)) {
+			send(exchange, 404, Operations.error("Unknown operation '" + op + "'"));
+			return;
+		}
+		int status;
+		try {
+			Map<String, Object> params = new LinkedHashMap<String, Object>();
+			byte[] body = readBody(exchange.getRequestBody());
+			if (body.length > 0) {
+				params.putAll(Json.parseObject(new String(body, StandardCharsets.UTF_8)));
+			}
+			parseQuery(exchange.getRequestURI().getRawQuery(), params);
+
+			Map<String, Object> result = this._ops.run(op, params);
+			status = Boolean.TRUE.equals(result.get("ok")) ? 200 : result.containsKey("sqlstate") ? 500 : 422;
+			send(exchange, status, result);
+		} catch (IllegalArgumentException e) {
+			status = 400;
+			send(exchange, status, Operations.error(e.getMessage()));
+		} finally {
+			exchange.close();
+		}
+		this._latency.computeIfAbsent(op, k -> new LatencyHistogram()).record(System.nanoTime() - t0, status >= 500);
+	}
+
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("uptime_s", (System.currentTimeMillis() - this._startedAt) / 1000);
+		Map<String, Object> ops = new LinkedHashMap<String, Object>();
+		for (String op : Operations.ALL) {
+			LatencyHistogram h = this._latency.get(op);
+			if (h != null) {
+				ops.put(op, h.toMap());
+			}
+		}
+		m.put("operations", ops);
+		ConnectionPool pool = this._esql.getPool();
+		Map<String, Object> p = new LinkedHashMap<String, Object>();
+		p.put("active", pool.getActiveConnections());
+		p.put("total", pool.getTotalConnections());
+		p.put("max", pool.getMaxSize());
+		p.put("statement_cache_hits", pool.getStatementCacheHits());
+		p.put("statement_cache_misses", pool.getStatementCacheMisses());
+		m.put("pool", p);
+		m.put("query_cache", this._esql.getQueryCache().toMap());
+		m.put("booking_retries", this._esql.getBookingEngine().getRetries());
+		m.put("booking_local_rejects", this._esql.getBookingEngine().getLocalRejects());
+		Map<String, Object> db = new LinkedHashMap<String, Object>();
+		db.put("round_trips", Metrics.getRoundTrips());
+		db.put("bytes_read", Metrics.getBytesRead());
+		db.put("bytes_written", Metrics.getBytesWritten());
+		m.put("database", db);
+		if (this._esql.getSlowQueryLog() != null) {
+			m.put("slow_queries", this._esql.getSlowQueryLog().toMap());
+		}
+		if (this._esql.getArchiver() != null) {
+			m.put("archive", this._esql.getArchiver().toMap());
+		}
+		send(exchange, 200, m);
+	}
+
+	private void handleMetricsText(HttpExchange exchange) throws IOException {
+		byte[] bytes = Metrics.snapshot().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static byte[] readBody(InputStream in) throws IOException {
+		try (InputStream body = in) {
+			return body.readAllBytes();
+		}
+	}
+
+	private static void parseQuery(String rawQuery, Map<String, Object> params) throws UnsupportedEncodingException {
+		if (rawQuery == null || rawQuery.isEmpty()) {
+			return;
+		}
+		for (String pair : rawQuery.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			params.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, Map<String, Object> body) throws IOException {
+		byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
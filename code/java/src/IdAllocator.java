@@ -0,0 +1,70 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+
+/**
+ * This class hands out primary keys from a Postgres sequence using the hi-lo
+ * scheme. The sequence is created with INCREMENT BY n (see
+ * sql/create_sequences.sql), so every nextval reserves the n ids
+ * [value, value + n) for this process alone. Those ids are then handed out
+ * from memory, which means most inserts need no extra query and concurrent
+ * writers can never pick the same key.
+ *
+ * Ids reserved by a process that exits are never reused, so keys can have
+ * gaps.
+ *
+ */
+
+public class IdAllocator{
+	private final DBproject _esql;
+	private final String _sequence;
+	private int _blockSize = 0;
+	private int _next = 0;
+	private int _limit = 0;
+
+	/**
+	 * @param esql the database the sequence lives in
+	 * @param sequence the name of the sequence to draw blocks from
+	 */
+	public IdAllocator(DBproject esql, String sequence) {
+		this._esql = esql;
+		this._sequence = sequence;
+	}
+
+	/**
+	 * Method to get the next unused id, fetching a new block from the
+	 * sequence once the current one is used up.
+	 *
+	 * @return an id no other caller has been or will be given
+	 * @throws java.sql.SQLException when a new block could not be fetched
+	 */
+	public synchronized int nextId() throws SQLException {
+		if (this._next >= this._limit) {
+			if (this._blockSize == 0) {
+				this._blockSize = this._esql.getSeqIncrement(this._sequence);
+			}
+			int hi = this._esql.getNextSeqVal(this._sequence);
+			this._next = hi;
+			this._limit = hi + this._blockSize;
+		}
+		return this._next++;
+	}
+
+	/**
+	 * @return the name of the sequence blocks are drawn from
+	 */
+	public String getSequence() {
+		return this._sequence;
+	}
+}
@@ -0,0 +1,499 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class chooses the index set of create_indexes.sql from the
+ * statements the application actually issues, recorded with
+ * -Dcs166.workload.file (see WorkloadRecorder):
+ *
+ *   java -cp lib/*:bin/ IndexAdvisor <dbname> <port> <user> <workload.jsonl>
+ *       [--indexes ../sql/create_indexes.sql] [--out create_indexes.advised.sql]
+ *       [--runs 5] [--min-gain 1.2]
+ *
+ * Every recorded execution is timed with EXPLAIN ANALYZE, the median of
+ * --runs runs, and its plan is searched for candidates: the columns
+ * compared in the filter of a sequential scan, equality columns first and
+ * one range column last, and the columns of a join condition on a
+ * sequentially scanned table. Each candidate is then built for real inside
+ * a transaction, the executions are timed again and the transaction is
+ * rolled back. A candidate is kept when the planner uses it
+ * and it makes some execution at least --min-gain times faster.
+ *
+ * The indexes of the current script whose leading columns hold the whole
+ * primary key are dropped, unless dropping them (again in a rolled back
+ * transaction) slows an execution down by --min-gain. The other indexes of
+ * the script are kept.
+ *
+ * Plans of a partitioned table (Appointment, see partition_appointments.sql)
+ * name its partitions and their indexes; they are read as the partitioned
+ * table and its indexes, which is where the indexes are created.
+ *
+ * Finally the whole new set is timed against the old one in a single
+ * transaction and written as a replacement script, headed by the measured
+ * speed-up of every statement. Every statement runs inside a savepoint that
+ * is rolled back, so recorded inserts and bookings change nothing, but the
+ * trial builds lock the tables while they run: use a scratch copy of the
+ * database (createdb -T).
+ *
+ */
+
+public class IndexAdvisor{
+	//the column compared in a plan filter, e.g. ((name)::text = 'x'::text) or (adate >= '2020-01-01'::date)
+	private static final Pattern PREDICATE = Pattern.compile("\\(+(?:\\w+\\.)?(\\w+)\\)?(?:::[\\w ]+?)?\\s*(=|>=|<=|>|<)\\s");
+	//alias.column in a join condition
+	private static final Pattern QUALIFIED = Pattern.compile("(\\w+)\\.(\\w+)");
+
+	/**
+	 * An index, existing or proposed.
+	 */
+	static class Index{
+		final String name;
+		final String table;
+		final List<String> columns;
+		final boolean primary;
+
+		Index(String name, String table, List<String> columns, boolean primary) {
+			this.name = name;
+			this.table = table;
+			this.columns = columns;
+			this.primary = primary;
+		}
+
+		String ddl() {
+			return "create index " + this.name + "\non " + this.table + " (" + String.join(", ", this.columns) + ");";
+		}
+
+		//true if the other index's columns start with all of ours
+		boolean isPrefixOf(Index other) {
+			return this.table.equals(other.table) && other.columns.size() >= this.columns.size()
+				&& other.columns.subList(0, this.columns.size()).equals(this.columns);
+		}
+	}
+
+	/**
+	 * What one round of timing found for one execution.
+	 */
+	static class Timing{
+		//median execution time in milliseconds, NaN when the statement failed
+		double ms = Double.NaN;
+		final Set<String> tables = new HashSet<String>();
+		final Set<String> indexes = new HashSet<String>();
+		final List<Index> candidates = new ArrayList<Index>();
+	}
+
+	private final DBproject _esql;
+	private final List<WorkloadRecorder.Sample> _workload;
+	private final int _runs;
+	private final double _minGain;
+	//partition or partition index -> the partitioned table or index it belongs to
+	private final Map<String, String> _partitionOf = new HashMap<String, String>();
+
+	/**
+	 * @param esql the database, preferably a scratch copy
+	 * @param workload the recorded executions
+	 * @param runs how often each execution is timed, the median counts
+	 * @param minGain the speed-up an index has to bring to be kept
+	 */
+	public IndexAdvisor(DBproject esql, List<WorkloadRecorder.Sample> workload, int runs, double minGain) {
+		this._esql = esql;
+		this._workload = new ArrayList<WorkloadRecorder.Sample>();
+		for (WorkloadRecorder.Sample s : workload) {
+			if (SlowQueryLog.isExplainable(s.sql)) {
+				this._workload.add(s);
+			}
+		}
+		this._runs = runs;
+		this._minGain = minGain;
+	}
+
+	/**
+	 * Method to choose the index set and write the replacement script.
+	 *
+	 * @param indexScript the current create_indexes.sql
+	 * @param out where the replacement script goes
+	 * @param log where the progress report goes
+	 * @throws java.sql.SQLException when the database could not be queried
+	 * @throws java.io.IOException when a script could not be read or written
+	 */
+	public void run(Path indexScript, Path out, PrintStream log) throws SQLException, IOException {
+		Set<String> scripted = new LinkedHashSet<String>();
+		for (String sql : SqlScript.read(indexScript)) {
+			Matcher m = BulkLoader.INDEX_NAME.matcher(sql);
+			if (m.find()) {
+				scripted.add(m.group(1).toLowerCase(Locale.ROOT));
+			}
+		}
+		this._esql.executeQueryStreaming("select c.relname, p.relname from pg_inherits i " +
+			"join pg_class c on c.oid = i.inhrelid join pg_class p on p.oid = i.inhparent",
+			rs -> this._partitionOf.put(rs.getString(1), rs.getString(2)));
+		final List<Index> existing = existingIndexes();
+		log.println(this._workload.size() + " executions, " + existing.size() + " existing indexes");
+
+		final Timing[] baseline = this._esql.withConnection(conn -> measure(conn, Arrays.<Index>asList(), Arrays.<String>asList()));
+		Set<String> used = new HashSet<String>();
+		for (Timing t : baseline) {
+			used.addAll(t.indexes);
+		}
+
+		//the scripted indexes holding the primary key, dropped unless an execution needs them
+		List<Index> keep = new ArrayList<Index>();
+		List<String> dropped = new ArrayList<String>();
+		for (Index ix : existing) {
+			if (!scripted.contains(ix.name)) {
+				continue;
+			}
+			Index pk = primaryKey(existing, ix.table);
+			boolean coversKey = pk != null && ix.columns.size() >= pk.columns.size()
+				&& new HashSet<String>(ix.columns.subList(0, pk.columns.size())).equals(new HashSet<String>(pk.columns));
+			if (coversKey && (!used.contains(ix.name) || worstSlowdown(baseline, ix) < this._minGain)) {
+				dropped.add(ix.name);
+				log.println("drop " + ix.name + ": leads with the primary key of " + ix.table);
+			} else {
+				keep.add(ix);
+			}
+		}
+
+		//every candidate is tried on its own against the current indexes
+		List<Index> candidates = new ArrayList<Index>();
+		for (Timing t : baseline) {
+			for (Index c : t.candidates) {
+				if (!covered(c, existing) && !covered(c, candidates)) {
+					candidates.add(c);
+				}
+			}
+		}
+		final List<Index> accepted = new ArrayList<Index>();
+		for (final Index c : candidates) {
+			Timing[] trial = this._esql.withConnection(conn -> measure(conn, Arrays.asList(c), Arrays.<String>asList()));
+			double best = 0;
+			boolean usedByPlanner = false;
+			for (int i = 0; i < trial.length; ++i) {
+				if (trial[i].indexes.contains(c.name) && !Double.isNaN(baseline[i].ms) && !Double.isNaN(trial[i].ms)) {
+					usedByPlanner = true;
+					best = Math.max(best, baseline[i].ms / trial[i].ms);
+				}
+			}
+			log.println(String.format("candidate %-50s %s", c.table + " (" + String.join(", ", c.columns) + ")",
+				usedByPlanner ? String.format("%.2fx", best) : "not used"));
+			if (usedByPlanner && best >= this._minGain) {
+				accepted.add(c);
+			}
+		}
+		//a candidate that is a prefix of another accepted one adds nothing
+		List<Index> chosen = new ArrayList<Index>();
+		for (Index c : accepted) {
+			boolean redundant = false;
+			for (Index o : accepted) {
+				if (o != c && c.isPrefixOf(o)) {
+					redundant = true;
+				}
+			}
+			if (!redundant) {
+				chosen.add(c);
+			}
+		}
+
+		//the whole new set against the old one
+		final List<Index> added = chosen;
+		final List<String> removed = dropped;
+		Timing[] after = this._esql.withConnection(conn -> measure(conn, added, removed));
+		writeScript(out, keep, chosen, dropped, baseline, after);
+		log.println("index script written to " + out);
+	}
+
+	//the slowest an execution using the index gets without it, in a rolled back transaction
+	private double worstSlowdown(Timing[] baseline, final Index ix) throws SQLException {
+		Timing[] without = this._esql.withConnection(conn -> measure(conn, Arrays.<Index>asList(), Arrays.asList(ix.name)));
+		double worst = 1;
+		for (int i = 0; i < baseline.length; ++i) {
+			if (baseline[i].indexes.contains(ix.name) && !Double.isNaN(without[i].ms)) {
+				worst = Math.max(worst, without[i].ms / baseline[i].ms);
+			}
+		}
+		return worst;
+	}
+
+	/**
+	 * Method to time every execution with some indexes built and some
+	 * dropped, all inside one transaction that is rolled back.
+	 */
+	private Timing[] measure(Connection conn, List<Index> create, List<String> drop) throws SQLException {
+		conn.setAutoCommit(false);
+		try (Statement ddl = conn.createStatement()) {
+			for (String name : drop) {
+				ddl.execute("drop index " + name);
+			}
+			for (Index ix : create) {
+				ddl.execute("create index " + ix.name + " on " + ix.table + " (" + String.join(", ", ix.columns) + ")");
+			}
+			Timing[] timings = new Timing[this._workload.size()];
+			for (int i = 0; i < timings.length; ++i) {
+				timings[i] = time(conn, this._workload.get(i));
+			}
+			return timings;
+		} finally {
+			conn.rollback();
+			conn.setAutoCommit(true);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Timing time(Connection conn, WorkloadRecorder.Sample sample) throws SQLException {
+		Timing t = new Timing();
+		double[] ms = new double[this._runs];
+		for (int r = 0; r < this._runs; ++r) {
+			//the statement may write, each run is undone before the next
+			Savepoint sp = conn.setSavepoint();
+			try (PreparedStatement ps = conn.prepareStatement("EXPLAIN (ANALYZE, FORMAT JSON) " + sample.sql)) {
+				DBproject.bind(ps, sample.params);
+				try (ResultSet rs = ps.executeQuery()) {
+					rs.next();
+					Map<String, Object> explain = (Map<String, Object>) ((List<Object>) Json.parse(rs.getString(1))).get(0);
+					Object total = explain.containsKey("Execution Time") ? explain.get("Execution Time") : explain.get("Total Runtime");
+					ms[r] = ((Number) total).doubleValue();
+					if (r == 0) {
+						walk((Map<String, Object>) explain.get("Plan"), t, new LinkedHashMap<String, String>(),
+							new ArrayList<String[]>(), new HashSet<String>(), this._partitionOf);
+					}
+				}
+			} catch (SQLException e) {
+				conn.rollback(sp);
+				System.err.println("Could not time " + sample.sql + ": " + e.getMessage());
+				return t;
+			}
+			conn.rollback(sp);
+		}
+		Arrays.sort(ms);
+		t.ms = ms[ms.length / 2];
+		return t;
+	}
+
+	/**
+	 * Method to collect the tables, indexes and candidate indexes of a plan
+	 * in the JSON format of EXPLAIN.
+	 */
+	@SuppressWarnings("unchecked")
+	static void walk(Map<String, Object> node, Timing t, Map<String, String> aliases, List<String[]> joins,
+			Set<String> seqScanned, Map<String, String> partitionOf) {
+		String relation = root(partitionOf, (String) node.get("Relation Name"));
+		if (relation != null) {
+			t.tables.add(relation);
+			aliases.put(node.containsKey("Alias") ? (String) node.get("Alias") : relation, relation);
+		}
+		if (node.get("Index Name") != null) {
+			t.indexes.add(root(partitionOf, (String) node.get("Index Name")));
+		}
+		String type = (String) node.get("Node Type");
+		if (relation != null && "Seq Scan".equals(type)) {
+			seqScanned.add(relation);
+			if (node.get("Filter") != null) {
+				Index c = candidate(relation, (String) node.get("Filter"));
+				if (c != null) {
+					t.candidates.add(c);
+				}
+			}
+		}
+		for (String key : new String[]{ "Hash Cond", "Merge Cond", "Join Filter" }) {
+			if (node.get(key) != null) {
+				Matcher m = QUALIFIED.matcher((String) node.get(key));
+				while (m.find()) {
+					joins.add(new String[]{ m.group(1), m.group(2) });
+				}
+			}
+		}
+		List<Object> children = (List<Object>) node.get("Plans");
+		if (children != null) {
+			for (Object child : children) {
+				walk((Map<String, Object>) child, t, aliases, joins, seqScanned, partitionOf);
+			}
+		}
+		//back at the root every alias is known
+		if (node.get("Parent Relationship") == null) {
+			for (String[] j : joins) {
+				String table = aliases.get(j[0]);
+				if (table != null && seqScanned.contains(table)) {
+					t.candidates.add(new Index(name(table, Arrays.asList(j[1])), table, Arrays.asList(j[1]), false));
+				}
+			}
+		}
+	}
+
+	//the topmost partitioned table or index above a partition, the name itself otherwise
+	static String root(Map<String, String> partitionOf, String name) {
+		while (name != null && partitionOf.containsKey(name)) {
+			name = partitionOf.get(name);
+		}
+		return name;
+	}
+
+	/**
+	 * Method to turn a scan filter into an index: the columns compared for
+	 * equality in order of appearance, then the first column compared by
+	 * range.
+	 *
+	 * @return the index, null when the filter compares no column
+	 */
+	static Index candidate(String table, String filter) {
+		LinkedHashSet<String> eq = new LinkedHashSet<String>();
+		String range = null;
+		Matcher m = PREDICATE.matcher(filter);
+		while (m.find()) {
+			String column = m.group(1);
+			if (m.group(2).equals("=")) {
+				eq.add(column);
+			} else if (range == null) {
+				range = column;
+			}
+		}
+		List<String> columns = new ArrayList<String>(eq);
+		if (range != null && !eq.contains(range)) {
+			columns.add(range);
+		}
+		return columns.isEmpty() ? null : new Index(name(table, columns), table, columns, false);
+	}
+
+	//Postgres cuts names at 63 characters, the plans would not match a longer one
+	static String name(String table, List<String> columns) {
+		String name = table + "_" + String.join("_", columns) + "_index";
+		return name.length() > 63 ? name.substring(0, 63) : name;
+	}
+
+	//true if an index in the list already starts with the candidate's columns
+	private static boolean covered(Index c, List<Index> indexes) {
+		for (Index ix : indexes) {
+			if (c.isPrefixOf(ix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Index primaryKey(List<Index> indexes, String table) {
+		for (Index ix : indexes) {
+			if (ix.primary && ix.table.equals(table)) {
+				return ix;
+			}
+		}
+		return null;
+	}
+
+	//the plain column indexes of the current schema, with their columns in key order
+	private List<Index> existingIndexes() throws SQLException {
+		final List<Index> indexes = new ArrayList<Index>();
+		this._esql.executeQueryStreaming("select t.relname, i.relname, x.indisprimary, " +
+			"array_to_string(array(select a.attname from unnest(x.indkey) with ordinality k(attnum, n) " +
+			"join pg_attribute a on a.attrelid = x.indrelid and a.attnum = k.attnum order by k.n), ',') " +
+			"from pg_index x join pg_class i on i.oid = x.indexrelid join pg_class t on t.oid = x.indrelid " +
+			"join pg_namespace s on s.oid = t.relnamespace " +
+			"where s.nspname = current_schema() and x.indexprs is null and x.indpred is null and not t.relispartition",
+			rs -> indexes.add(new Index(rs.getString(2), rs.getString(1), Arrays.asList(rs.getString(4).split(",")),
+				rs.getBoolean(3))));
+		return indexes;
+	}
+
+	private void writeScript(Path out, List<Index> keep, List<Index> added, List<String> dropped,
+			Timing[] before, Timing[] after) throws IOException {
+		//executions of one template are summed, so it gets one line
+		Map<String, double[]> templates = new LinkedHashMap<String, double[]>();
+		for (int i = 0; i < before.length; ++i) {
+			if (Double.isNaN(before[i].ms) || Double.isNaN(after[i].ms)) {
+				continue;
+			}
+			double[] t = templates.computeIfAbsent(this._workload.get(i).sql, k -> new double[2]);
+			t[0] += before[i].ms;
+			t[1] += after[i].ms;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("-- Generated by IndexAdvisor from ").append(this._workload.size()).append(" recorded executions of ")
+			.append(templates.size()).append(" statements.\n");
+		sb.append("-- Times are the median EXPLAIN ANALYZE execution time of ").append(this._runs)
+			.append(" runs, summed per statement,\n-- with the previous index set and with this one.\n--\n");
+		for (Map.Entry<String, double[]> e : templates.entrySet()) {
+			double[] t = e.getValue();
+			String sql = e.getKey().length() > 100 ? e.getKey().substring(0, 97) + "..." : e.getKey();
+			sb.append(String.format(Locale.ROOT, "-- %7.2fx %10.3f ms -> %10.3f ms  %s\n", t[0] / Math.max(t[1], 0.001),
+				t[0], t[1], sql));
+		}
+		if (!dropped.isEmpty()) {
+			sb.append("--\n-- dropped, the primary key serves them: ").append(String.join(", ", dropped)).append('\n');
+		}
+		sb.append('\n');
+		for (Index ix : keep) {
+			sb.append(ix.ddl()).append("\n\n");
+		}
+		for (Index ix : added) {
+			sb.append(ix.ddl()).append("\n\n");
+		}
+		Files.write(out, sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: java [-classpath <classpath>] IndexAdvisor <dbname> <port> <user> <workload.jsonl> " +
+				"[--indexes file] [--out file] [--runs n] [--min-gain x]");
+			return;
+		}
+		Path indexScript = Paths.get("../sql/create_indexes.sql");
+		Path out = Paths.get("create_indexes.advised.sql");
+		int runs = 5;
+		double minGain = 1.2;
+		for (int i = 4; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--indexes": indexScript = Paths.get(args[++i]); break;
+				case "--out": out = Paths.get(args[++i]); break;
+				case "--runs": runs = Integer.parseInt(args[++i]); break;
+				case "--min-gain": minGain = Double.parseDouble(args[++i]); break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					return;
+			}
+		}
+
+		//keep the connection banner out of the report
+		PrintStream report = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			new IndexAdvisor(esql, WorkloadRecorder.load(Paths.get(args[3])), runs, minGain).run(indexScript, out, report);
+		} finally {
+			esql.cleanup();
+		}
+	}
+}
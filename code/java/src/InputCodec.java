@@ -0,0 +1,173 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.time.LocalDate;
+
+/**
+ * This class parses the typed fields of an appointment straight from the
+ * characters of the input into primitive encodings, without building
+ * substrings or boxing:
+ *   - a YYYY-MM-DD date into its epoch day (days since 1970-01-01),
+ *   - a time slot into a packed minute range (see TimeSlot),
+ *   - an appointment status into a status code.
+ * Every validator and every bound SQL parameter goes through it, so input is
+ * checked once and the same rules apply in the menu, batch and HTTP modes.
+ *
+ */
+
+public class InputCodec{
+	//returned by parseDate for anything that is not a date
+	public static final int NO_DATE = Integer.MIN_VALUE;
+
+	//status codes, 0 is not a status
+	public static final byte NO_STATUS = 0;
+	public static final byte PA = 1;
+	public static final byte AC = 2;
+	public static final byte AV = 3;
+	public static final byte WL = 4;
+	private static final String[] STATUS_NAMES = { null, "PA", "AC", "AV", "WL" };
+
+	/**
+	 * Method to parse a date in the YYYY-MM-DD form. Leap days are accepted
+	 * in leap years only.
+	 *
+	 * @param s the date text, may be null
+	 * @return the epoch day, or NO_DATE
+	 */
+	public static int parseDate(CharSequence s) {
+		if (s == null || s.length() != 10 || s.charAt(4) != '-' || s.charAt(7) != '-') {
+			return NO_DATE;
+		}
+		int year = digits(s, 0, 4);
+		int month = digits(s, 5, 7);
+		int day = digits(s, 8, 10);
+		if (year < 1 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+			return NO_DATE;
+		}
+		return epochDay(year, month, day);
+	}
+
+	/**
+	 * @return the number of days in the month, February depending on the year
+	 */
+	public static int daysInMonth(int year, int month) {
+		switch (month) {
+			case 2:
+				return isLeapYear(year) ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+
+	public static boolean isLeapYear(int year) {
+		return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+	}
+
+	/**
+	 * Method to count the days from 1970-01-01 to a date of the proleptic
+	 * Gregorian calendar, the same count as LocalDate.toEpochDay().
+	 */
+	public static int epochDay(int year, int month, int day) {
+		//shift the year to start in March so the leap day is the last day of the year
+		int y = month <= 2 ? year - 1 : year;
+		int era = Math.floorDiv(y, 400);
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * Method to turn an epoch day into the value bound to a DATE parameter.
+	 *
+	 * @param epochDay a day returned by parseDate
+	 * @return the date for PreparedStatement.setObject
+	 */
+	public static java.sql.Date sqlDate(int epochDay) {
+		return java.sql.Date.valueOf(LocalDate.ofEpochDay(epochDay));
+	}
+
+	/**
+	 * Method to parse and bind a date in one step, for input already checked
+	 * with parseDate.
+	 *
+	 * @throws IllegalArgumentException when the text is not a date
+	 */
+	public static java.sql.Date sqlDate(CharSequence s) {
+		int day = parseDate(s);
+		if (day == NO_DATE) {
+			throw new IllegalArgumentException("Invalid date " + s);
+		}
+		return sqlDate(day);
+	}
+
+	/**
+	 * Method to parse a time slot, see TimeSlot.parse.
+	 *
+	 * @return the packed slot, or TimeSlot.INVALID
+	 */
+	public static int parseSlot(CharSequence s) {
+		return TimeSlot.parse(s);
+	}
+
+	/**
+	 * Method to parse an appointment status. Only the upper case codes are
+	 * accepted, as stored in the Appointment table.
+	 *
+	 * @param s the status text, may be null
+	 * @return the status code, or NO_STATUS
+	 */
+	public static byte parseStatus(CharSequence s) {
+		if (s == null || s.length() != 2) {
+			return NO_STATUS;
+		}
+		char a = s.charAt(0);
+		char b = s.charAt(1);
+		if (a == 'P' && b == 'A') {
+			return PA;
+		} else if (a == 'A' && b == 'C') {
+			return AC;
+		} else if (a == 'A' && b == 'V') {
+			return AV;
+		} else if (a == 'W' && b == 'L') {
+			return WL;
+		}
+		return NO_STATUS;
+	}
+
+	/**
+	 * @param status a status code
+	 * @return its shared name, the value bound to a status parameter
+	 */
+	public static String statusName(byte status) {
+		return STATUS_NAMES[status];
+	}
+
+	//the decimal number in s[from, to), -1 if any character is not a digit
+	private static int digits(CharSequence s, int from, int to) {
+		int n = 0;
+		for (int i = from; i < to; ++i) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			n = n * 10 + (c - '0');
+		}
+		return n;
+	}
+}
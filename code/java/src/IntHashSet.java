@@ -0,0 +1,191 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * This class defines an open addressing hash set of primitive ints. Keys are
+ * stored unboxed in a single array with linear probing, so lookups do not
+ * allocate. The class is not thread safe.
+ *
+ */
+
+public class IntHashSet{
+	//marks an empty slot, the key itself is tracked separately
+	private static final int FREE = Integer.MIN_VALUE;
+
+	private int[] _keys;
+	private int _size = 0;
+	private boolean _hasFreeKey = false;
+	private int _resizeAt;
+
+	public IntHashSet() {
+		this(16);
+	}
+
+	/**
+	 * @param expected the number of keys expected, used to size the table
+	 */
+	public IntHashSet(int expected) {
+		int capacity = 16;
+		while (capacity * 3 / 4 < expected) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * @param key the key to add
+	 * @return true if the key was not present before
+	 */
+	public boolean add(int key) {
+		if (key == FREE) {
+			if (this._hasFreeKey) {
+				return false;
+			}
+			this._hasFreeKey = true;
+			this._size++;
+			return true;
+		}
+		int mask = this._keys.length - 1;
+		int i = mix(key) & mask;
+		while (this._keys[i] != FREE) {
+			if (this._keys[i] == key) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		this._keys[i] = key;
+		if (++this._size > this._resizeAt) {
+			rehash(this._keys.length << 1);
+		}
+		return true;
+	}
+
+	/**
+	 * @param key the key to look up
+	 * @return true if the key is present
+	 */
+	public boolean contains(int key) {
+		if (key == FREE) {
+			return this._hasFreeKey;
+		}
+		int mask = this._keys.length - 1;
+		int i = mix(key) & mask;
+		int k;
+		while ((k = this._keys[i]) != FREE) {
+			if (k == key) {
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * @param key the key to remove
+	 * @return true if the key was present
+	 */
+	public boolean remove(int key) {
+		if (key == FREE) {
+			if (!this._hasFreeKey) {
+				return false;
+			}
+			this._hasFreeKey = false;
+			this._size--;
+			return true;
+		}
+		int mask = this._keys.length - 1;
+		int i = mix(key) & mask;
+		while (this._keys[i] != key) {
+			if (this._keys[i] == FREE) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		// backward shift deletion keeps probe chains intact without tombstones
+		int gap = i;
+		i = (i + 1) & mask;
+		while (this._keys[i] != FREE) {
+			int home = mix(this._keys[i]) & mask;
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				this._keys[gap] = this._keys[i];
+				gap = i;
+			}
+			i = (i + 1) & mask;
+		}
+		this._keys[gap] = FREE;
+		this._size--;
+		return true;
+	}
+
+	/**
+	 * @return the number of keys in the set
+	 */
+	public int size() {
+		return this._size;
+	}
+
+	/**
+	 * Method to remove every key.
+	 */
+	public void clear() {
+		Arrays.fill(this._keys, FREE);
+		this._hasFreeKey = false;
+		this._size = 0;
+	}
+
+	/**
+	 * @return the keys in no particular order
+	 */
+	public int[] toArray() {
+		int[] out = new int[this._size];
+		int n = 0;
+		if (this._hasFreeKey) {
+			out[n++] = FREE;
+		}
+		for (int k : this._keys) {
+			if (k != FREE) {
+				out[n++] = k;
+			}
+		}
+		return out;
+	}
+
+	private void allocate(int capacity) {
+		this._keys = new int[capacity];
+		Arrays.fill(this._keys, FREE);
+		this._resizeAt = capacity * 3 / 4;
+	}
+
+	private void rehash(int capacity) {
+		int[] old = this._keys;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int k : old) {
+			if (k != FREE) {
+				int i = mix(k) & mask;
+				while (this._keys[i] != FREE) {
+					i = (i + 1) & mask;
+				}
+				this._keys[i] = k;
+			}
+		}
+	}
+
+	//spreads sequential ids over the table
+	static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * This class defines an open addressing hash map from primitive int keys to
+ * int values, laid out like IntHashSet: keys and values in two parallel
+ * arrays with linear probing, so lookups do not allocate. The class is not
+ * thread safe.
+ *
+ */
+
+public class IntIntHashMap{
+	//marks an empty slot, the key itself is tracked separately
+	private static final int FREE = Integer.MIN_VALUE;
+
+	private int[] _keys;
+	private int[] _values;
+	private int _size = 0;
+	private boolean _hasFreeKey = false;
+	private int _freeValue;
+	private int _resizeAt;
+
+	public IntIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expected the number of keys expected, used to size the table
+	 */
+	public IntIntHashMap(int expected) {
+		int capacity = 16;
+		while (capacity * 3 / 4 < expected) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * @param key the key to set
+	 * @param value the value to map it to, replacing any earlier value
+	 */
+	public void put(int key, int value) {
+		if (key == FREE) {
+			if (!this._hasFreeKey) {
+				this._hasFreeKey = true;
+				this._size++;
+			}
+			this._freeValue = value;
+			return;
+		}
+		int mask = this._keys.length - 1;
+		int i = IntHashSet.mix(key) & mask;
+		while (this._keys[i] != FREE) {
+			if (this._keys[i] == key) {
+				this._values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		this._keys[i] = key;
+		this._values[i] = value;
+		if (++this._size > this._resizeAt) {
+			rehash(this._keys.length << 1);
+		}
+	}
+
+	/**
+	 * @param key the key to look up
+	 * @param missing the value returned when the key is not present
+	 * @return the value mapped to the key, or missing
+	 */
+	public int get(int key, int missing) {
+		if (key == FREE) {
+			return this._hasFreeKey ? this._freeValue : missing;
+		}
+		int mask = this._keys.length - 1;
+		int i = IntHashSet.mix(key) & mask;
+		int k;
+		while ((k = this._keys[i]) != FREE) {
+			if (k == key) {
+				return this._values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return missing;
+	}
+
+	/**
+	 * @return the number of keys in the map
+	 */
+	public int size() {
+		return this._size;
+	}
+
+	private void allocate(int capacity) {
+		this._keys = new int[capacity];
+		this._values = new int[capacity];
+		Arrays.fill(this._keys, FREE);
+		this._resizeAt = capacity * 3 / 4;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = this._keys;
+		int[] oldValues = this._values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; ++j) {
+			if (oldKeys[j] != FREE) {
+				int i = IntHashSet.mix(oldKeys[j]) & mask;
+				while (this._keys[i] != FREE) {
+					i = (i + 1) & mask;
+				}
+				this._keys[i] = oldKeys[j];
+				this._values[i] = oldValues[j];
+			}
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reads and writes the small JSON documents used by the batch and
+ * HTTP front ends. Objects become LinkedHashMaps (keys keep their order),
+ * arrays become Lists, numbers become Long or Double.
+ *
+ */
+
+public class Json{
+	private final String _text;
+	private int _pos = 0;
+
+	private Json(String text) {
+		this._text = text;
+	}
+
+	/**
+	 * Method to parse a JSON document.
+	 *
+	 * @param text the document
+	 * @return the parsed value
+	 * @throws java.lang.IllegalArgumentException when the text is not valid JSON
+	 */
+	public static Object parse(String text) {
+		Json p = new Json(text);
+		Object value = p.value();
+		p.skipWhitespace();
+		if (p._pos != text.length()) {
+			throw p.error("trailing characters");
+		}
+		return value;
+	}
+
+	/**
+	 * Method to parse a JSON object.
+	 *
+	 * @param text the document
+	 * @return the parsed object
+	 * @throws java.lang.IllegalArgumentException when the text is not a JSON object
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parseObject(String text) {
+		Object value = parse(text);
+		if (!(value instanceof Map)) {
+			throw new IllegalArgumentException("Expected a JSON object");
+		}
+		return (Map<String, Object>) value;
+	}
+
+	/**
+	 * Method to write a value as JSON. Maps, iterables, strings, numbers,
+	 * booleans and null are supported, anything else is written as a string.
+	 *
+	 * @param value the value to write
+	 * @return the JSON text
+	 */
+	public static String write(Object value) {
+		StringBuilder out = new StringBuilder();
+		write(out, value);
+		return out.toString();
+	}
+
+	/**
+	 * Method to append a value as JSON.
+	 */
+	public static void write(StringBuilder out, Object value) {
+		if (value == null) {
+			out.append("null");
+		} else if (value instanceof Map) {
+			out.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				writeString(out, String.valueOf(e.getKey()));
+				out.append(':');
+				write(out, e.getValue());
+			}
+			out.append('}');
+		} else if (value instanceof Iterable) {
+			out.append('[');
+			boolean first = true;
+			for (Object v : (Iterable<?>) value) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				write(out, v);
+			}
+			out.append(']');
+		} else if (value instanceof Number || value instanceof Boolean) {
+			out.append(value.toString());
+		} else {
+			writeString(out, value.toString());
+		}
+	}
+
+	private static void writeString(StringBuilder out, String s) {
+		out.append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						out.append(String.format("\\u%04x", (int) c));
+					} else {
+						out.append(c);
+					}
+			}
+		}
+		out.append('"');
+	}
+
+	private Object value() {
+		skipWhitespace();
+		if (this._pos >= this._text.length()) {
+			throw error("unexpected end of input");
+		}
+		char c = this._text.charAt(this._pos);
+		switch (c) {
+			case '{': return object();
+			case '[': return array();
+			case '"': return string();
+			case 't': return literal("true", Boolean.TRUE);
+			case 'f': return literal("false", Boolean.FALSE);
+			case 'n': return literal("null", null);
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					return number();
+				}
+				throw error("unexpected character '" + c + "'");
+		}
+	}
+
+	private Map<String, Object> object() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		++this._pos;
+		skipWhitespace();
+		if (peek() == '}') {
+			++this._pos;
+			return map;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') {
+				throw error("expected a key");
+			}
+			String key = string();
+			skipWhitespace();
+			expect(':');
+			map.put(key, value());
+			skipWhitespace();
+			char c = next();
+			if (c == '}') {
+				return map;
+			} else if (c != ',') {
+				throw error("expected ',' or '}'");
+			}
+		}
+	}
+
+	private List<Object> array() {
+		List<Object> list = new ArrayList<Object>();
+		++this._pos;
+		skipWhitespace();
+		if (peek() == ']') {
+			++this._pos;
+			return list;
+		}
+		while (true) {
+			list.add(value());
+			skipWhitespace();
+			char c = next();
+			if (c == ']') {
+				return list;
+			} else if (c != ',') {
+				throw error("expected ',' or ']'");
+			}
+		}
+	}
+
+	private String string() {
+		++this._pos;
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			char c = next();
+			if (c == '"') {
+				return sb.toString();
+			} else if (c == '\\') {
+				char e = next();
+				switch (e) {
+					case '"': case '\\': case '/': sb.append(e); break;
+					case 'b': sb.append('\b'); break;
+					case 'f': sb.append('\f'); break;
+					case 'n': sb.append('\n'); break;
+					case 'r': sb.append('\r'); break;
+					case 't': sb.append('\t'); break;
+					case 'u':
+						if (this._pos + 4 > this._text.length()) {
+							throw error("bad unicode escape");
+						}
+						try {
+							sb.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+						} catch (NumberFormatException ex) {
+							throw error("bad unicode escape");
+						}
+						this._pos += 4;
+						break;
+					default:
+						throw error("bad escape '\\" + e + "'");
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+	}
+
+	private Object number() {
+		int start = this._pos;
+		boolean integral = true;
+		while (this._pos < this._text.length()) {
+			char c = this._text.charAt(this._pos);
+			if (c == '.' || c == 'e' || c == 'E') {
+				integral = false;
+			} else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+				break;
+			}
+			++this._pos;
+		}
+		String s = this._text.substring(start, this._pos);
+		try {
+			return integral ? (Object) Long.valueOf(s) : (Object) Double.valueOf(s);
+		} catch (NumberFormatException e) {
+			throw error("bad number '" + s + "'");
+		}
+	}
+
+	private Object literal(String word, Object value) {
+		if (!this._text.startsWith(word, this._pos)) {
+			throw error("unexpected token");
+		}
+		this._pos += word.length();
+		return value;
+	}
+
+	private void skipWhitespace() {
+		while (this._pos < this._text.length() && Character.isWhitespace(this._text.charAt(this._pos))) {
+			++this._pos;
+		}
+	}
+
+	private char peek() {
+		return this._pos < this._text.length() ? this._text.charAt(this._pos) : '\0';
+	}
+
+	private char next() {
+		if (this._pos >= this._text.length()) {
+			throw error("unexpected end of input");
+		}
+		return this._text.charAt(this._pos++);
+	}
+
+	private void expect(char c) {
+		if (next() != c) {
+			throw error("expected '" + c + "'");
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException("Invalid JSON at " + this._pos + ": " + message);
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in a fixed set of log-linear buckets: every
+ * power of two of microseconds is split into 16 linear sub-buckets, so a
+ * reported percentile is within about 6% of the true value whatever the
+ * range. Recording is lock free and allocation free, so it can sit on every
+ * request path.
+ *
+ */
+
+public class LatencyHistogram{
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _errors = new AtomicLong();
+	private final AtomicLong _totalMicros = new AtomicLong();
+	private final AtomicLong _maxMicros = new AtomicLong();
+
+	/**
+	 * Method to record one observation.
+	 *
+	 * @param nanos the latency in nanoseconds
+	 * @param failed true if the operation failed
+	 */
+	public void record(long nanos, boolean failed) {
+		long micros = Math.max(0, nanos / 1000);
+		this._buckets.incrementAndGet(bucket(micros));
+		this._count.incrementAndGet();
+		this._totalMicros.addAndGet(micros);
+		if (failed) {
+			this._errors.incrementAndGet();
+		}
+		long max;
+		while (micros > (max = this._maxMicros.get()) && !this._maxMicros.compareAndSet(max, micros)) {
+			// retry, another thread raised the max first
+		}
+	}
+
+	/**
+	 * @return the number of observations recorded
+	 */
+	public long getCount() {
+		return this._count.get();
+	}
+
+	/**
+	 * @return the number of observations recorded as failed
+	 */
+	public long getErrors() {
+		return this._errors.get();
+	}
+
+	/**
+	 * @return the mean latency in microseconds
+	 */
+	public double getMeanMicros() {
+		long n = this._count.get();
+		return n == 0 ? 0 : (double) this._totalMicros.get() / n;
+	}
+
+	/**
+	 * @return the largest latency recorded, in microseconds
+	 */
+	public long getMaxMicros() {
+		return this._maxMicros.get();
+	}
+
+	/**
+	 * Method to estimate a percentile of the recorded latencies.
+	 *
+	 * @param q the quantile, between 0 and 1
+	 * @return the upper bound of the bucket holding that quantile, in microseconds
+	 */
+	public long getPercentileMicros(double q) {
+		long n = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts[i] = this._buckets.get(i);
+			n += counts[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(Math.min(1.0, Math.max(0.0, q)) * n);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += counts[i];
+			if (seen >= Math.max(1, rank)) {
+				return Math.min(upperBound(i), getMaxMicros());
+			}
+		}
+		return getMaxMicros();
+	}
+
+	/**
+	 * Method to summarize the histogram for reporting, with times in
+	 * milliseconds.
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("count", getCount());
+		m.put("errors", getErrors());
+		m.put("mean_ms", round(getMeanMicros() / 1000.0));
+		m.put("p50_ms", round(getPercentileMicros(0.50) / 1000.0));
+		m.put("p90_ms", round(getPercentileMicros(0.90) / 1000.0));
+		m.put("p99_ms", round(getPercentileMicros(0.99) / 1000.0));
+		m.put("p999_ms", round(getPercentileMicros(0.999) / 1000.0));
+		m.put("max_ms", round(getMaxMicros() / 1000.0));
+		return m;
+	}
+
+	static int bucket(long micros) {
+		if (micros < SUB_COUNT) {
+			return (int) micros;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(micros);
+		int shift = msb - SUB_BITS;
+		int sub = (int) (micros >>> shift) & (SUB_COUNT - 1);
+		return (shift + 1) * SUB_COUNT + sub;
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < SUB_COUNT) {
+			return bucket;
+		}
+		int shift = bucket / SUB_COUNT - 1;
+		long sub = bucket % SUB_COUNT;
+		return ((SUB_COUNT + sub + 1) << shift) - 1;
+	}
+
+	private static double round(double ms) {
+		return Math.round(ms * 1000.0) / 1000.0;
+	}
+}
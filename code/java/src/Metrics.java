@@ -0,0 +1,572 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * This class collects what the database work of this process costs:
+ *   - per query helper of DBproject (executeUpdate, executeQuery, ...) and
+ *     per menu operation, a latency histogram and the round trips, rows
+ *     fetched and bytes read and written,
+ *   - the totals over all connections, including pool validation and the
+ *     loaders,
+ *   - the connection pool and query cache statistics.
+ *
+ * Round trips and bytes are counted on the sockets of the connections, see
+ * CountingSocketFactory, and charged to the helper and the operation running
+ * on the thread that did the I/O. A helper called from inside another helper
+ * is charged to the outer one only.
+ *
+ * Everything is published as MBeans of the platform MBean server under the
+ * cs166 domain (cs166:type=Operation,name=AddDoctor, cs166:type=Query,
+ * name=executeUpdate, cs166:type=ConnectionPool, cs166:type=QueryCache,
+ * cs166:type=Database) and rendered as a text snapshot in the Prometheus
+ * exposition format by snapshot(), which HttpService serves on /metrics/text
+ * and startReporter() writes to a file periodically.
+ *
+ * The latency of a menu operation includes the time spent at its prompts;
+ * in batch and serve modes it is the time of the operation alone.
+ *
+ */
+
+public class Metrics{
+	/**
+	 * The statistics of one query helper or operation, as seen over JMX.
+	 */
+	public interface StatsMBean{
+		long getCount();
+		long getErrors();
+		double getMeanMillis();
+		double getP50Millis();
+		double getP90Millis();
+		double getP99Millis();
+		double getP999Millis();
+		double getMaxMillis();
+		long getRoundTrips();
+		double getRoundTripsPerCall();
+		long getRows();
+		long getBytesRead();
+		long getBytesWritten();
+	}
+
+	/**
+	 * The connection pool, as seen over JMX.
+	 */
+	public interface PoolMBean{
+		int getActiveConnections();
+		int getTotalConnections();
+		int getMaxSize();
+		long getStatementCacheHits();
+		long getStatementCacheMisses();
+	}
+
+	/**
+	 * The query cache, as seen over JMX.
+	 */
+	public interface CacheMBean{
+		int getEntries();
+		long getHits();
+		long getMisses();
+		double getHitRate();
+	}
+
+	/**
+	 * The totals over all connections, as seen over JMX.
+	 */
+	public interface DatabaseMBean{
+		long getRoundTrips();
+		long getBytesRead();
+		long getBytesWritten();
+	}
+
+	/**
+	 * The statistics of one query helper or operation.
+	 */
+	public static class Stats implements StatsMBean{
+		private final LatencyHistogram _latency = new LatencyHistogram();
+		private final AtomicLong _roundTrips = new AtomicLong();
+		private final AtomicLong _rows = new AtomicLong();
+		private final AtomicLong _bytesRead = new AtomicLong();
+		private final AtomicLong _bytesWritten = new AtomicLong();
+
+		void record(long nanos, boolean failed, long roundTrips, long rows, long bytesRead, long bytesWritten) {
+			this._latency.record(nanos, failed);
+			this._roundTrips.addAndGet(roundTrips);
+			this._rows.addAndGet(rows);
+			this._bytesRead.addAndGet(bytesRead);
+			this._bytesWritten.addAndGet(bytesWritten);
+		}
+
+		public LatencyHistogram getLatency() {
+			return this._latency;
+		}
+
+		public long getCount() {
+			return this._latency.getCount();
+		}
+
+		public long getErrors() {
+			return this._latency.getErrors();
+		}
+
+		public double getMeanMillis() {
+			return this._latency.getMeanMicros() / 1000.0;
+		}
+
+		public double getP50Millis() {
+			return this._latency.getPercentileMicros(0.50) / 1000.0;
+		}
+
+		public double getP90Millis() {
+			return this._latency.getPercentileMicros(0.90) / 1000.0;
+		}
+
+		public double getP99Millis() {
+			return this._latency.getPercentileMicros(0.99) / 1000.0;
+		}
+
+		public double getP999Millis() {
+			return this._latency.getPercentileMicros(0.999) / 1000.0;
+		}
+
+		public double getMaxMillis() {
+			return this._latency.getMaxMicros() / 1000.0;
+		}
+
+		public long getRoundTrips() {
+			return this._roundTrips.get();
+		}
+
+		public double getRoundTripsPerCall() {
+			long n = getCount();
+			return n == 0 ? 0 : (double) getRoundTrips() / n;
+		}
+
+		public long getRows() {
+			return this._rows.get();
+		}
+
+		public long getBytesRead() {
+			return this._bytesRead.get();
+		}
+
+		public long getBytesWritten() {
+			return this._bytesWritten.get();
+		}
+	}
+
+	/**
+	 * Work timed as a query helper or an operation.
+	 */
+	public interface Timed<T>{
+		T run() throws SQLException;
+	}
+
+	//what the current thread has done so far, the timers charge the difference
+	private static class Counters{
+		long roundTrips;
+		long rows;
+		long bytesRead;
+		long bytesWritten;
+		boolean inQuery;
+	}
+
+	private static final ThreadLocal<Counters> COUNTERS = ThreadLocal.withInitial(Counters::new);
+	private static final AtomicLong ROUND_TRIPS = new AtomicLong();
+	private static final AtomicLong BYTES_READ = new AtomicLong();
+	private static final AtomicLong BYTES_WRITTEN = new AtomicLong();
+	//sorted so the snapshot lists them in a stable order
+	private static final Map<String, Stats> QUERIES = new ConcurrentSkipListMap<String, Stats>();
+	private static final Map<String, Stats> OPERATIONS = new ConcurrentSkipListMap<String, Stats>();
+	private static volatile ConnectionPool pool = null;
+	private static volatile QueryCache cache = null;
+	private static ScheduledExecutorService reporter = null;
+	private static volatile SlowQueryLog slowLog = null;
+	private static volatile WorkloadRecorder recorder = null;
+
+	static {
+		register("cs166:type=Database", new DatabaseMBean() {
+			public long getRoundTrips() {
+				return ROUND_TRIPS.get();
+			}
+
+			public long getBytesRead() {
+				return BYTES_READ.get();
+			}
+
+			public long getBytesWritten() {
+				return BYTES_WRITTEN.get();
+			}
+		}, DatabaseMBean.class);
+	}
+
+	/**
+	 * Method to time a call of a query helper.
+	 *
+	 * @param helper the name of the helper
+	 * @param work the body of the helper
+	 * @return whatever the work returns
+	 * @throws java.sql.SQLException when the work failed
+	 */
+	public static <T> T query(String helper, Timed<T> work) throws SQLException {
+		return query(helper, null, null, work);
+	}
+
+	/**
+	 * Method to time a call of a query helper running one statement, which
+	 * is handed to the slow query log and the workload recorder once it
+	 * finished.
+	 *
+	 * @param helper the name of the helper
+	 * @param sql the statement
+	 * @param params the parameter values, in placeholder order
+	 * @param work the body of the helper
+	 * @return whatever the work returns
+	 * @throws java.sql.SQLException when the work failed
+	 */
+	public static <T> T query(String helper, String sql, Object[] params, Timed<T> work) throws SQLException {
+		Counters c = COUNTERS.get();
+		if (c.inQuery) {
+			return work.run();
+		}
+		c.inQuery = true;
+		long t0 = System.nanoTime();
+		try {
+			return time(stats(QUERIES, "Query", helper), c, work);
+		} finally {
+			c.inQuery = false;
+			SlowQueryLog log = slowLog;
+			if (log != null && sql != null) {
+				log.offer(helper, sql, params, System.nanoTime() - t0);
+			}
+			WorkloadRecorder r = recorder;
+			if (r != null && sql != null) {
+				r.record(sql, params);
+			}
+		}
+	}
+
+	/**
+	 * Method to set where slow statements go, null to stop logging them.
+	 */
+	public static void setSlowQueryLog(SlowQueryLog log) {
+		slowLog = log;
+	}
+
+	/**
+	 * Method to set where the statements run are recorded, null to stop
+	 * recording them.
+	 */
+	public static void setWorkloadRecorder(WorkloadRecorder r) {
+		recorder = r;
+	}
+
+	/**
+	 * Method to time one run of an operation.
+	 *
+	 * @param op the operation name, one of Operations.ALL
+	 * @param work the operation
+	 * @return whatever the work returns
+	 * @throws java.sql.SQLException when the work failed
+	 */
+	public static <T> T operation(String op, Timed<T> work) throws SQLException {
+		return time(stats(OPERATIONS, "Operation", op), COUNTERS.get(), work);
+	}
+
+	/**
+	 * Method to time one run of a menu operation, which handles its own
+	 * errors.
+	 *
+	 * @param op the operation name, one of Operations.ALL
+	 * @param work the operation
+	 */
+	public static void operation(String op, Runnable work) {
+		try {
+			operation(op, () -> {
+				work.run();
+				return null;
+			});
+		} catch (SQLException e) {
+			//not thrown by a Runnable
+			System.err.println(e.getMessage());
+		}
+	}
+
+	private static <T> T time(Stats stats, Counters c, Timed<T> work) throws SQLException {
+		long roundTrips = c.roundTrips;
+		long rows = c.rows;
+		long bytesRead = c.bytesRead;
+		long bytesWritten = c.bytesWritten;
+		boolean failed = true;
+		long t0 = System.nanoTime();
+		try {
+			T result = work.run();
+			failed = false;
+			return result;
+		} finally {
+			stats.record(System.nanoTime() - t0, failed, c.roundTrips - roundTrips, c.rows - rows,
+				c.bytesRead - bytesRead, c.bytesWritten - bytesWritten);
+		}
+	}
+
+	/**
+	 * Method to count rows fetched by the current thread.
+	 */
+	public static void rows(long n) {
+		COUNTERS.get().rows += n;
+	}
+
+	static void bytesRead(long n) {
+		BYTES_READ.addAndGet(n);
+		COUNTERS.get().bytesRead += n;
+	}
+
+	static void bytesWritten(long n) {
+		BYTES_WRITTEN.addAndGet(n);
+		COUNTERS.get().bytesWritten += n;
+	}
+
+	static void roundTrip() {
+		ROUND_TRIPS.incrementAndGet();
+		COUNTERS.get().roundTrips++;
+	}
+
+	private static Stats stats(Map<String, Stats> map, String type, String name) {
+		Stats s = map.get(name);
+		if (s == null) {
+			s = new Stats();
+			Stats prev = map.putIfAbsent(name, s);
+			if (prev != null) {
+				return prev;
+			}
+			register("cs166:type=" + type + ",name=" + ObjectName.quote(name), s, StatsMBean.class);
+		}
+		return s;
+	}
+
+	/**
+	 * @return the statistics of an operation, null before its first run
+	 */
+	public static Stats getOperation(String op) {
+		return OPERATIONS.get(op);
+	}
+
+	/**
+	 * @return the statistics of a query helper, null before its first call
+	 */
+	public static Stats getQuery(String helper) {
+		return QUERIES.get(helper);
+	}
+
+	public static long getRoundTrips() {
+		return ROUND_TRIPS.get();
+	}
+
+	public static long getBytesRead() {
+		return BYTES_READ.get();
+	}
+
+	public static long getBytesWritten() {
+		return BYTES_WRITTEN.get();
+	}
+
+	/**
+	 * Method to publish the pool and the query cache of a database. A later
+	 * call replaces them.
+	 *
+	 * @param esql the database
+	 */
+	public static void attach(DBproject esql) {
+		final ConnectionPool p = esql.getPool();
+		final QueryCache q = esql.getQueryCache();
+		pool = p;
+		cache = q;
+		register("cs166:type=ConnectionPool", new PoolMBean() {
+			public int getActiveConnections() {
+				return p.getActiveConnections();
+			}
+
+			public int getTotalConnections() {
+				return p.getTotalConnections();
+			}
+
+			public int getMaxSize() {
+				return p.getMaxSize();
+			}
+
+			public long getStatementCacheHits() {
+				return p.getStatementCacheHits();
+			}
+
+			public long getStatementCacheMisses() {
+				return p.getStatementCacheMisses();
+			}
+		}, PoolMBean.class);
+		register("cs166:type=QueryCache", new CacheMBean() {
+			public int getEntries() {
+				return q.size();
+			}
+
+			public long getHits() {
+				return q.getHits();
+			}
+
+			public long getMisses() {
+				return q.getMisses();
+			}
+
+			public double getHitRate() {
+				return q.getHitRate();
+			}
+		}, CacheMBean.class);
+	}
+
+	//replaces an MBean of the same name, JMX problems never stop the program
+	private static synchronized <T> void register(String name, T mbean, Class<T> type) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName(name);
+			if (server.isRegistered(on)) {
+				server.unregisterMBean(on);
+			}
+			server.registerMBean(new StandardMBean(mbean, type, false), on);
+		} catch (JMException | SecurityException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to render every statistic in the Prometheus text exposition
+	 * format, times in milliseconds.
+	 *
+	 * @return the snapshot
+	 */
+	public static String snapshot() {
+		StringBuilder sb = new StringBuilder(4096);
+		stats(sb, "cs166_operation", "op", OPERATIONS);
+		stats(sb, "cs166_query", "helper", QUERIES);
+		counter(sb, "cs166_db_round_trips_total", ROUND_TRIPS.get());
+		counter(sb, "cs166_db_bytes_read_total", BYTES_READ.get());
+		counter(sb, "cs166_db_bytes_written_total", BYTES_WRITTEN.get());
+		ConnectionPool p = pool;
+		if (p != null) {
+			gauge(sb, "cs166_pool_active_connections", p.getActiveConnections());
+			gauge(sb, "cs166_pool_total_connections", p.getTotalConnections());
+			gauge(sb, "cs166_pool_max_size", p.getMaxSize());
+			counter(sb, "cs166_pool_statement_cache_hits_total", p.getStatementCacheHits());
+			counter(sb, "cs166_pool_statement_cache_misses_total", p.getStatementCacheMisses());
+		}
+		QueryCache q = cache;
+		if (q != null) {
+			gauge(sb, "cs166_query_cache_entries", q.size());
+			counter(sb, "cs166_query_cache_hits_total", q.getHits());
+			counter(sb, "cs166_query_cache_misses_total", q.getMisses());
+		}
+		return sb.toString();
+	}
+
+	private static void stats(StringBuilder sb, String prefix, String label, Map<String, Stats> map) {
+		if (map.isEmpty()) {
+			return;
+		}
+		sb.append("# TYPE ").append(prefix).append("_latency_ms summary\n");
+		for (Map.Entry<String, Stats> e : map.entrySet()) {
+			Stats s = e.getValue();
+			String l = label + "=\"" + e.getKey() + "\"";
+			LatencyHistogram h = s.getLatency();
+			for (double q : new double[]{ 0.5, 0.9, 0.99, 0.999 }) {
+				sb.append(prefix).append("_latency_ms{").append(l).append(",quantile=\"").append(q).append("\"} ")
+					.append(h.getPercentileMicros(q) / 1000.0).append('\n');
+			}
+			sb.append(prefix).append("_latency_ms_sum{").append(l).append("} ")
+				.append(h.getMeanMicros() * h.getCount() / 1000.0).append('\n');
+			sb.append(prefix).append("_latency_ms_count{").append(l).append("} ").append(h.getCount()).append('\n');
+		}
+		series(sb, prefix + "_errors_total", label, map, Stats::getErrors);
+		series(sb, prefix + "_round_trips_total", label, map, Stats::getRoundTrips);
+		series(sb, prefix + "_rows_total", label, map, Stats::getRows);
+		series(sb, prefix + "_bytes_read_total", label, map, Stats::getBytesRead);
+		series(sb, prefix + "_bytes_written_total", label, map, Stats::getBytesWritten);
+	}
+
+	private static void series(StringBuilder sb, String name, String label, Map<String, Stats> map, ToLongFunction<Stats> value) {
+		sb.append("# TYPE ").append(name).append(" counter\n");
+		for (Map.Entry<String, Stats> e : map.entrySet()) {
+			sb.append(name).append('{').append(label).append("=\"").append(e.getKey()).append("\"} ")
+				.append(value.applyAsLong(e.getValue())).append('\n');
+		}
+	}
+
+	private static void counter(StringBuilder sb, String name, long value) {
+		sb.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void gauge(StringBuilder sb, String name, long value) {
+		sb.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Method to write the snapshot to a file every interval, replacing the
+	 * file in one step so a scraper never reads half of it. Only the first
+	 * call starts a reporter.
+	 *
+	 * @param file where the snapshot goes
+	 * @param intervalMs the time between two snapshots, in milliseconds
+	 */
+	public static synchronized void startReporter(final Path file, long intervalMs) {
+		if (reporter != null) {
+			return;
+		}
+		reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "metrics-reporter");
+			t.setDaemon(true);
+			return t;
+		});
+		reporter.scheduleWithFixedDelay(() -> {
+			try {
+				writeSnapshot(file);
+			} catch (IOException e) {
+				System.err.println("Could not write metrics: " + e.getMessage());
+			}
+		}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to write the snapshot to a file once, replacing it in one step.
+	 *
+	 * @param file where the snapshot goes
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public static void writeSnapshot(Path file) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(tmp, snapshot().getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,438 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class runs the eight menu operations without a console. Each
+ * operation takes its inputs as named parameters, applies the same checks as
+ * the interactive menu and returns a result map that can be written out as
+ * JSON: {"ok": true, ...} on success, {"ok": false, "error": "..."} when the
+ * input was rejected or the database failed.
+ *
+ * Runs of consecutive AddDoctor, AddPatient or AddAppointment records given
+ * to runAll are inserted as one JDBC batch, in one round trip.
+ *
+ */
+
+public class Operations{
+	public static final String ADD_DOCTOR = "AddDoctor";
+	public static final String ADD_PATIENT = "AddPatient";
+	public static final String ADD_APPOINTMENT = "AddAppointment";
+	public static final String MAKE_APPOINTMENT = "MakeAppointment";
+	public static final String LIST_APPOINTMENTS_OF_DOCTOR = "ListAppointmentsOfDoctor";
+	public static final String LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT = "ListAvailableAppointmentsOfDepartment";
+	public static final String LIST_STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR = "ListStatusNumberOfAppointmentsPerDoctor";
+	public static final String FIND_PATIENTS_COUNT_WITH_STATUS = "FindPatientsCountWithStatus";
+
+	public static final List<String> ALL = Arrays.asList(ADD_DOCTOR, ADD_PATIENT, ADD_APPOINTMENT, MAKE_APPOINTMENT,
+		LIST_APPOINTMENTS_OF_DOCTOR, LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT,
+		LIST_STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR, FIND_PATIENTS_COUNT_WITH_STATUS);
+
+	//the duplicate checks are part of the inserts so they can be batched, 0 rows inserted means a duplicate
+	static final String INSERT_DOCTOR = "INSERT INTO Doctor(doctor_ID, name, specialty, did) " +
+		"SELECT ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM Doctor WHERE name = ? AND specialty = ? AND did = ?)";
+	static final String INSERT_PATIENT = "INSERT INTO Patient(patient_ID, name, gtype, age, address, number_of_appts) " +
+		"SELECT ?, ?, ?, ?, ?, 0 WHERE NOT EXISTS (SELECT 1 FROM Patient WHERE name = ? AND gtype = ? AND age = ? AND address = ?)";
+	static final String INSERT_APPOINTMENT = "INSERT INTO Appointment(appnt_ID, adate, time_slot, status) VALUES (?, ?, ?, ?)";
+
+	static final String APPOINTMENTS_OF_DOCTOR = "SELECT appnt_ID FROM appointment LEFT JOIN has_appointment ON appointment.appnt_ID = has_appointment.appt_id WHERE (appointment.adate >= ? AND appointment.adate <= ?) AND (appointment.status = 'AC' OR appointment.status = 'AV') AND (has_appointment.doctor_id = ?)";
+	//doctor_status_count is kept up to date by sql/status_pivot.sql, the report is one pass over its primary key
+	static final String STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR = "select doctor.name, c.pa, c.ac, c.av, c.wl " +
+		"from doctor_status_count c join doctor on doctor.doctor_ID = c.doctor_id " +
+		"where c.pa + c.ac + c.av + c.wl > 0 order by c.doctor_id";
+	//doctor_status_patients is kept up to date by sql/patient_count.sql, one row per doctor for the status
+	static final String PATIENTS_COUNT_WITH_STATUS = "select doctor.name, c.patients as number_of_patients " +
+		"from doctor_status_patients c join doctor on doctor.doctor_ID = c.doctor_id " +
+		"where c.status = ? and c.patients > 0 order by c.doctor_id";
+
+	//the tables each report reads, its cached results are dropped when one of them is written
+	static final String[] APPOINTMENTS_OF_DOCTOR_TABLES = { QueryCache.APPOINTMENT, QueryCache.HAS_APPOINTMENT };
+	//doctor_status_count changes exactly when appointment or has_appointment is written
+	static final String[] STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR_TABLES = { QueryCache.DOCTOR, QueryCache.HAS_APPOINTMENT,
+		QueryCache.APPOINTMENT };
+	//doctor_status_patients changes exactly when one of these is written
+	static final String[] PATIENTS_COUNT_WITH_STATUS_TABLES = { QueryCache.DOCTOR, QueryCache.HAS_APPOINTMENT,
+		QueryCache.APPOINTMENT, QueryCache.SEARCHES };
+
+	/**
+	 * Thrown when an operation's parameters fail validation.
+	 */
+	static class InvalidInput extends Exception{
+		private static final long serialVersionUID = 1L;
+
+		InvalidInput(String message) {
+			super(message);
+		}
+	}
+
+	private final DBproject _esql;
+
+	public Operations(DBproject esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to run one operation.
+	 *
+	 * @param op the operation name, one of ALL
+	 * @param params the named inputs of the operation
+	 * @return the result map, never null
+	 */
+	public Map<String, Object> run(final String op, final Map<String, ?> params) {
+		if (!ALL.contains(op)) {
+			return error("Unknown operation '" + op + "'");
+		}
+		try {
+			return Metrics.operation(op, () -> dispatch(op, params));
+		} catch (SQLException e) {
+			//the input was fine, the database was not
+			Map<String, Object> r = error(e.getMessage());
+			r.put("sqlstate", e.getSQLState());
+			return r;
+		}
+	}
+
+	//runs one operation, rejected input is answered with an error map
+	private Map<String, Object> dispatch(String op, Map<String, ?> params) throws SQLException {
+		try {
+			switch (op) {
+				case ADD_DOCTOR:
+				case ADD_PATIENT:
+				case ADD_APPOINTMENT: return insertAll(op, singletonList(params)).get(0);
+				case MAKE_APPOINTMENT: return makeAppointment(params);
+				case LIST_APPOINTMENTS_OF_DOCTOR: return listAppointmentsOfDoctor(params);
+				case LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT: return listAvailableAppointmentsOfDepartment(params);
+				case LIST_STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR: return listStatusNumberOfAppointmentsPerDoctor();
+				case FIND_PATIENTS_COUNT_WITH_STATUS: return findPatientsCountWithStatus(params);
+				default: return error("Unknown operation '" + op + "'");
+			}
+		} catch (SQLException e) {
+			throw e;
+		} catch (Exception e) {
+			return error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to run a list of operations in order. Consecutive inserts of the
+	 * same kind are sent to the database as one batch.
+	 *
+	 * @param ops the operation name of each record
+	 * @param params the named inputs of each record
+	 * @return one result map per record, in record order
+	 */
+	public List<Map<String, Object>> runAll(List<String> ops, List<? extends Map<String, ?>> params) {
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(ops.size());
+		int i = 0;
+		while (i < ops.size()) {
+			String op = ops.get(i);
+			int end = i + 1;
+			if (isInsert(op)) {
+				while (end < ops.size() && op.equals(ops.get(end))) {
+					++end;
+				}
+			}
+			if (end - i > 1) {
+				try {
+					results.addAll(insertAll(op, params.subList(i, end)));
+				} catch (Exception e) {
+					for (int k = i; k < end; ++k) {
+						results.add(error(e.getMessage()));
+					}
+				}
+			} else {
+				results.add(run(op, params.get(i)));
+			}
+			i = end;
+		}
+		return results;
+	}
+
+	static boolean isInsert(String op) {
+		return ADD_DOCTOR.equals(op) || ADD_PATIENT.equals(op) || ADD_APPOINTMENT.equals(op);
+	}
+
+	//validates every record, then inserts the valid ones in one batch
+	private List<Map<String, Object>> insertAll(String op, List<? extends Map<String, ?>> records) throws SQLException {
+		List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(records.size());
+		List<Object[]> rows = new ArrayList<Object[]>();
+		List<Integer> slots = new ArrayList<Integer>();
+		String sql;
+		String idKey;
+		if (ADD_DOCTOR.equals(op)) {
+			sql = INSERT_DOCTOR;
+			idKey = "doctor_id";
+		} else if (ADD_PATIENT.equals(op)) {
+			sql = INSERT_PATIENT;
+			idKey = "patient_id";
+		} else {
+			sql = INSERT_APPOINTMENT;
+			idKey = "appointment_id";
+		}
+		for (Map<String, ?> p : records) {
+			try {
+				Object[] row;
+				if (ADD_DOCTOR.equals(op)) {
+					row = doctorRow(p);
+				} else if (ADD_PATIENT.equals(op)) {
+					row = patientRow(p);
+				} else {
+					row = appointmentRow(p);
+				}
+				slots.add(results.size());
+				rows.add(row);
+				results.add(null);
+			} catch (InvalidInput e) {
+				results.add(error(e.getMessage()));
+			}
+		}
+
+		int[] counts = this._esql.executeBatch(sql, rows);
+		this._esql.getQueryCache().invalidate(ADD_DOCTOR.equals(op) ? QueryCache.DOCTOR
+			: ADD_PATIENT.equals(op) ? QueryCache.PATIENT : QueryCache.APPOINTMENT);
+		ReferenceIndex index = this._esql.getReferenceIndex();
+		for (int k = 0; k < rows.size(); ++k) {
+			Object[] row = rows.get(k);
+			int id = (Integer) row[0];
+			// SUCCESS_NO_INFO counts as inserted, the driver only reports it for rewritten batches
+			if (counts[k] == 0) {
+				results.set(slots.get(k), error("Duplicate entry"));
+				continue;
+			}
+			if (ADD_DOCTOR.equals(op)) {
+				index.addDoctor(id);
+				this._esql.getAvailabilityIndex().addDoctor(id, (Integer) row[3]);
+			} else if (ADD_PATIENT.equals(op)) {
+				index.addPatientName((String) row[1]);
+			} else {
+				index.addAppointment(id);
+				this._esql.getAvailabilityIndex().addAppointment(id, (Date) row[1], (String) row[2], (String) row[3]);
+			}
+			Map<String, Object> r = ok();
+			r.put(idKey, id);
+			results.set(slots.get(k), r);
+		}
+		return results;
+	}
+
+	private Object[] doctorRow(Map<String, ?> p) throws InvalidInput, SQLException {
+		String name = string(p, "name");
+		String specialty = string(p, "specialty");
+		String did = string(p, "did");
+		if (!DBproject.validString(name)) {
+			throw new InvalidInput("Invalid doctor name");
+		}
+		if (!DBproject.validString(specialty)) {
+			throw new InvalidInput("Invalid specialty");
+		}
+		if (!DBproject.validDepartment(this._esql, did)) {
+			throw new InvalidInput("Unknown department " + did);
+		}
+		int departmentId = Integer.parseInt(did.trim());
+		return new Object[]{ DBproject.newDoctorID(this._esql), name, specialty, departmentId, name, specialty, departmentId };
+	}
+
+	private Object[] patientRow(Map<String, ?> p) throws InvalidInput, SQLException {
+		String name = string(p, "name");
+		if (!DBproject.validString(name)) {
+			throw new InvalidInput("Invalid patient name");
+		}
+		char gender = gender(p);
+		int age = integer(p, "age");
+		if (age < 0 || age > 110) {
+			throw new InvalidInput("Invalid age " + age);
+		}
+		String address = string(p, "address");
+		return new Object[]{ DBproject.newPatientID(this._esql), name, gender, age, address, name, gender, age, address };
+	}
+
+	private Object[] appointmentRow(Map<String, ?> p) throws InvalidInput, SQLException {
+		String date = string(p, "date");
+		String timeslot = string(p, "timeslot");
+		String status = string(p, "status");
+		int day = InputCodec.parseDate(date);
+		if (day == InputCodec.NO_DATE) {
+			throw new InvalidInput("Invalid date " + date);
+		}
+		if (InputCodec.parseSlot(timeslot) == TimeSlot.INVALID) {
+			throw new InvalidInput("Invalid time slot " + timeslot);
+		}
+		byte code = status(status);
+		return new Object[]{ DBproject.newAppointmentID(this._esql), InputCodec.sqlDate(day), timeslot, InputCodec.statusName(code) };
+	}
+
+	private Map<String, Object> makeAppointment(Map<String, ?> p) throws InvalidInput, SQLException {
+		String name = string(p, "name");
+		if (!DBproject.validString(name)) {
+			throw new InvalidInput("Invalid patient name");
+		}
+		char gender = gender(p);
+		int age = integer(p, "age");
+		if (age < 0 || age > 150) {
+			throw new InvalidInput("Invalid age " + age);
+		}
+		String address = string(p, "address");
+		String doctor = string(p, "doctor_id");
+		if (!DBproject.validDoctor(this._esql, doctor)) {
+			throw new InvalidInput("Unknown doctor " + doctor);
+		}
+		String appointment = string(p, "appointment_id");
+		if (!DBproject.validAppointment(this._esql, appointment)) {
+			throw new InvalidInput("Unknown appointment " + appointment);
+		}
+
+		BookingEngine.Result result = this._esql.getBookingEngine().book(name, gender, age, address,
+			Integer.parseInt(doctor.trim()), Integer.parseInt(appointment.trim()));
+		Map<String, Object> r = result.isBooked() ? ok() : error(result.outcome);
+		r.put("outcome", result.outcome);
+		r.put("doctor_id", result.doctorId);
+		r.put("appointment_id", result.appointmentId);
+		if (result.isBooked()) {
+			r.put("patient_id", result.patientId);
+			r.put("patient_created", result.patientCreated);
+			r.put("previous_status", result.previousStatus);
+			r.put("status", result.status);
+			r.put("hospital_id", result.hospitalId);
+		}
+		return r;
+	}
+
+	private Map<String, Object> listAppointmentsOfDoctor(Map<String, ?> p) throws InvalidInput, SQLException {
+		String doctor = string(p, "doctor_id");
+		if (!DBproject.validDoctor(this._esql, doctor)) {
+			throw new InvalidInput("Unknown doctor " + doctor);
+		}
+		String from = string(p, "from");
+		String to = string(p, "to");
+		int fromDay = InputCodec.parseDate(from);
+		int toDay = InputCodec.parseDate(to);
+		if (fromDay == InputCodec.NO_DATE || toDay == InputCodec.NO_DATE) {
+			throw new InvalidInput("Invalid date range " + from + " - " + to);
+		}
+		return rows(new String[]{ "appnt_id" }, this._esql.executeQueryCached(APPOINTMENTS_OF_DOCTOR_TABLES,
+			APPOINTMENTS_OF_DOCTOR, InputCodec.sqlDate(fromDay), InputCodec.sqlDate(toDay), Integer.parseInt(doctor.trim())));
+	}
+
+	private Map<String, Object> listAvailableAppointmentsOfDepartment(Map<String, ?> p) throws InvalidInput, SQLException {
+		String department = string(p, "department");
+		if (!DBproject.validDepartmentName(this._esql, department)) {
+			throw new InvalidInput("Unknown department " + department);
+		}
+		String date = string(p, "date");
+		int day = InputCodec.parseDate(date);
+		if (day == InputCodec.NO_DATE) {
+			throw new InvalidInput("Invalid date " + date);
+		}
+		AvailabilityIndex index = this._esql.getAvailabilityIndex();
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (AvailabilityIndex.Available a : index.lookup(department, day)) {
+			rows.add(Arrays.asList(String.valueOf(a.appointmentId), a.timeSlot));
+		}
+		Map<String, Object> r = ok();
+		r.put("columns", Arrays.asList("appnt_id", "time_slot"));
+		r.put("rows", rows);
+		//listed from memory, see AvailabilityIndex; booking checks the status again
+		r.put("as_of", Instant.ofEpochMilli(index.getSyncedAt()).toString());
+		return r;
+	}
+
+	private Map<String, Object> listStatusNumberOfAppointmentsPerDoctor() throws SQLException {
+		return rows(new String[]{ "name", "PA", "AC", "AV", "WL" },
+			this._esql.executeQueryCached(STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR_TABLES, STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR));
+	}
+
+	private Map<String, Object> findPatientsCountWithStatus(Map<String, ?> p) throws InvalidInput, SQLException {
+		byte code = status(string(p, "status"));
+		return rows(new String[]{ "name", "number_of_patients" },
+			this._esql.executeQueryCached(PATIENTS_COUNT_WITH_STATUS_TABLES, PATIENTS_COUNT_WITH_STATUS, InputCodec.statusName(code)));
+	}
+
+	private static Map<String, Object> rows(String[] columns, ColumnarResult result) {
+		List<List<String>> rows = new ArrayList<List<String>>(result.rowCount());
+		for (int i = 0; i < result.rowCount(); ++i) {
+			List<String> row = new ArrayList<String>(result.columnCount());
+			for (int c = 0; c < result.columnCount(); ++c) {
+				row.add(result.getString(i, c));
+			}
+			rows.add(row);
+		}
+		Map<String, Object> r = ok();
+		r.put("columns", Arrays.asList(columns));
+		r.put("rows", rows);
+		return r;
+	}
+
+	static Map<String, Object> ok() {
+		Map<String, Object> r = new LinkedHashMap<String, Object>();
+		r.put("ok", Boolean.TRUE);
+		return r;
+	}
+
+	static Map<String, Object> error(String message) {
+		Map<String, Object> r = new LinkedHashMap<String, Object>();
+		r.put("ok", Boolean.FALSE);
+		r.put("error", message);
+		return r;
+	}
+
+	private static List<Map<String, ?>> singletonList(Map<String, ?> params) {
+		List<Map<String, ?>> list = new ArrayList<Map<String, ?>>(1);
+		list.add(params);
+		return list;
+	}
+
+	private static String string(Map<String, ?> p, String key) throws InvalidInput {
+		Object v = p == null ? null : p.get(key);
+		if (v == null) {
+			throw new InvalidInput("Missing '" + key + "'");
+		}
+		return v.toString();
+	}
+
+	private static int integer(Map<String, ?> p, String key) throws InvalidInput {
+		String v = string(p, key);
+		try {
+			return Integer.parseInt(v.trim());
+		} catch (NumberFormatException e) {
+			throw new InvalidInput("Invalid " + key + " '" + v + "'");
+		}
+	}
+
+	private static char gender(Map<String, ?> p) throws InvalidInput {
+		String v = string(p, "gender").trim().toUpperCase();
+		if (!v.equals("F") && !v.equals("M")) {
+			throw new InvalidInput("Invalid gender '" + v + "'");
+		}
+		return v.charAt(0);
+	}
+
+	//lower case is accepted too, it is only upper cased when it has to be
+	private static byte status(String v) throws InvalidInput {
+		byte code = InputCodec.parseStatus(v);
+		if (code == InputCodec.NO_STATUS) {
+			code = InputCodec.parseStatus(v.toUpperCase());
+		}
+		if (code == InputCodec.NO_STATUS) {
+			throw new InvalidInput("Invalid status " + v.toUpperCase());
+		}
+		return code;
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class caches the results of the read-only report queries, keyed by
+ * the query text (whitespace collapsed) and its parameters. It holds at most
+ * maxEntries results, evicting the least recently used, and a result is
+ * never served once it is older than the TTL.
+ *
+ * Every cached result names the tables it reads. Each table has a version
+ * counter that the writers of this process bump through invalidate(), and a
+ * result is only served while all of its tables are still at the versions
+ * they had when the query started. A write therefore invalidates exactly the
+ * results that read the written table, including a result whose query was
+ * running while the write happened. Writes made by other clients are not
+ * seen; the TTL bounds how stale such a result can get.
+ *
+ */
+
+public class QueryCache{
+	//table names used for invalidation, lower case as Postgres folds them
+	public static final String APPOINTMENT = "appointment";
+	public static final String PATIENT = "patient";
+	public static final String DOCTOR = "doctor";
+	public static final String DEPARTMENT = "department";
+	public static final String SEARCHES = "searches";
+	public static final String HAS_APPOINTMENT = "has_appointment";
+
+	/**
+	 * Runs the query on a cache miss.
+	 */
+	public interface Loader{
+		ColumnarResult load() throws SQLException;
+	}
+
+	private static class Key{
+		final String sql;
+		final Object[] params;
+		final int hash;
+
+		Key(String sql, Object[] params) {
+			this.sql = sql;
+			this.params = params;
+			this.hash = 31 * sql.hashCode() + Arrays.hashCode(params);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return this.hash == k.hash && this.sql.equals(k.sql) && Arrays.equals(this.params, k.params);
+		}
+	}
+
+	private static class Entry{
+		final ColumnarResult result;
+		final AtomicLong[] tables;
+		final long[] versions;
+		final long expiresAt;
+
+		Entry(ColumnarResult result, AtomicLong[] tables, long[] versions, long expiresAt) {
+			this.result = result;
+			this.tables = tables;
+			this.versions = versions;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isCurrent() {
+			for (int i = 0; i < this.tables.length; ++i) {
+				if (this.tables[i].get() != this.versions[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final int _maxEntries;
+	private final long _ttlNanos;
+	private final ConcurrentHashMap<String, AtomicLong> _versions = new ConcurrentHashMap<String, AtomicLong>();
+	//access ordered, so the eldest entry is the least recently used
+	private final LinkedHashMap<Key, Entry> _entries;
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _invalidated = new AtomicLong();
+	private final AtomicLong _expired = new AtomicLong();
+	private final AtomicLong _evicted = new AtomicLong();
+
+	/**
+	 * @param maxEntries the most results kept, 0 turns caching off
+	 * @param ttlMs how long a result may be served, in milliseconds
+	 */
+	public QueryCache(final int maxEntries, long ttlMs) {
+		this._maxEntries = maxEntries;
+		this._ttlNanos = ttlMs * 1000000L;
+		this._entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if (size() > maxEntries) {
+					QueryCache.this._evicted.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Method to get a query result, from the cache when a current one is
+	 * there and from the loader otherwise.
+	 *
+	 * @param tables the tables the query reads
+	 * @param sql the query
+	 * @param params the query parameters
+	 * @param loader runs the query
+	 * @return the result, shared with other callers and not to be changed
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public ColumnarResult get(String[] tables, String sql, Object[] params, Loader loader) throws SQLException {
+		if (this._maxEntries <= 0) {
+			this._misses.incrementAndGet();
+			return loader.load();
+		}
+		Key key = new Key(normalize(sql), params.clone());
+		long now = System.nanoTime();
+		synchronized (this._entries) {
+			Entry e = this._entries.get(key);
+			if (e != null) {
+				if (now - e.expiresAt >= 0) {
+					this._entries.remove(key);
+					this._expired.incrementAndGet();
+				} else if (!e.isCurrent()) {
+					this._entries.remove(key);
+					this._invalidated.incrementAndGet();
+				} else {
+					this._hits.incrementAndGet();
+					return e.result;
+				}
+			}
+		}
+		this._misses.incrementAndGet();
+
+		//versions are read before the query runs, so a write racing with it leaves the entry stale
+		AtomicLong[] counters = new AtomicLong[tables.length];
+		long[] versions = new long[tables.length];
+		for (int i = 0; i < tables.length; ++i) {
+			counters[i] = version(tables[i]);
+			versions[i] = counters[i].get();
+		}
+		ColumnarResult result = loader.load();
+		Entry entry = new Entry(result, counters, versions, System.nanoTime() + this._ttlNanos);
+		synchronized (this._entries) {
+			this._entries.put(key, entry);
+		}
+		return result;
+	}
+
+	/**
+	 * Method to mark tables as written, so every cached result reading them
+	 * is no longer served. Call it after the write committed.
+	 *
+	 * @param tables the tables written
+	 */
+	public void invalidate(String... tables) {
+		for (String t : tables) {
+			version(t).incrementAndGet();
+		}
+	}
+
+	/**
+	 * Method to drop every cached result.
+	 */
+	public void clear() {
+		synchronized (this._entries) {
+			this._entries.clear();
+		}
+	}
+
+	public long getHits() {
+		return this._hits.get();
+	}
+
+	public long getMisses() {
+		return this._misses.get();
+	}
+
+	/**
+	 * @return the share of lookups served from the cache, 0 before the first one
+	 */
+	public double getHitRate() {
+		long hits = this._hits.get();
+		long total = hits + this._misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public int size() {
+		synchronized (this._entries) {
+			return this._entries.size();
+		}
+	}
+
+	/**
+	 * @return the counters, for the /metrics endpoint
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("entries", size());
+		m.put("max_entries", this._maxEntries);
+		m.put("ttl_ms", this._ttlNanos / 1000000L);
+		m.put("hits", this._hits.get());
+		m.put("misses", this._misses.get());
+		m.put("hit_rate", Math.round(getHitRate() * 10000.0) / 10000.0);
+		m.put("invalidated", this._invalidated.get());
+		m.put("expired", this._expired.get());
+		m.put("evicted", this._evicted.get());
+		return m;
+	}
+
+	private AtomicLong version(String table) {
+		return this._versions.computeIfAbsent(table, k -> new AtomicLong());
+	}
+
+	//collapses runs of whitespace so the same query written twice shares one entry
+	static String normalize(String sql) {
+		StringBuilder sb = new StringBuilder(sql.length());
+		boolean space = false;
+		for (int i = 0; i < sql.length(); ++i) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = sb.length() > 0;
+			} else {
+				if (space) {
+					sb.append(' ');
+					space = false;
+				}
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps the reference data the menu validators check against:
+ * the doctor, department and appointment ids and the department and patient
+ * names. It is loaded once from the database and then kept current by the
+ * inserts this process makes, so a validation is a hash lookup instead of a
+ * full table scan. Rows inserted by other clients are not in it until they
+ * are first asked for: a miss is checked with a primary key (or name) probe
+ * and a row found that way is added. Misses are not remembered, so a row
+ * that does not exist yet is found once it does.
+ *
+ */
+
+public class ReferenceIndex{
+	private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+	private IntHashSet _doctorIds = new IntHashSet();
+	private IntHashSet _departmentIds = new IntHashSet();
+	private IntHashSet _appointmentIds = new IntHashSet();
+	private Set<String> _departmentNames = new HashSet<String>();
+	private Set<String> _patientNames = new HashSet<String>();
+	//the additions made while a reload reads the database, null when none runs
+	private List<Runnable> _replay = null;
+
+	/**
+	 * Method to (re)load every id and name from the database. The new data
+	 * replaces the old in one step once it is fully read, and the additions
+	 * made meanwhile are applied to it again so none is lost. One reload runs
+	 * at a time.
+	 *
+	 * @param esql the database the data is read from
+	 * @throws java.sql.SQLException when a query failed
+	 */
+	public synchronized void reload(DBproject esql) throws SQLException {
+		this._lock.writeLock().lock();
+		try {
+			this._replay = new ArrayList<Runnable>();
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+		try {
+			load(esql);
+		} finally {
+			this._lock.writeLock().lock();
+			try {
+				this._replay = null;
+			} finally {
+				this._lock.writeLock().unlock();
+			}
+		}
+	}
+
+	private void load(DBproject esql) throws SQLException {
+		IntHashSet doctors = loadIds(esql, "select doctor_ID from doctor");
+		IntHashSet departments = loadIds(esql, "select dept_ID from department");
+		IntHashSet appointments = loadIds(esql, "select appnt_ID from appointment");
+		Set<String> departmentNames = loadNames(esql, "select name from department");
+		Set<String> patientNames = loadNames(esql, "select name from patient");
+
+		this._lock.writeLock().lock();
+		try {
+			this._doctorIds = doctors;
+			this._departmentIds = departments;
+			this._appointmentIds = appointments;
+			this._departmentNames = departmentNames;
+			this._patientNames = patientNames;
+			for (Runnable change : this._replay) {
+				change.run();
+			}
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to check a doctor exists. An id the index does not know is
+	 * looked up by primary key, and remembered if another client added it.
+	 *
+	 * @param esql the database probed on a miss
+	 * @param id the doctor id
+	 * @return true when the doctor exists
+	 * @throws java.sql.SQLException when the probe failed
+	 */
+	public boolean containsDoctor(DBproject esql, int id) throws SQLException {
+		if (known(() -> this._doctorIds.contains(id))) {
+			return true;
+		}
+		if (esql.executeQuery("select 1 from doctor where doctor_ID = ?", id) == 0) {
+			return false;
+		}
+		addDoctor(id);
+		return true;
+	}
+
+	/**
+	 * Method to check a department exists, probing the database on a miss
+	 * like containsDoctor.
+	 */
+	public boolean containsDepartment(DBproject esql, int id) throws SQLException {
+		if (known(() -> this._departmentIds.contains(id))) {
+			return true;
+		}
+		if (esql.executeQuery("select 1 from department where dept_ID = ?", id) == 0) {
+			return false;
+		}
+		change(() -> this._departmentIds.add(id));
+		return true;
+	}
+
+	/**
+	 * Method to check an appointment exists, probing the database on a miss
+	 * like containsDoctor. Archived appointments do not count.
+	 */
+	public boolean containsAppointment(DBproject esql, int id) throws SQLException {
+		if (known(() -> this._appointmentIds.contains(id))) {
+			return true;
+		}
+		if (esql.executeQuery("select 1 from appointment_ids where appnt_ID = ?", id) == 0) {
+			return false;
+		}
+		addAppointment(id);
+		return true;
+	}
+
+	/**
+	 * Method to check a department name exists, probing the database on a
+	 * miss like containsDoctor.
+	 */
+	public boolean containsDepartmentName(DBproject esql, String name) throws SQLException {
+		if (known(() -> this._departmentNames.contains(name))) {
+			return true;
+		}
+		if (esql.executeQuery("select 1 from department where name = ? limit 1", name) == 0) {
+			return false;
+		}
+		change(() -> this._departmentNames.add(name));
+		return true;
+	}
+
+	/**
+	 * Method to check a patient name exists, probing the database on a miss
+	 * like containsDoctor.
+	 */
+	public boolean containsPatientName(DBproject esql, String name) throws SQLException {
+		if (known(() -> this._patientNames.contains(name))) {
+			return true;
+		}
+		if (esql.executeQuery("select 1 from patient where name = ? limit 1", name) == 0) {
+			return false;
+		}
+		addPatientName(name);
+		return true;
+	}
+
+	/**
+	 * Method to record a doctor this process inserted.
+	 *
+	 * @param id the new doctor id
+	 */
+	public void addDoctor(int id) {
+		change(() -> this._doctorIds.add(id));
+	}
+
+	/**
+	 * Method to record an appointment this process inserted.
+	 *
+	 * @param id the new appointment id
+	 */
+	public void addAppointment(int id) {
+		change(() -> this._appointmentIds.add(id));
+	}
+
+	/**
+	 * Method to record a patient this process inserted.
+	 *
+	 * @param name the new patient's name
+	 */
+	public void addPatientName(String name) {
+		change(() -> this._patientNames.add(name));
+	}
+
+	//reads the sets under the read lock
+	private boolean known(BooleanSupplier lookup) {
+		this._lock.readLock().lock();
+		try {
+			return lookup.getAsBoolean();
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	//applies an addition now and, while a reload runs, again to the reloaded
+	//data; adding twice does no harm
+	private void change(Runnable change) {
+		this._lock.writeLock().lock();
+		try {
+			change.run();
+			if (this._replay != null) {
+				this._replay.add(change);
+			}
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	private static IntHashSet loadIds(DBproject esql, String query) throws SQLException {
+		final IntHashSet ids = new IntHashSet();
+		esql.executeQueryStreaming(query, rs -> ids.add(rs.getInt(1)));
+		return ids;
+	}
+
+	private static Set<String> loadNames(DBproject esql, String query) throws SQLException {
+		final Set<String> names = new HashSet<String>();
+		esql.executeQueryStreaming(query, rs -> names.add(rs.getString(1)));
+		return names;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class samples realistic parameters for the menu operations from the
+ * data already in the database: existing doctors, appointments, patients,
+ * departments and dates, and (doctor, appointment) pairs a booking can
+ * actually succeed on. It is shared by the benchmarks and the workload
+ * simulator.
+ *
+ */
+
+public class SampleData{
+	private final AtomicLong _counter = new AtomicLong();
+	final int[] doctors;
+	final int[] appointments;
+	//(doctor, appointment) pairs where the doctor works the appointment's slot
+	final int[][] bookable;
+	final String[] patients;
+	final String[] departments;
+	final String[] dates;
+
+	/**
+	 * Method to load the samples.
+	 *
+	 * @param esql the database to sample
+	 * @param limit the most rows sampled from each table
+	 */
+	public SampleData(DBproject esql, int limit) throws SQLException {
+		this.doctors = ints(esql.executeQueryColumnar("select doctor_ID from Doctor order by random() limit ?", limit), 0);
+		this.appointments = ints(esql.executeQueryColumnar("select appnt_ID from Appointment order by random() limit ?", limit), 0);
+		ColumnarResult r = esql.executeQueryColumnar("select r.did, a.appnt_ID from request_maintenance r " +
+			"join appointment a on a.time_slot = r.time_slot where a.status <> 'PA' order by random() limit ?", limit);
+		this.bookable = new int[r.rowCount()][];
+		for (int i = 0; i < r.rowCount(); ++i) {
+			this.bookable[i] = new int[]{ r.getInt(i, 0), r.getInt(i, 1) };
+		}
+		this.patients = strings(esql.executeQueryColumnar("select name from Patient order by random() limit ?", limit), 0);
+		this.departments = strings(esql.executeQueryColumnar("select distinct name from Department"), 0);
+		this.dates = strings(esql.executeQueryColumnar(
+			"select distinct to_char(adate, 'YYYY-MM-DD') from Appointment order by 1 limit ?", limit), 0);
+		if (this.doctors.length == 0 || this.appointments.length == 0 || this.patients.length == 0 ||
+				this.departments.length == 0 || this.bookable.length == 0) {
+			throw new SQLException("The database has no data to sample, load code/data first");
+		}
+	}
+
+	/**
+	 * Method to pick the parameters for one call of an operation. Inserted
+	 * doctors and patients get fresh names so they are not rejected as
+	 * duplicates.
+	 *
+	 * @param op the operation name, one of Operations.ALL
+	 * @return the named parameters
+	 */
+	public Map<String, Object> params(String op) {
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		Map<String, Object> p = new HashMap<String, Object>();
+		switch (op) {
+			case Operations.ADD_DOCTOR:
+				p.put("name", uniqueName("doctor"));
+				p.put("specialty", "benchmarking");
+				p.put("did", 0);
+				break;
+			case Operations.ADD_PATIENT:
+				p.put("name", uniqueName("patient"));
+				p.put("gender", rnd.nextBoolean() ? "F" : "M");
+				p.put("age", 1 + rnd.nextInt(100));
+				p.put("address", "load test");
+				break;
+			case Operations.ADD_APPOINTMENT:
+				p.put("date", pick(this.dates));
+				p.put("timeslot", "10:00-12:00");
+				p.put("status", "AV");
+				break;
+			case Operations.MAKE_APPOINTMENT:
+				int[] pair = this.bookable[rnd.nextInt(this.bookable.length)];
+				p.put("name", pick(this.patients));
+				p.put("gender", rnd.nextBoolean() ? "F" : "M");
+				p.put("age", 1 + rnd.nextInt(100));
+				p.put("address", "load test");
+				p.put("doctor_id", pair[0]);
+				p.put("appointment_id", pair[1]);
+				break;
+			case Operations.LIST_APPOINTMENTS_OF_DOCTOR:
+				p.put("doctor_id", pick(this.doctors));
+				String a = pick(this.dates);
+				String b = pick(this.dates);
+				p.put("from", a.compareTo(b) <= 0 ? a : b);
+				p.put("to", a.compareTo(b) <= 0 ? b : a);
+				break;
+			case Operations.LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT:
+				p.put("department", pick(this.departments));
+				p.put("date", pick(this.dates));
+				break;
+			case Operations.FIND_PATIENTS_COUNT_WITH_STATUS:
+				p.put("status", pick(new String[]{ "PA", "AC", "AV", "WL" }));
+				break;
+			default:
+				break;
+		}
+		return p;
+	}
+
+	//validString only takes letters, so the counter is spelled out in letters
+	String uniqueName(String prefix) {
+		long n = this._counter.incrementAndGet();
+		StringBuilder sb = new StringBuilder(prefix).append(' ');
+		do {
+			sb.append((char) ('a' + n % 26));
+			n /= 26;
+		} while (n > 0);
+		return sb.toString();
+	}
+
+	static int pick(int[] values) {
+		return values[ThreadLocalRandom.current().nextInt(values.length)];
+	}
+
+	static String pick(String[] values) {
+		return values[ThreadLocalRandom.current().nextInt(values.length)];
+	}
+
+	private static int[] ints(ColumnarResult r, int column) {
+		int[] values = new int[r.rowCount()];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = r.getInt(i, column);
+		}
+		return values;
+	}
+
+	private static String[] strings(ColumnarResult r, int column) {
+		String[] values = new String[r.rowCount()];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = r.getString(i, column);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * This class logs the statements that ran longer than a threshold: the SQL
+ * text, the parameters and the plan. Plain reads are captured with EXPLAIN
+ * (ANALYZE, BUFFERS) in a read only transaction that is rolled back. Writes
+ * and function calls such as make_appointment are only planned, with plain
+ * EXPLAIN: running them again would hit the ids they already inserted or
+ * lock the rows the bookings are waiting on. The log rolls over to log.1,
+ * log.2, ... once it reaches its maximum size.
+ *
+ * Each captured plan is reduced to its shape, the tree of plan nodes with
+ * their relations and indexes but without costs, timings and row counts,
+ * and the shape is hashed into a fingerprint. Partitions are named by their
+ * parent and the same scan repeated over several partitions counts once, so
+ * a new month of appointments does not change the shape. The last fingerprint of every
+ * SQL template is kept in a file next to the log, so a template whose plan
+ * shape changes, also across restarts, is logged as a PLAN CHANGED
+ * regression.
+ *
+ * Slow statements are handed to a background thread, so neither the log
+ * nor the EXPLAIN adds to the latency of the statement that was slow. When
+ * the thread falls behind, statements are dropped and counted. The plan of a
+ * template is captured at most once per explain interval.
+ *
+ * Enabled with -Dcs166.slowlog.thresholdMs, see DBproject.
+ *
+ */
+
+public class SlowQueryLog{
+	private static final int QUEUE_SIZE = 256;
+	//a set returning function in FROM, as in select * from make_appointment(...)
+	private static final Pattern FUNCTION_SCAN = Pattern.compile("\\b(from|join)\\s+\\w+\\s*\\(");
+	//the monthly / yearly partitions (appointment_p202401, ..._default) and
+	//the aliases Postgres numbers them with (a_1, a_2, ...)
+	private static final Pattern PARTITION = Pattern.compile("\\b(\\w+?)_(p\\d{6}|p\\d{4}|default)(?!\\d)");
+	private static final Pattern PARTITION_ALIAS = Pattern.compile("\\b(\\w+)_\\d+$");
+
+	private static class Entry{
+		final long at;
+		final String helper;
+		final String sql;
+		final Object[] params;
+		final long nanos;
+
+		Entry(String helper, String sql, Object[] params, long nanos) {
+			this.at = System.currentTimeMillis();
+			this.helper = helper;
+			this.sql = sql;
+			this.params = params;
+			this.nanos = nanos;
+		}
+	}
+
+	private final DBproject _esql;
+	private final long _thresholdNanos;
+	private final Path _file;
+	private final Path _fingerprintFile;
+	private final long _maxBytes;
+	private final int _maxFiles;
+	private final long _explainIntervalMs;
+	private final BlockingQueue<Entry> _queue = new ArrayBlockingQueue<Entry>(QUEUE_SIZE);
+	//normalized SQL template -> fingerprint of its last captured plan
+	private final Properties _fingerprints = new Properties();
+	//normalized SQL template -> when its plan was last captured
+	private final Map<String, Long> _explainedAt = new HashMap<String, Long>();
+	private final AtomicLong _logged = new AtomicLong();
+	private final AtomicLong _dropped = new AtomicLong();
+	private final AtomicLong _explained = new AtomicLong();
+	private final AtomicLong _regressions = new AtomicLong();
+	private final Thread _worker;
+	private Writer _out = null;
+	private long _size = 0;
+
+	/**
+	 * @param esql the database the plans are captured on
+	 * @param thresholdMs statements running at least this long are logged
+	 * @param file the log file
+	 * @param maxBytes the size at which the log rolls over
+	 * @param maxFiles the number of rolled over logs kept
+	 * @param explainIntervalMs the least time between two plan captures of one template
+	 */
+	public SlowQueryLog(DBproject esql, long thresholdMs, Path file, long maxBytes, int maxFiles, long explainIntervalMs) {
+		this._esql = esql;
+		this._thresholdNanos = thresholdMs * 1000000L;
+		this._file = file;
+		this._fingerprintFile = file.resolveSibling(file.getFileName() + ".plans");
+		this._maxBytes = maxBytes;
+		this._maxFiles = maxFiles;
+		this._explainIntervalMs = explainIntervalMs;
+		if (Files.exists(this._fingerprintFile)) {
+			try (InputStream in = Files.newInputStream(this._fingerprintFile)) {
+				this._fingerprints.load(in);
+			} catch (IOException e) {
+				System.err.println("Could not read plan fingerprints: " + e.getMessage());
+			}
+		}
+		this._worker = new Thread(this::drain, "slow-query-log");
+		this._worker.setDaemon(true);
+		this._worker.start();
+	}
+
+	/**
+	 * Method to hand a finished statement to the log, which keeps it only
+	 * when it ran longer than the threshold.
+	 *
+	 * @param helper the query helper that ran it
+	 * @param sql the statement
+	 * @param params the parameter values, in placeholder order
+	 * @param nanos how long it ran
+	 */
+	public void offer(String helper, String sql, Object[] params, long nanos) {
+		if (nanos < this._thresholdNanos) {
+			return;
+		}
+		if (!this._queue.offer(new Entry(helper, sql, params == null ? new Object[0] : params.clone(), nanos))) {
+			this._dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Method to write what is queued and stop the background thread.
+	 */
+	public void close() {
+		this._worker.interrupt();
+		try {
+			this._worker.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Entry e;
+		while ((e = this._queue.poll()) != null) {
+			write(e, null);
+		}
+		synchronized (this) {
+			try {
+				if (this._out != null) {
+					this._out.close();
+					this._out = null;
+				}
+			} catch (IOException ex) {
+				System.err.println(ex.getMessage());
+			}
+		}
+	}
+
+	private void drain() {
+		try {
+			while (true) {
+				Entry e = this._queue.take();
+				write(e, explain(e));
+			}
+		} catch (InterruptedException e) {
+			// closing
+		}
+	}
+
+	//the plan lines, null when the plan is not captured this time
+	private List<String> explain(Entry e) {
+		if (!isExplainable(e.sql)) {
+			return null;
+		}
+		String template = QueryCache.normalize(e.sql);
+		Long last = this._explainedAt.get(template);
+		if (last != null && e.at - last < this._explainIntervalMs) {
+			return null;
+		}
+		this._explainedAt.put(template, e.at);
+		final List<String> plan = new ArrayList<String>();
+		final boolean analyze = isReadOnly(e.sql);
+		try {
+			this._esql.withConnection(conn -> {
+				conn.setAutoCommit(false);
+				//not through the statement cache, these are one-off statements
+				try (PreparedStatement ps = conn.prepareStatement((analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + e.sql)) {
+					if (analyze) {
+						//should the guess be wrong, Postgres refuses the write
+						//rather than running it
+						try (Statement st = conn.createStatement()) {
+							st.execute("SET TRANSACTION READ ONLY");
+						}
+					}
+					DBproject.bind(ps, e.params);
+					try (ResultSet rs = ps.executeQuery()) {
+						while (rs.next()) {
+							plan.add(rs.getString(1));
+						}
+					}
+				} finally {
+					//nothing was written, but end the transaction either way
+					conn.rollback();
+					conn.setAutoCommit(true);
+				}
+				return null;
+			});
+			this._explained.incrementAndGet();
+		} catch (SQLException ex) {
+			plan.clear();
+			plan.add("(plan not captured: " + ex.getMessage() + ")");
+		}
+		return plan;
+	}
+
+	//EXPLAIN takes the statements that can be planned, not DDL or transaction control
+	static boolean isExplainable(String sql) {
+		String s = sql.trim().toLowerCase(Locale.ROOT);
+		return s.startsWith("select") || s.startsWith("insert") || s.startsWith("update")
+			|| s.startsWith("delete") || s.startsWith("with") || s.startsWith("values");
+	}
+
+	//ANALYZE runs the statement, so it is kept to plain reads: no writes
+	//and no function scans, which may write (make_appointment does)
+	static boolean isReadOnly(String sql) {
+		String s = sql.trim().toLowerCase(Locale.ROOT);
+		if (!s.startsWith("select") && !s.startsWith("with") && !s.startsWith("values")) {
+			return false;
+		}
+		if (s.contains("insert ") || s.contains("update ") || s.contains("delete ")) {
+			return false;
+		}
+		return !FUNCTION_SCAN.matcher(s).find();
+	}
+
+	/**
+	 * Method to reduce a text plan to its shape: the plan node lines with
+	 * their indentation, cut before the costs, so the node types, join
+	 * order, relations and indexes remain. Partition names are replaced by
+	 * their parent's, and children of a node that are the same after that
+	 * (one scan per partition under an Append) are kept once.
+	 *
+	 * @param plan the lines of an EXPLAIN
+	 * @return one line per distinct plan node
+	 */
+	static String shape(List<String> plan) {
+		List<String> nodes = new ArrayList<String>();
+		for (int i = 0; i < plan.size(); ++i) {
+			String line = plan.get(i);
+			//the root node is the first line, every other node starts with ->
+			if (i > 0 && !line.trim().startsWith("->")) {
+				continue;
+			}
+			int cost = line.indexOf("  (");
+			line = cost < 0 ? line : line.substring(0, cost);
+			line = PARTITION.matcher(line).replaceAll("$1_*");
+			if (line.contains("_*")) {
+				line = PARTITION_ALIAS.matcher(line).replaceAll("$1");
+			}
+			nodes.add(line);
+		}
+		StringBuilder sb = new StringBuilder();
+		int[] next = { 0 };
+		while (next[0] < nodes.size()) {
+			sb.append(subtree(nodes, next));
+		}
+		return sb.toString();
+	}
+
+	//the node at next[0] and its children (the following, deeper indented
+	//lines), with repeated children kept once; moves next[0] past them
+	private static String subtree(List<String> nodes, int[] next) {
+		String node = nodes.get(next[0]++);
+		int depth = indent(node);
+		Set<String> children = new LinkedHashSet<String>();
+		while (next[0] < nodes.size() && indent(nodes.get(next[0])) > depth) {
+			children.add(subtree(nodes, next));
+		}
+		StringBuilder sb = new StringBuilder(node).append('\n');
+		for (String child : children) {
+			sb.append(child);
+		}
+		return sb.toString();
+	}
+
+	private static int indent(String line) {
+		int i = 0;
+		while (i < line.length() && line.charAt(i) == ' ') {
+			++i;
+		}
+		return i;
+	}
+
+	/**
+	 * @return the 64 bit FNV-1a hash of a plan shape, in hex
+	 */
+	static String fingerprint(String shape) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < shape.length(); ++i) {
+			h ^= shape.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return String.format("%016x", h);
+	}
+
+	private synchronized void write(Entry e, List<String> plan) {
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append(Instant.ofEpochMilli(e.at)).append(" slow query ")
+			.append(Math.round(e.nanos / 1000.0) / 1000.0).append(" ms ").append(e.helper).append('\n');
+		sb.append("sql: ").append(e.sql).append('\n');
+		sb.append("params: ").append(Arrays.toString(e.params)).append('\n');
+		if (plan != null && !plan.isEmpty() && !plan.get(0).startsWith("(plan not captured")) {
+			String template = QueryCache.normalize(e.sql);
+			String fp = fingerprint(shape(plan));
+			String previous = this._fingerprints.getProperty(template);
+			sb.append("fingerprint: ").append(fp);
+			if (previous != null && !previous.equals(fp)) {
+				sb.append(" PLAN CHANGED, was ").append(previous);
+				this._regressions.incrementAndGet();
+			}
+			sb.append('\n');
+			if (!fp.equals(previous)) {
+				this._fingerprints.setProperty(template, fp);
+				saveFingerprints();
+			}
+		}
+		if (plan != null) {
+			sb.append("plan:\n");
+			for (String line : plan) {
+				sb.append("  ").append(line).append('\n');
+			}
+		}
+		sb.append('\n');
+		try {
+			byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+			if (this._out != null && this._size + bytes.length > this._maxBytes) {
+				rotate();
+			}
+			if (this._out == null) {
+				this._out = Files.newBufferedWriter(this._file, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				this._size = Files.size(this._file);
+			}
+			this._out.write(sb.toString());
+			this._out.flush();
+			this._size += bytes.length;
+			this._logged.incrementAndGet();
+		} catch (IOException ex) {
+			System.err.println("Could not write the slow query log: " + ex.getMessage());
+		}
+	}
+
+	//log.(n-1) -> log.n, ..., log -> log.1, the oldest falls off
+	private void rotate() throws IOException {
+		this._out.close();
+		this._out = null;
+		for (int i = this._maxFiles - 1; i >= 1; --i) {
+			Path from = this._file.resolveSibling(this._file.getFileName() + "." + i);
+			if (Files.exists(from)) {
+				Files.move(from, this._file.resolveSibling(this._file.getFileName() + "." + (i + 1)),
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		if (this._maxFiles > 0) {
+			Files.move(this._file, this._file.resolveSibling(this._file.getFileName() + ".1"),
+				StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.delete(this._file);
+		}
+	}
+
+	private void saveFingerprints() {
+		Path tmp = this._fingerprintFile.resolveSibling(this._fingerprintFile.getFileName() + ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				this._fingerprints.store(out, "plan shape fingerprint per SQL template");
+			}
+			Files.move(tmp, this._fingerprintFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Could not save plan fingerprints: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the counters, for the /metrics endpoint
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("threshold_ms", this._thresholdNanos / 1000000L);
+		m.put("logged", this._logged.get());
+		m.put("dropped", this._dropped.get());
+		m.put("explained", this._explained.get());
+		m.put("plan_changes", this._regressions.get());
+		return m;
+	}
+}
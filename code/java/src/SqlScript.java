@@ -0,0 +1,140 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class splits the scripts under code/sql into single statements so
+ * they can be run over JDBC. Semicolons inside quotes, dollar-quoted
+ * function bodies and -- comments do not end a statement.
+ *
+ */
+
+public class SqlScript{
+	private SqlScript() {
+	}
+
+	/**
+	 * Method to read a script file and split it into statements.
+	 *
+	 * @param file the script to read
+	 * @return the statements, without their trailing semicolons
+	 * @throws java.io.IOException when the file could not be read
+	 */
+	public static List<String> read(Path file) throws IOException {
+		return split(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Method to split script text into statements.
+	 *
+	 * @param script the script text
+	 * @return the non-empty statements, without their trailing semicolons
+	 */
+	public static List<String> split(String script) {
+		List<String> statements = new ArrayList<String>();
+		StringBuilder cur = new StringBuilder();
+		String dollarTag = null;
+		boolean inQuote = false;
+		int n = script.length();
+		for (int i = 0; i < n; ++i) {
+			char c = script.charAt(i);
+			if (dollarTag != null) {
+				if (script.startsWith(dollarTag, i)) {
+					cur.append(dollarTag);
+					i += dollarTag.length() - 1;
+					dollarTag = null;
+				} else {
+					cur.append(c);
+				}
+			} else if (inQuote) {
+				cur.append(c);
+				if (c == '\'') {
+					inQuote = false;
+				}
+			} else if (c == '\'') {
+				cur.append(c);
+				inQuote = true;
+			} else if (c == '-' && i + 1 < n && script.charAt(i + 1) == '-') {
+				// skip the comment up to the end of the line
+				while (i < n && script.charAt(i) != '\n') {
+					++i;
+				}
+				cur.append('\n');
+			} else if (c == '$') {
+				int end = script.indexOf('$', i + 1);
+				String tag = end < 0 ? null : script.substring(i, end + 1);
+				if (tag != null && isDollarTag(tag)) {
+					dollarTag = tag;
+					cur.append(tag);
+					i = end;
+				} else {
+					cur.append(c);
+				}
+			} else if (c == ';') {
+				add(statements, cur);
+			} else {
+				cur.append(c);
+			}
+		}
+		add(statements, cur);
+		return statements;
+	}
+
+	/**
+	 * Method to run every statement of a script, one at a time.
+	 *
+	 * @param esql the database to run the script against
+	 * @param file the script to run
+	 * @return the number of statements run
+	 */
+	public static int run(DBproject esql, Path file) throws IOException, SQLException {
+		final List<String> statements = read(file);
+		esql.withConnection(conn -> {
+			// one-off DDL, not worth a slot in the statement cache
+			try (Statement stmt = conn.createStatement()) {
+				for (String sql : statements) {
+					stmt.execute(sql);
+				}
+			}
+			return null;
+		});
+		return statements.size();
+	}
+
+	//$$ or $name$ where name is an identifier
+	private static boolean isDollarTag(String tag) {
+		for (int i = 1; i < tag.length() - 1; ++i) {
+			char c = tag.charAt(i);
+			if (!(Character.isLetterOrDigit(c) || c == '_') || (i == 1 && Character.isDigit(c))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void add(List<String> statements, StringBuilder cur) {
+		String sql = cur.toString().trim();
+		if (sql.length() > 0) {
+			statements.add(sql);
+		}
+		cur.setLength(0);
+	}
+}
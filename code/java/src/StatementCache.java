@@ -0,0 +1,108 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the prepared statements of one physical connection,
+ * keyed by their SQL template, in least recently used order. Statements
+ * pushed out of the cache are closed, which releases the server-side
+ * prepared statement as well.
+ *
+ * A cache belongs to exactly one connection and is only touched by the
+ * thread currently borrowing that connection, so it needs no locking.
+ *
+ */
+
+public class StatementCache{
+	private final Connection _connection;
+	private final AtomicLong _hits;
+	private final AtomicLong _misses;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	/**
+	 * @param connection the connection the statements are prepared on
+	 * @param capacity the maximum number of statements kept open
+	 * @param hits counter bumped on every cache hit
+	 * @param misses counter bumped on every cache miss
+	 */
+	public StatementCache(Connection connection, final int capacity, AtomicLong hits, AtomicLong misses) {
+		this._connection = connection;
+		this._hits = hits;
+		this._misses = misses;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() > capacity) {
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Method to fetch the prepared statement for a SQL template, preparing
+	 * it on a miss. The returned statement is owned by the cache and must not
+	 * be closed by the caller.
+	 *
+	 * @param sql the SQL template with ? placeholders
+	 * @return the prepared statement, with its parameters cleared
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public PreparedStatement get(String sql) throws SQLException {
+		PreparedStatement ps = this._statements.get(sql);
+		if (ps != null && !ps.isClosed()) {
+			this._hits.incrementAndGet();
+			ps.clearParameters();
+			return ps;
+		}
+		this._misses.incrementAndGet();
+		ps = this._connection.prepareStatement(sql);
+		this._statements.put(sql, ps);
+		return ps;
+	}
+
+	/**
+	 * @return the number of statements currently cached
+	 */
+	public int size() {
+		return this._statements.size();
+	}
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public void close() {
+		Iterator<PreparedStatement> it = this._statements.values().iterator();
+		while (it.hasNext()) {
+			closeQuietly(it.next());
+			it.remove();
+		}
+	}
+
+	private static void closeQuietly(PreparedStatement ps) {
+		try {
+			ps.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+}
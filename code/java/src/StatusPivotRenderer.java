@@ -0,0 +1,97 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class renders the rows of Operations.STATUS_NUMBER_OF_APPOINTMENTS_PER_DOCTOR
+ * (name, pa, ac, av, wl) as one line per doctor, the statuses in descending
+ * order of their count:
+ *
+ *   john smith: 3AC, 2AV, 1WL
+ *
+ * Each line is built in one reused buffer and written to a buffered writer
+ * as soon as its row arrives, so the report streams in constant memory.
+ *
+ */
+
+public class StatusPivotRenderer implements DBproject.RowHandler{
+	private static final String[] STATUSES = { "PA", "AC", "AV", "WL" };
+
+	private final Writer _out;
+	private final StringBuilder _line = new StringBuilder(128);
+	private char[] _chars = new char[128];
+	private final int[] _counts = new int[STATUSES.length];
+	private final int[] _order = new int[STATUSES.length];
+	private int _rows = 0;
+
+	/**
+	 * @param out where the lines go, flushed by the caller
+	 */
+	public StatusPivotRenderer(Writer out) {
+		this._out = out;
+	}
+
+	public void row(ResultSet rs) throws SQLException {
+		for (int i = 0; i < STATUSES.length; ++i) {
+			this._counts[i] = rs.getInt(i + 2);
+			this._order[i] = i;
+		}
+		//insertion sort, there are only four statuses; ties keep the PA, AC, AV, WL order
+		for (int i = 1; i < this._order.length; ++i) {
+			int s = this._order[i];
+			int j = i - 1;
+			while (j >= 0 && this._counts[this._order[j]] < this._counts[s]) {
+				this._order[j + 1] = this._order[j];
+				--j;
+			}
+			this._order[j + 1] = s;
+		}
+
+		this._line.setLength(0);
+		this._line.append(rs.getString(1)).append(": ");
+		boolean first = true;
+		for (int s : this._order) {
+			if (this._counts[s] == 0) {
+				break;
+			}
+			if (!first) {
+				this._line.append(", ");
+			}
+			this._line.append(this._counts[s]).append(STATUSES[s]);
+			first = false;
+		}
+		this._line.append('\n');
+		int len = this._line.length();
+		if (this._chars.length < len) {
+			this._chars = new char[Math.max(len, this._chars.length * 2)];
+		}
+		this._line.getChars(0, len, this._chars, 0);
+		try {
+			this._out.write(this._chars, 0, len);
+		} catch (IOException e) {
+			throw new SQLException("Could not write the report", e);
+		}
+		this._rows++;
+	}
+
+	/**
+	 * @return the number of doctors rendered
+	 */
+	public int getRows() {
+		return this._rows;
+	}
+}
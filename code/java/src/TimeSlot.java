@@ -0,0 +1,112 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class converts time slots such as "8:00-10:00" or "08:00-10:00" to a
+ * packed minute range and back. A packed slot is one int, the start minute
+ * of the day in the high 16 bits and the end minute in the low 16 bits, so
+ * slots written with or without the leading zero compare equal.
+ *
+ * The accepted form is H:MM-H:MM or HH:MM-HH:MM with the end after the
+ * start on the same day, the same as time_slot_range() in sql/capacity.sql.
+ *
+ */
+
+public class TimeSlot{
+	//returned by parse for anything that is not a slot
+	public static final int INVALID = -1;
+
+	/**
+	 * Method to parse a time slot without allocating.
+	 *
+	 * @param slot the slot text, may be null
+	 * @return the packed slot, or INVALID
+	 */
+	public static int parse(CharSequence slot) {
+		if (slot == null) {
+			return INVALID;
+		}
+		int dash = -1;
+		for (int i = 0; i < slot.length(); ++i) {
+			if (slot.charAt(i) == '-') {
+				dash = i;
+				break;
+			}
+		}
+		if (dash < 0) {
+			return INVALID;
+		}
+		int start = minutes(slot, 0, dash);
+		int end = minutes(slot, dash + 1, slot.length());
+		if (start < 0 || end < 0 || end <= start) {
+			return INVALID;
+		}
+		return pack(start, end);
+	}
+
+	/**
+	 * @param start the first minute of the day in the slot
+	 * @param end the minute of the day the slot ends at
+	 * @return the packed slot
+	 */
+	public static int pack(int start, int end) {
+		return (start << 16) | end;
+	}
+
+	public static int start(int packed) {
+		return packed >>> 16;
+	}
+
+	public static int end(int packed) {
+		return packed & 0xFFFF;
+	}
+
+	/**
+	 * Method to format a packed slot in the canonical HH:MM-HH:MM form.
+	 */
+	public static String format(int packed) {
+		StringBuilder sb = new StringBuilder(11);
+		appendTime(sb, start(packed)).append('-');
+		return appendTime(sb, end(packed)).toString();
+	}
+
+	private static StringBuilder appendTime(StringBuilder sb, int minutes) {
+		int h = minutes / 60;
+		int m = minutes % 60;
+		return sb.append((char) ('0' + h / 10)).append((char) ('0' + h % 10)).append(':')
+			.append((char) ('0' + m / 10)).append((char) ('0' + m % 10));
+	}
+
+	//H:MM or HH:MM between from and to, -1 if malformed; 24:00 is allowed as an end
+	private static int minutes(CharSequence s, int from, int to) {
+		int len = to - from;
+		if (len != 4 && len != 5 || s.charAt(to - 3) != ':') {
+			return -1;
+		}
+		int h = 0;
+		for (int i = from; i < to - 3; ++i) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			h = h * 10 + (c - '0');
+		}
+		char m1 = s.charAt(to - 2);
+		char m2 = s.charAt(to - 1);
+		if (m1 < '0' || m1 > '5' || m2 < '0' || m2 > '9') {
+			return -1;
+		}
+		int minutes = h * 60 + (m1 - '0') * 10 + (m2 - '0');
+		return minutes <= 24 * 60 ? minutes : -1;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps the time slots the doctors work (request_maintenance),
+ * parsed once into packed minute ranges (see TimeSlot). The slots of one
+ * doctor are held in an array sorted by start minute together with the
+ * running maximum of the end minutes, so
+ *   - does one of the doctor's slots cover a given slot, and
+ *   - does one of the doctor's slots overlap a given slot
+ * are each answered by one binary search, without a round trip.
+ * BookingEngine uses it to turn down a booking outside the doctor's hours
+ * before calling make_appointment, which checks the same with
+ * time_slot_range() on the server.
+ *
+ * request_maintenance is only written by the loaders, so the index is loaded
+ * once and reloaded every refresh interval (refreshEvery,
+ * -Dcs166.timeslots.refreshMs in DBproject). A doctor it has no slots for is
+ * left to the server.
+ *
+ */
+
+public class TimeSlotIndex{
+	/**
+	 * The slots of one doctor.
+	 */
+	static class Slots{
+		//start minutes, ascending
+		final int[] starts;
+		//maxEnds[i] is the latest end among the slots 0..i
+		final int[] maxEnds;
+
+		Slots(int[] packed) {
+			Arrays.sort(packed);
+			this.starts = new int[packed.length];
+			this.maxEnds = new int[packed.length];
+			int max = 0;
+			for (int i = 0; i < packed.length; ++i) {
+				this.starts[i] = TimeSlot.start(packed[i]);
+				max = Math.max(max, TimeSlot.end(packed[i]));
+				this.maxEnds[i] = max;
+			}
+		}
+
+		//index of the last slot starting at or before minute, -1 if none
+		int lastStartingBy(int minute) {
+			int lo = 0;
+			int hi = this.starts.length - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.starts[mid] <= minute) {
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			return hi;
+		}
+
+		boolean covers(int slot) {
+			int i = lastStartingBy(TimeSlot.start(slot));
+			return i >= 0 && this.maxEnds[i] >= TimeSlot.end(slot);
+		}
+
+		boolean overlaps(int slot) {
+			int i = lastStartingBy(TimeSlot.end(slot) - 1);
+			return i >= 0 && this.maxEnds[i] > TimeSlot.start(slot);
+		}
+	}
+
+	private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+	private Map<Integer, Slots> _doctors = new HashMap<Integer, Slots>();
+	//runs the periodic reload, null until refreshEvery
+	private ScheduledExecutorService _scheduler = null;
+
+	/**
+	 * Method to (re)load the slots from the database. Slots that do not
+	 * parse are left out, so they never match.
+	 *
+	 * @param esql the database the data is read from
+	 * @throws java.sql.SQLException when a query failed
+	 */
+	public void reload(DBproject esql) throws SQLException {
+		final Map<Integer, List<Integer>> raw = new HashMap<Integer, List<Integer>>();
+		esql.executeQueryStreaming("select did, time_slot from request_maintenance", rs -> {
+			int slot = TimeSlot.parse(rs.getString(2));
+			if (slot != TimeSlot.INVALID) {
+				raw.computeIfAbsent(rs.getInt(1), k -> new ArrayList<Integer>()).add(slot);
+			}
+		});
+		Map<Integer, Slots> doctors = new HashMap<Integer, Slots>();
+		for (Map.Entry<Integer, List<Integer>> e : raw.entrySet()) {
+			int[] packed = new int[e.getValue().size()];
+			for (int i = 0; i < packed.length; ++i) {
+				packed[i] = e.getValue().get(i);
+			}
+			doctors.put(e.getKey(), new Slots(packed));
+		}
+
+		this._lock.writeLock().lock();
+		try {
+			this._doctors = doctors;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to reload the slots from a background thread every interval,
+	 * until close().
+	 *
+	 * @param esql the database the data is read from
+	 * @param intervalMs the time between two reloads
+	 */
+	public synchronized void refreshEvery(final DBproject esql, long intervalMs) {
+		if (this._scheduler != null) {
+			return;
+		}
+		this._scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "timeslot-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		this._scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				reload(esql);
+			} catch (SQLException e) {
+				System.err.println("Could not reload the doctors' time slots: " + e.getMessage());
+			}
+		}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to stop the periodic reload, letting a running one finish.
+	 */
+	public void close() {
+		ScheduledExecutorService scheduler;
+		synchronized (this) {
+			scheduler = this._scheduler;
+		}
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @param doctorId the doctor
+	 * @return true if the index holds at least one slot of the doctor
+	 */
+	public boolean knows(int doctorId) {
+		this._lock.readLock().lock();
+		try {
+			return this._doctors.containsKey(doctorId);
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param doctorId the doctor
+	 * @param slot a packed slot
+	 * @return true if one of the doctor's slots covers the whole slot
+	 */
+	public boolean covers(int doctorId, int slot) {
+		if (slot == TimeSlot.INVALID) {
+			return false;
+		}
+		this._lock.readLock().lock();
+		try {
+			Slots slots = this._doctors.get(doctorId);
+			return slots != null && slots.covers(slot);
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param doctorId the doctor
+	 * @param slot a packed slot
+	 * @return true if one of the doctor's slots shares a minute with the slot
+	 */
+	public boolean overlaps(int doctorId, int slot) {
+		if (slot == TimeSlot.INVALID) {
+			return false;
+		}
+		this._lock.readLock().lock();
+		try {
+			Slots slots = this._doctors.get(doctorId);
+			return slots != null && slots.overlaps(slot);
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class records the statements the application issues, one entry per
+ * SQL template (whitespace collapsed) with the parameters of its first few
+ * executions, so the workload can be replayed by IndexAdvisor. Every query
+ * helper of DBproject reports to it through Metrics.
+ *
+ * The workload is saved as JSON lines:
+ *
+ *   {"sql": "select ... where adate >= ? and doctor_id = ?", "params": [{"date": "2020-05-01"}, 17]}
+ *
+ * Dates are written as {"date": "YYYY-MM-DD"} so they are bound as dates
+ * again when the workload is read back.
+ *
+ * Enabled with -Dcs166.workload.file, see DBproject.
+ *
+ */
+
+public class WorkloadRecorder{
+	/**
+	 * One recorded execution.
+	 */
+	public static class Sample{
+		public final String sql;
+		public final Object[] params;
+
+		public Sample(String sql, Object[] params) {
+			this.sql = sql;
+			this.params = params;
+		}
+	}
+
+	private final int _samplesPerTemplate;
+	//normalized SQL -> parameter sets, in first seen order
+	private final Map<String, List<Object[]>> _templates = new LinkedHashMap<String, List<Object[]>>();
+
+	/**
+	 * @param samplesPerTemplate how many executions of one template are kept
+	 */
+	public WorkloadRecorder(int samplesPerTemplate) {
+		this._samplesPerTemplate = samplesPerTemplate;
+	}
+
+	/**
+	 * Method to record one execution of a statement.
+	 *
+	 * @param sql the statement
+	 * @param params the parameter values, in placeholder order
+	 */
+	public void record(String sql, Object[] params) {
+		String template = QueryCache.normalize(sql);
+		synchronized (this._templates) {
+			List<Object[]> samples = this._templates.computeIfAbsent(template, k -> new ArrayList<Object[]>());
+			if (samples.size() < this._samplesPerTemplate) {
+				samples.add(params == null ? new Object[0] : params.clone());
+			}
+		}
+	}
+
+	/**
+	 * @return the number of distinct templates recorded
+	 */
+	public int size() {
+		synchronized (this._templates) {
+			return this._templates.size();
+		}
+	}
+
+	/**
+	 * Method to write the workload, replacing the file in one step.
+	 *
+	 * @param file where the workload goes
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public void save(Path file) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			synchronized (this._templates) {
+				for (Map.Entry<String, List<Object[]>> e : this._templates.entrySet()) {
+					for (Object[] params : e.getValue()) {
+						List<Object> values = new ArrayList<Object>(params.length);
+						for (Object p : params) {
+							values.add(encode(p));
+						}
+						Map<String, Object> line = new LinkedHashMap<String, Object>();
+						line.put("sql", e.getKey());
+						line.put("params", values);
+						out.write(Json.write(line));
+						out.newLine();
+					}
+				}
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Method to read a workload written by save.
+	 *
+	 * @param file the workload
+	 * @return the recorded executions, in file order
+	 * @throws java.io.IOException when the file could not be read
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Sample> load(Path file) throws IOException {
+		List<Sample> samples = new ArrayList<Sample>();
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				Map<String, Object> m = Json.parseObject(line);
+				List<Object> values = (List<Object>) m.get("params");
+				Object[] params = new Object[values == null ? 0 : values.size()];
+				for (int i = 0; i < params.length; ++i) {
+					params[i] = decode(values.get(i));
+				}
+				samples.add(new Sample((String) m.get("sql"), params));
+			}
+		}
+		return samples;
+	}
+
+	private static Object encode(Object p) {
+		if (p instanceof java.sql.Date) {
+			Map<String, Object> date = new LinkedHashMap<String, Object>();
+			date.put("date", p.toString());
+			return date;
+		}
+		if (p instanceof Character) {
+			return p.toString();
+		}
+		return p;
+	}
+
+	//JSON numbers come back as Long or Double, the columns bound are int4
+	private static Object decode(Object v) {
+		if (v instanceof Map) {
+			return InputCodec.sqlDate((String) ((Map<?, ?>) v).get("date"));
+		}
+		if (v instanceof Long && (Long) v >= Integer.MIN_VALUE && (Long) v <= Integer.MAX_VALUE) {
+			return ((Long) v).intValue();
+		}
+		return v;
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a closed-loop load driver: every client thread picks an
+ * operation by the configured mix, runs it through Operations, waits a
+ * think time and repeats. After a warmup period the latency of every call
+ * is recorded per operation, along with
+ *   - errors: calls that failed in the database,
+ *   - conflicts: bookings turned down because the appointment or doctor
+ *     was taken (FULL, OTHER_DOCTOR, PAST ...), and booking retries after
+ *     serialization failures or deadlocks.
+ *
+ * The report is printed and also written as JSON so runs of different
+ * builds can be compared:
+ *
+ *   java -cp lib/*:bin/ WorkloadSimulator <dbname> <port> <user> [--threads 16]
+ *       [--duration 60] [--warmup 10] [--think 5]
+ *       [--mix MakeAppointment=60,ListAvailableAppointmentsOfDepartment=30,ListStatusNumberOfAppointmentsPerDoctor=10]
+ *       [--report workload.json]
+ *
+ * Think times are drawn from an exponential distribution with the given mean
+ * in milliseconds. The simulator writes real bookings, so run it against a
+ * scratch database.
+ *
+ */
+
+public class WorkloadSimulator{
+	static final String DEFAULT_MIX = "MakeAppointment=60,ListAvailableAppointmentsOfDepartment=30," +
+		"ListStatusNumberOfAppointmentsPerDoctor=5,FindPatientsCountWithStatus=5";
+
+	/**
+	 * Counters for one operation.
+	 */
+	static class OpStats{
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong conflicts = new AtomicLong();
+		final AtomicLong rejected = new AtomicLong();
+	}
+
+	private final Operations _ops;
+	private final SampleData _samples;
+	private final BookingEngine _booking;
+	private final QueryCache _cache;
+	private final String[] _names;
+	//cumulative weights, same order as _names
+	private final int[] _weights;
+	private final Map<String, OpStats> _stats = new LinkedHashMap<String, OpStats>();
+
+	/**
+	 * @param esql the database to load
+	 * @param mix the operation mix, "Operation=weight,..."
+	 */
+	public WorkloadSimulator(DBproject esql, String mix) throws Exception {
+		this._ops = new Operations(esql);
+		this._samples = new SampleData(esql, 100000);
+		this._booking = esql.getBookingEngine();
+		this._cache = esql.getQueryCache();
+		String[] parts = mix.split(",");
+		this._names = new String[parts.length];
+		this._weights = new int[parts.length];
+		int total = 0;
+		for (int i = 0; i < parts.length; ++i) {
+			String[] kv = parts[i].trim().split("=");
+			if (kv.length != 2 || !Operations.ALL.contains(kv[0].trim())) {
+				throw new IllegalArgumentException("Bad mix entry '" + parts[i] + "', expected <Operation>=<weight>");
+			}
+			this._names[i] = kv[0].trim();
+			total += Integer.parseInt(kv[1].trim());
+			this._weights[i] = total;
+			this._stats.put(this._names[i], new OpStats());
+		}
+		if (total <= 0) {
+			throw new IllegalArgumentException("The mix has no weight");
+		}
+	}
+
+	private String nextOp(ThreadLocalRandom rnd) {
+		int r = rnd.nextInt(this._weights[this._weights.length - 1]);
+		for (int i = 0; i < this._weights.length; ++i) {
+			if (r < this._weights[i]) {
+				return this._names[i];
+			}
+		}
+		return this._names[this._names.length - 1];
+	}
+
+	/**
+	 * Method to run the load and collect the report.
+	 *
+	 * @param threads the number of client threads
+	 * @param warmupSec seconds run before measuring
+	 * @param durationSec seconds measured
+	 * @param thinkMs mean think time between calls of one client
+	 * @return the report
+	 */
+	public Map<String, Object> run(int threads, int warmupSec, int durationSec, final double thinkMs) throws InterruptedException {
+		final long start = System.nanoTime();
+		final long measureFrom = start + warmupSec * 1000000000L;
+		final long stopAt = measureFrom + durationSec * 1000000000L;
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; ++t) {
+			Thread th = new Thread(() -> {
+				ThreadLocalRandom rnd = ThreadLocalRandom.current();
+				try {
+					while (System.nanoTime() < stopAt) {
+						String op = nextOp(rnd);
+						Map<String, Object> params = this._samples.params(op);
+						long t0 = System.nanoTime();
+						Map<String, Object> result = this._ops.run(op, params);
+						long t1 = System.nanoTime();
+						if (t0 >= measureFrom) {
+							record(op, result, t1 - t0);
+						}
+						if (thinkMs > 0) {
+							long sleep = (long) (-Math.log(1.0 - rnd.nextDouble()) * thinkMs);
+							Thread.sleep(Math.max(0, Math.min(sleep, (stopAt - t1) / 1000000L)));
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					done.countDown();
+				}
+			}, "client-" + t);
+			th.setDaemon(true);
+			th.start();
+		}
+
+		Thread.sleep(Math.max(0, (measureFrom - System.nanoTime()) / 1000000L));
+		long retriesAtStart = this._booking.getRetries();
+		done.await();
+		long retries = this._booking.getRetries() - retriesAtStart;
+
+		Map<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("timestamp", Instant.now().toString());
+		report.put("java", System.getProperty("java.version"));
+		report.put("threads", threads);
+		report.put("warmup_s", warmupSec);
+		report.put("duration_s", durationSec);
+		report.put("think_ms", thinkMs);
+		long total = 0;
+		long errors = 0;
+		long conflicts = retries;
+		Map<String, Object> ops = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, OpStats> e : this._stats.entrySet()) {
+			OpStats s = e.getValue();
+			Map<String, Object> m = s.latency.toMap();
+			m.put("throughput_per_s", round(s.latency.getCount() / (double) durationSec));
+			m.put("rejected", s.rejected.get());
+			m.put("conflicts", s.conflicts.get());
+			m.put("error_rate", rate(s.latency.getErrors(), s.latency.getCount()));
+			m.put("conflict_rate", rate(s.conflicts.get(), s.latency.getCount()));
+			ops.put(e.getKey(), m);
+			total += s.latency.getCount();
+			errors += s.latency.getErrors();
+			conflicts += s.conflicts.get();
+		}
+		report.put("throughput_per_s", round(total / (double) durationSec));
+		report.put("calls", total);
+		report.put("error_rate", rate(errors, total));
+		report.put("conflict_rate", rate(conflicts, total));
+		report.put("booking_retries", retries);
+		report.put("query_cache", this._cache.toMap());
+		report.put("operations", ops);
+		return report;
+	}
+
+	private void record(String op, Map<String, Object> result, long nanos) {
+		OpStats s = this._stats.get(op);
+		boolean error = result.containsKey("sqlstate");
+		s.latency.record(nanos, error);
+		if (!error && !Boolean.TRUE.equals(result.get("ok"))) {
+			//a booking lost to another booker is a conflict, anything else is plain rejected input
+			Object outcome = result.get("outcome");
+			if (outcome != null) {
+				s.conflicts.incrementAndGet();
+			} else {
+				s.rejected.incrementAndGet();
+			}
+		}
+	}
+
+	private static double rate(long n, long total) {
+		return total == 0 ? 0 : round((double) n / total);
+	}
+
+	private static double round(double v) {
+		return Math.round(v * 10000.0) / 10000.0;
+	}
+
+	/**
+	 * Method to print the report as a table.
+	 */
+	@SuppressWarnings("unchecked")
+	static void print(Map<String, Object> report, PrintStream out) {
+		out.println(String.format("%-40s %9s %10s %9s %9s %9s %9s %8s %8s", "operation", "calls", "ops/s",
+			"p50 ms", "p99 ms", "p999 ms", "max ms", "errors", "conflict"));
+		Map<String, Object> ops = (Map<String, Object>) report.get("operations");
+		for (Map.Entry<String, Object> e : ops.entrySet()) {
+			Map<String, Object> m = (Map<String, Object>) e.getValue();
+			out.println(String.format("%-40s %9d %10.1f %9.3f %9.3f %9.3f %9.3f %8.4f %8.4f", e.getKey(),
+				m.get("count"), m.get("throughput_per_s"), m.get("p50_ms"), m.get("p99_ms"), m.get("p999_ms"),
+				m.get("max_ms"), m.get("error_rate"), m.get("conflict_rate")));
+		}
+		out.println(String.format("%-40s %9d %10.1f %49s %8.4f %8.4f", "total", report.get("calls"),
+			report.get("throughput_per_s"), "", report.get("error_rate"), report.get("conflict_rate")));
+		out.println("booking retries: " + report.get("booking_retries"));
+		out.println("query cache hit rate: " + ((Map<String, Object>) report.get("query_cache")).get("hit_rate"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] WorkloadSimulator <dbname> <port> <user> " +
+				"[--threads n] [--duration s] [--warmup s] [--think ms] [--mix Op=w,...] [--report file]");
+			return;
+		}
+		int threads = 16;
+		int duration = 60;
+		int warmup = 10;
+		double think = 5;
+		String mix = DEFAULT_MIX;
+		String reportFile = "workload.json";
+		for (int i = 3; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--threads": threads = Integer.parseInt(args[++i]); break;
+				case "--duration": duration = Integer.parseInt(args[++i]); break;
+				case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+				case "--think": think = Double.parseDouble(args[++i]); break;
+				case "--mix": mix = args[++i]; break;
+				case "--report": reportFile = args[++i]; break;
+				default:
+					System.err.println("Unknown option " + args[i]);
+					return;
+			}
+		}
+		if (System.getProperty("cs166.pool.maxSize") == null) {
+			System.setProperty("cs166.pool.maxSize", Integer.toString(threads));
+		}
+
+		//keep the connection banner out of the report
+		PrintStream report = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Class.forName("org.postgresql.Driver");
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try {
+			WorkloadSimulator sim = new WorkloadSimulator(esql, mix);
+			Map<String, Object> result = sim.run(threads, warmup, duration, think);
+			result.put("mix", mix);
+			print(result, report);
+			Files.write(Paths.get(reportFile), Json.write(result).getBytes(StandardCharsets.UTF_8));
+			report.println("report written to " + reportFile);
+		} finally {
+			esql.cleanup();
+		}
+	}
+}
@@ -11,6 +11,29 @@ echo "Initializing tables .. "
 sleep 1
 psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
 
+echo "Loading data .. "
+sleep 1
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/load.sql
+
+echo "Initializing sequences .. "
+sleep 1
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create_sequences.sql
+
+echo "Partitioning appointments .. "
+sleep 1
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/partition_appointments.sql
+
+echo "Initializing maintained counts .. "
+sleep 1
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/capacity.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/status_pivot.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/patient_count.sql
+
+echo "Initializing functions .. "
+sleep 1
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/booking.sql
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/notify_changes.sql
+
 echo "Initializing indexes .. "
 sleep 1
 psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create_indexes.sql
@@ -0,0 +1,185 @@
+-------------
+---BOOKING---
+-------------
+-- make_appointment books an appointment for a patient with a doctor in one
+-- statement, so the whole booking is a single round trip and either happens
+-- completely or not at all.
+--
+-- The checks mirror the interactive menu:
+--   NO_APPOINTMENT  the appointment does not exist
+--   NO_DOCTOR       the doctor does not exist
+--   NO_TIMESLOT     none of the doctor's time slots covers the appointment's
+--   OTHER_DOCTOR    the appointment belongs to a different doctor
+--   PAST            the appointment is in the past (status PA)
+--   FULL            every shift of the doctor covering the appointment
+--                   already has patient_per_hour appointments on its day,
+--                   counting all the slots inside the shift (slot_load, see
+--                   capacity.sql); booking an appointment already linked to
+--                   the doctor takes no new place and is not checked
+-- Time slots are compared as minute ranges (time_slot_range, defined in
+-- capacity.sql), so '8:00-10:00' and '08:00-10:00' are the same slot and a
+-- 08:00-12:00 shift covers a 09:00-10:00 appointment.
+-- On success the status moves AV -> AC or AC -> WL (WL stays WL), the
+-- patient is registered if they are new (using p_new_patient_id, which the
+-- client reserves from patient_id_seq) and the searches / has_appointment
+-- links are written. The outcome is then BOOKED or WAITLISTED.
+--
+-- Concurrent bookers are kept correct with row locks, always taken in the
+-- same order so they cannot deadlock on each other:
+--   1. the Appointment row (FOR UPDATE), so the status read-modify-write
+--      and the ownership check are serialised per appointment;
+--   2. the Doctor row (FOR NO KEY UPDATE), so the capacity check and the
+--      has_appointment insert (whose trigger bumps slot_load) are serialised
+--      per doctor, while foreign key checks against the doctor (FOR KEY
+--      SHARE) still go through;
+--   3. a transaction advisory lock on the patient's identity, so two
+--      bookings for the same new patient register them only once.
+
+CREATE OR REPLACE FUNCTION make_appointment(
+	p_name VARCHAR,
+	p_gender VARCHAR,
+	p_age INTEGER,
+	p_address VARCHAR,
+	p_new_patient_id INTEGER,
+	p_doctor_id INTEGER,
+	p_appt_id INTEGER)
+RETURNS TABLE (
+	outcome VARCHAR,
+	booked_patient INTEGER,
+	patient_created BOOLEAN,
+	previous_status VARCHAR,
+	current_status VARCHAR,
+	booked_hospital INTEGER)
+LANGUAGE plpgsql AS $$
+DECLARE
+	v_slot VARCHAR;
+	v_date DATE;
+	v_status VARCHAR;
+	v_new_status VARCHAR;
+	v_hid INTEGER;
+	v_cap INTEGER;
+	v_owner INTEGER;
+	v_patient INTEGER;
+	v_created BOOLEAN := false;
+BEGIN
+	-- the date from appointment_ids narrows the lock and the update below to
+	-- the month holding the appointment
+	SELECT i.adate INTO v_date FROM appointment_ids i WHERE i.appnt_ID = p_appt_id;
+	SELECT a.time_slot, a.status INTO v_slot, v_status
+	FROM Appointment a WHERE a.appnt_ID = p_appt_id AND a.adate = v_date
+	FOR UPDATE;
+	IF NOT FOUND THEN
+		RETURN QUERY SELECT 'NO_APPOINTMENT'::VARCHAR, NULL::INTEGER, false, NULL::VARCHAR, NULL::VARCHAR, NULL::INTEGER;
+		RETURN;
+	END IF;
+
+	SELECT dep.hid INTO v_hid
+	FROM Doctor doc JOIN Department dep ON doc.did = dep.dept_ID
+	WHERE doc.doctor_ID = p_doctor_id
+	FOR NO KEY UPDATE OF doc;
+	IF NOT FOUND THEN
+		RETURN QUERY SELECT 'NO_DOCTOR'::VARCHAR, NULL::INTEGER, false, v_status, v_status, NULL::INTEGER;
+		RETURN;
+	END IF;
+
+	SELECT max(r.patient_per_hour) INTO v_cap
+	FROM request_maintenance r
+	WHERE r.did = p_doctor_id AND time_slot_range(r.time_slot) @> time_slot_range(v_slot);
+	IF v_cap IS NULL THEN
+		RETURN QUERY SELECT 'NO_TIMESLOT'::VARCHAR, NULL::INTEGER, false, v_status, v_status, v_hid;
+		RETURN;
+	END IF;
+
+	SELECT h.doctor_id INTO v_owner FROM has_appointment h WHERE h.appt_id = p_appt_id LIMIT 1;
+	IF FOUND AND v_owner <> p_doctor_id THEN
+		RETURN QUERY SELECT 'OTHER_DOCTOR'::VARCHAR, NULL::INTEGER, false, v_status, v_status, v_hid;
+		RETURN;
+	END IF;
+
+	IF v_status IS NULL OR v_status = 'PA' THEN
+		RETURN QUERY SELECT 'PAST'::VARCHAR, NULL::INTEGER, false, v_status, v_status, v_hid;
+		RETURN;
+	END IF;
+
+	IF v_owner IS NULL THEN
+		-- a shift's places are shared by every slot it covers, so its load is
+		-- the sum over the slots inside it rather than this slot's count alone
+		PERFORM 1 FROM request_maintenance r
+		WHERE r.did = p_doctor_id AND time_slot_range(r.time_slot) @> time_slot_range(v_slot)
+		AND r.patient_per_hour > (SELECT coalesce(sum(s.booked), 0) FROM slot_load s
+			WHERE s.did = p_doctor_id AND s.adate = v_date AND s.slot <@ time_slot_range(r.time_slot));
+		IF NOT FOUND THEN
+			RETURN QUERY SELECT 'FULL'::VARCHAR, NULL::INTEGER, false, v_status, v_status, v_hid;
+			RETURN;
+		END IF;
+	END IF;
+
+	PERFORM pg_advisory_xact_lock(hashtext(p_name || '|' || p_gender || '|' || p_age || '|' || coalesce(p_address, '')));
+	SELECT p.patient_ID INTO v_patient FROM Patient p
+	WHERE p.name = p_name AND p.gtype = p_gender AND p.age = p_age
+		AND p.address IS NOT DISTINCT FROM p_address
+	LIMIT 1;
+	IF NOT FOUND THEN
+		INSERT INTO Patient (patient_ID, name, gtype, age, address, number_of_appts)
+		VALUES (p_new_patient_id, p_name, p_gender, p_age, p_address, 0);
+		v_patient := p_new_patient_id;
+		v_created := true;
+	END IF;
+
+	v_new_status := CASE v_status WHEN 'AV' THEN 'AC' WHEN 'AC' THEN 'WL' ELSE v_status END;
+	IF v_new_status <> v_status THEN
+		UPDATE Appointment SET status = v_new_status WHERE appnt_ID = p_appt_id AND adate = v_date;
+	END IF;
+
+	INSERT INTO searches (hid, pid, aid) VALUES (v_hid, v_patient, p_appt_id) ON CONFLICT DO NOTHING;
+	INSERT INTO has_appointment (appt_id, doctor_id) VALUES (p_appt_id, p_doctor_id) ON CONFLICT DO NOTHING;
+
+	RETURN QUERY SELECT (CASE WHEN v_new_status = 'WL' THEN 'WAITLISTED' ELSE 'BOOKED' END)::VARCHAR,
+		v_patient, v_created, v_status, v_new_status, v_hid;
+END;
+$$;
+
+
+-- book_any_appointment books the earliest available appointment in one of
+-- the doctor's time slots. Candidates another booker is holding are skipped
+-- (SKIP LOCKED) instead of waited on, so concurrent callers spread over the
+-- free appointments. The chosen row stays locked for the rest of the
+-- transaction, so make_appointment picks it up without waiting.
+
+CREATE OR REPLACE FUNCTION book_any_appointment(
+	p_name VARCHAR,
+	p_gender VARCHAR,
+	p_age INTEGER,
+	p_address VARCHAR,
+	p_new_patient_id INTEGER,
+	p_doctor_id INTEGER)
+RETURNS TABLE (
+	outcome VARCHAR,
+	booked_patient INTEGER,
+	patient_created BOOLEAN,
+	previous_status VARCHAR,
+	current_status VARCHAR,
+	booked_hospital INTEGER,
+	booked_appointment INTEGER)
+LANGUAGE plpgsql AS $$
+DECLARE
+	v_appt INTEGER;
+BEGIN
+	SELECT a.appnt_ID INTO v_appt
+	FROM Appointment a
+	WHERE a.status = 'AV'
+		AND EXISTS (SELECT 1 FROM request_maintenance r
+			WHERE r.did = p_doctor_id AND time_slot_range(r.time_slot) @> time_slot_range(a.time_slot))
+		AND NOT EXISTS (SELECT 1 FROM has_appointment h WHERE h.appt_id = a.appnt_ID AND h.doctor_id <> p_doctor_id)
+	ORDER BY a.adate, a.appnt_ID
+	LIMIT 1
+	FOR UPDATE SKIP LOCKED;
+	IF NOT FOUND THEN
+		RETURN QUERY SELECT 'NO_APPOINTMENT'::VARCHAR, NULL::INTEGER, false, NULL::VARCHAR, NULL::VARCHAR, NULL::INTEGER, NULL::INTEGER;
+		RETURN;
+	END IF;
+
+	RETURN QUERY SELECT m.*, v_appt
+	FROM make_appointment(p_name, p_gender, p_age, p_address, p_new_patient_id, p_doctor_id, v_appt) m;
+END;
+$$;
@@ -0,0 +1,129 @@
+--------------
+---CAPACITY---
+--------------
+-- Booked counts kept up to date as has_appointment changes, so the capacity
+-- check of a booking is a primary key lookup instead of a count over the
+-- doctor's whole history:
+--   slot_load    appointments linked to a doctor per time slot and day;
+--                the slot is kept as its minute range (time_slot_range
+--                below), so '8:00-10:00' and '08:00-10:00' share one count.
+--                A shift's request_maintenance.patient_per_hour is checked
+--                against the sum over every slot inside it (slot <@ shift),
+--                which the (did, adate, slot) key reads as one index range
+--   doctor_load  appointments linked to a doctor in total
+--
+-- The counts are maintained by statement level triggers on has_appointment,
+-- so they are updated in the same transaction as the link and bulk inserts
+-- (COPY, INSERT ... SELECT) cost one aggregated update rather than one per
+-- row. The triggers reach an appointment through appointment_ids (see
+-- create.sql), whose date lets Postgres read only the month holding it.
+-- Archived appointments (see partition_appointments.sql) stay counted.
+-- Running this script again rebuilds the counts from scratch.
+
+-- time_slot_range reads a slot such as '8:00-10:00' or '08:00-10:00' as
+-- the range of minutes of the day it covers, so slots are compared by the
+-- time they cover rather than by how they are written. It accepts the same
+-- H:MM-H:MM / HH:MM-HH:MM form as TimeSlot.parse on the client and returns
+-- NULL for anything else. booking.sql compares slots with it too.
+
+CREATE OR REPLACE FUNCTION time_slot_range(p_slot VARCHAR) RETURNS int4range
+LANGUAGE plpgsql IMMUTABLE AS $$
+DECLARE
+	v_parts TEXT[];
+	v_start INTEGER;
+	v_end INTEGER;
+BEGIN
+	v_parts := regexp_match(p_slot, '^([0-9]{1,2}):([0-5][0-9])-([0-9]{1,2}):([0-5][0-9])$');
+	IF v_parts IS NULL THEN
+		RETURN NULL;
+	END IF;
+	v_start := v_parts[1]::INTEGER * 60 + v_parts[2]::INTEGER;
+	v_end := v_parts[3]::INTEGER * 60 + v_parts[4]::INTEGER;
+	IF v_end <= v_start OR v_end > 24 * 60 THEN
+		RETURN NULL;
+	END IF;
+	RETURN int4range(v_start, v_end);
+END;
+$$;
+
+
+-- slot_load is rebuilt below anyway; dropping it also replaces a table
+-- still keyed by the time slot text or by (did, slot, adate)
+DROP TABLE IF EXISTS slot_load;
+
+CREATE TABLE slot_load
+(
+	did INTEGER NOT NULL,
+	slot int4range NOT NULL,
+	adate DATE NOT NULL,
+	booked INTEGER NOT NULL,
+	PRIMARY KEY (did, adate, slot)
+);
+
+CREATE TABLE IF NOT EXISTS doctor_load
+(
+	did INTEGER NOT NULL,
+	booked INTEGER NOT NULL,
+	PRIMARY KEY (did)
+);
+
+CREATE OR REPLACE FUNCTION has_appointment_load() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+	-- archive_appointments moves history out, the counts keep it
+	IF current_setting('cs166.archiving', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('DELETE', 'UPDATE') THEN
+		UPDATE slot_load s SET booked = s.booked - o.n
+		FROM (SELECT l.doctor_id, time_slot_range(a.time_slot) AS slot, a.adate, count(*) AS n
+			FROM old_links l JOIN appointment_ids i ON i.appnt_ID = l.appt_id
+			JOIN Appointment a ON a.appnt_ID = i.appnt_ID AND a.adate = i.adate
+			WHERE time_slot_range(a.time_slot) IS NOT NULL
+			GROUP BY 1, 2, 3) o
+		WHERE s.did = o.doctor_id AND s.slot = o.slot AND s.adate = o.adate;
+		UPDATE doctor_load d SET booked = d.booked - o.n
+		FROM (SELECT l.doctor_id, count(*) AS n FROM old_links l GROUP BY l.doctor_id) o
+		WHERE d.did = o.doctor_id;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO slot_load AS s (did, slot, adate, booked)
+		SELECT l.doctor_id, time_slot_range(a.time_slot), a.adate, count(*)
+		FROM new_links l JOIN appointment_ids i ON i.appnt_ID = l.appt_id
+		JOIN Appointment a ON a.appnt_ID = i.appnt_ID AND a.adate = i.adate
+		WHERE time_slot_range(a.time_slot) IS NOT NULL
+		GROUP BY 1, 2, 3
+		ON CONFLICT (did, adate, slot) DO UPDATE SET booked = s.booked + EXCLUDED.booked;
+		INSERT INTO doctor_load AS d (did, booked)
+		SELECT l.doctor_id, count(*) FROM new_links l GROUP BY l.doctor_id
+		ON CONFLICT (did) DO UPDATE SET booked = d.booked + EXCLUDED.booked;
+	END IF;
+	RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS has_appointment_load_insert ON has_appointment;
+DROP TRIGGER IF EXISTS has_appointment_load_delete ON has_appointment;
+DROP TRIGGER IF EXISTS has_appointment_load_update ON has_appointment;
+
+CREATE TRIGGER has_appointment_load_insert AFTER INSERT ON has_appointment
+	REFERENCING NEW TABLE AS new_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_load();
+CREATE TRIGGER has_appointment_load_delete AFTER DELETE ON has_appointment
+	REFERENCING OLD TABLE AS old_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_load();
+CREATE TRIGGER has_appointment_load_update AFTER UPDATE ON has_appointment
+	REFERENCING OLD TABLE AS old_links NEW TABLE AS new_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_load();
+
+-- (re)build the counts from the links already in place
+TRUNCATE slot_load, doctor_load;
+
+INSERT INTO slot_load (did, slot, adate, booked)
+SELECT h.doctor_id, time_slot_range(a.time_slot), a.adate, count(*)
+FROM has_appointment_history h JOIN appointment_history a ON a.appnt_ID = h.appt_id
+WHERE time_slot_range(a.time_slot) IS NOT NULL
+GROUP BY 1, 2, 3;
+
+INSERT INTO doctor_load (did, booked)
+SELECT h.doctor_id, count(*) FROM has_appointment_history h GROUP BY h.doctor_id;
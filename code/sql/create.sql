@@ -2,12 +2,17 @@ DROP TABLE IF EXISTS Hospital CASCADE;--OK
 DROP TABLE IF EXISTS Patient CASCADE;--OK
 DROP TABLE IF EXISTS Department CASCADE;--OK
 DROP TABLE IF EXISTS Appointment CASCADE;--OK
+DROP TABLE IF EXISTS appointment_ids CASCADE;--OK
 DROP TABLE IF EXISTS Doctor CASCADE;--OK
 DROP TABLE IF EXISTS Staff CASCADE;--OK
 DROP TABLE IF EXISTS has_appointment CASCADE;--OK
 DROP TABLE IF EXISTS request_maintenance CASCADE;--OK
 DROP TABLE IF EXISTS searches CASCADE;--OK
 DROP TABLE IF EXISTS schedules CASCADE;--OK
+DROP TABLE IF EXISTS appointment_archive CASCADE;--OK
+DROP TABLE IF EXISTS has_appointment_archive CASCADE;--OK
+DROP TABLE IF EXISTS searches_archive CASCADE;--OK
+DROP TABLE IF EXISTS schedules_archive CASCADE;--OK
 
 
 -------------
@@ -68,15 +73,87 @@ CREATE TABLE Doctor
 );
 
 
+-- Appointment is range partitioned by adate, one partition per month, so
+-- the date range of a report only touches the months it covers. Rows of a
+-- month without a partition go to appointment_default until
+-- ensure_date_partitions (see partition_appointments.sql) creates it.
+-- The primary key has to include the partition key, so it does not keep
+-- appnt_ID unique on its own; appointment_ids below does.
 CREATE TABLE Appointment
 (	
 	appnt_ID INTEGER NOT NULL,	
 	adate DATE NOT NULL,
 	time_slot VARCHAR(11),
 	status _STATUS,
+	PRIMARY KEY (appnt_ID, adate)
+) PARTITION BY RANGE (adate);
+
+CREATE TABLE appointment_default PARTITION OF Appointment DEFAULT;
+
+-- appointment_ids registers the id and date of every live appointment. Its
+-- primary key keeps appnt_ID unique across the partitions, whoever picks the
+-- id (appointment_id_seq, BulkLoader, DataGenerator or a plain insert), and
+-- the links reference it in place of Appointment. The statement level
+-- triggers below keep it in step with Appointment; an id that belongs to an
+-- archived appointment is refused as well.
+CREATE TABLE appointment_ids
+(
+	appnt_ID INTEGER NOT NULL,
+	adate DATE NOT NULL,
 	PRIMARY KEY (appnt_ID)
 );
 
+CREATE OR REPLACE FUNCTION appointment_ids_sync() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+	v_id INTEGER;
+BEGIN
+	IF TG_OP = 'DELETE' THEN
+		-- the foreign keys of the links refuse it while one is left
+		DELETE FROM appointment_ids i USING old_appointments o WHERE i.appnt_ID = o.appnt_ID;
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO appointment_ids (appnt_ID, adate)
+		SELECT n.appnt_ID, n.adate FROM new_appointments n;
+	ELSE
+		-- rows updated to the same id would only be registered once
+		SELECT n.appnt_ID INTO v_id FROM new_appointments n
+		GROUP BY n.appnt_ID HAVING count(*) > 1 LIMIT 1;
+		IF v_id IS NOT NULL THEN
+			RAISE EXCEPTION 'appointment id % is already in use', v_id
+				USING ERRCODE = 'unique_violation';
+		END IF;
+		DELETE FROM appointment_ids i USING old_appointments o
+		WHERE i.appnt_ID = o.appnt_ID
+			AND NOT EXISTS (SELECT 1 FROM new_appointments n WHERE n.appnt_ID = o.appnt_ID);
+		UPDATE appointment_ids i SET adate = n.adate FROM new_appointments n
+		WHERE i.appnt_ID = n.appnt_ID AND i.adate <> n.adate;
+		INSERT INTO appointment_ids (appnt_ID, adate)
+		SELECT n.appnt_ID, n.adate FROM new_appointments n
+		WHERE NOT EXISTS (SELECT 1 FROM old_appointments o WHERE o.appnt_ID = n.appnt_ID);
+	END IF;
+	SELECT min(n.appnt_ID) INTO v_id FROM new_appointments n
+	WHERE EXISTS (SELECT 1 FROM appointment_archive x WHERE x.appnt_ID = n.appnt_ID);
+	IF v_id IS NOT NULL THEN
+		RAISE EXCEPTION 'appointment id % is already in use', v_id
+			USING ERRCODE = 'unique_violation',
+				DETAIL = 'It belongs to an archived appointment.';
+	END IF;
+	RETURN NULL;
+END;
+$$;
+
+CREATE TRIGGER appointment_ids_insert AFTER INSERT ON Appointment
+	REFERENCING NEW TABLE AS new_appointments
+	FOR EACH STATEMENT EXECUTE PROCEDURE appointment_ids_sync();
+CREATE TRIGGER appointment_ids_delete AFTER DELETE ON Appointment
+	REFERENCING OLD TABLE AS old_appointments
+	FOR EACH STATEMENT EXECUTE PROCEDURE appointment_ids_sync();
+CREATE TRIGGER appointment_ids_update AFTER UPDATE ON Appointment
+	REFERENCING OLD TABLE AS old_appointments NEW TABLE AS new_appointments
+	FOR EACH STATEMENT EXECUTE PROCEDURE appointment_ids_sync();
+
 
 
 ---------------
@@ -103,7 +180,7 @@ CREATE TABLE searches
 	PRIMARY KEY (hid,pid,aid),
 	FOREIGN KEY (hid) REFERENCES Hospital(hospital_ID),
 	FOREIGN KEY (pid) REFERENCES Patient(patient_ID),
-	FOREIGN KEY (aid) REFERENCES Appointment(appnt_ID)
+	FOREIGN KEY (aid) REFERENCES appointment_ids(appnt_ID)
 );
 
 CREATE TABLE schedules
@@ -111,7 +188,7 @@ CREATE TABLE schedules
 	appt_id INTEGER NOT NULL,
 	staff_id INTEGER NOT NULL,	
 	PRIMARY KEY (appt_id,staff_id),
-	FOREIGN KEY (appt_id) REFERENCES Appointment(appnt_ID),
+	FOREIGN KEY (appt_id) REFERENCES appointment_ids(appnt_ID),
 	FOREIGN KEY (staff_id) REFERENCES Staff(staff_ID)
 );
 
@@ -120,104 +197,60 @@ CREATE TABLE has_appointment
 	appt_id INTEGER NOT NULL,
 	doctor_id INTEGER NOT NULL,	
 	PRIMARY KEY (appt_id,doctor_id),
-	FOREIGN KEY (appt_id) REFERENCES Appointment(appnt_ID),
+	FOREIGN KEY (appt_id) REFERENCES appointment_ids(appnt_ID),
 	FOREIGN KEY (doctor_id) REFERENCES Doctor(doctor_ID)
 );
 
-----------------------------
--- INSERT DATA STATEMENTS --
-----------------------------
-
-COPY Patient (
-	patient_ID ,
-	name ,	
-	gtype ,
-	age ,
-	address ,
-	number_of_appts
-)
-FROM 'patient.csv'
-WITH DELIMITER ',';
-
-
-COPY Hospital (
-	hospital_ID,
-	name
-)
-FROM 'hospital.csv'
-WITH DELIMITER ',';
-
-
-COPY Department (
-	dept_ID,
-	name,
-	hid
-)
-FROM 'department.csv'
-WITH DELIMITER ',';
-
-
-COPY Staff (
-	staff_ID,
-	name,
-	hid
-)
-FROM 'staff.csv'
-WITH DELIMITER ',';
-
-
-COPY Doctor (
-	doctor_ID,
-	name,
-	specialty,
-	did
-)
-FROM 'doctor.csv'
-WITH DELIMITER ',';
-
-
-COPY Appointment (
-	appnt_ID,
-	adate,
-	time_slot,
-	status
-)
-FROM 'appointment.csv'
-WITH DELIMITER ',';
-
-
-COPY request_maintenance (
-	patient_per_hour,
-	dept_name,
-	time_slot,
-	did,
-	sid
-)
-FROM 'request_maintenance.csv'
-WITH DELIMITER ',';
-
-
-COPY searches (
-	hid,
-	pid,
-	aid
-)
-FROM 'searches.csv'
-WITH DELIMITER ',';
-
-
-COPY schedules (
-	appt_id,
-	staff_id
-)
-FROM 'schedules.csv'
-WITH DELIMITER ',';
-
-
-COPY has_appointment (
-	appt_id,
-	doctor_id
-)
-FROM 'has_appointment.csv'
-WITH DELIMITER ',';
 
+-------------
+---ARCHIVE---
+-------------
+-- Cold storage for past (PA) appointments and their links, filled by
+-- archive_appointments (see partition_appointments.sql). The archive is
+-- partitioned by year. The *_history views read the live and the archived
+-- rows together.
+
+CREATE TABLE appointment_archive
+(
+	appnt_ID INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	time_slot VARCHAR(11),
+	status _STATUS,
+	PRIMARY KEY (appnt_ID, adate)
+) PARTITION BY RANGE (adate);
+
+CREATE TABLE appointment_archive_default PARTITION OF appointment_archive DEFAULT;
+
+CREATE TABLE searches_archive
+(
+	hid INTEGER NOT NULL,
+	pid INTEGER NOT NULL,
+	aid INTEGER NOT NULL,
+	PRIMARY KEY (hid,pid,aid)
+);
+
+CREATE TABLE schedules_archive
+(
+	appt_id INTEGER NOT NULL,
+	staff_id INTEGER NOT NULL,
+	PRIMARY KEY (appt_id,staff_id)
+);
+
+CREATE TABLE has_appointment_archive
+(
+	appt_id INTEGER NOT NULL,
+	doctor_id INTEGER NOT NULL,
+	PRIMARY KEY (appt_id,doctor_id)
+);
+
+CREATE VIEW appointment_history AS
+	SELECT appnt_ID, adate, time_slot, status FROM Appointment
+	UNION ALL SELECT appnt_ID, adate, time_slot, status FROM appointment_archive;
+
+CREATE VIEW searches_history AS
+	SELECT hid, pid, aid FROM searches
+	UNION ALL SELECT hid, pid, aid FROM searches_archive;
+
+CREATE VIEW has_appointment_history AS
+	SELECT appt_id, doctor_id FROM has_appointment
+	UNION ALL SELECT appt_id, doctor_id FROM has_appointment_archive;
@@ -27,3 +27,6 @@ on schedules (appt_id, staff_id);
 
 create index has_appointment_index
 on has_appointment (appt_id, doctor_id);
+
+create index searches_aid_index
+on searches (aid, pid);
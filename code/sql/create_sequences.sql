@@ -0,0 +1,16 @@
+---------------
+---SEQUENCES---
+---------------
+-- Key generators for the tables the application inserts into. Each nextval
+-- reserves a block of INCREMENT BY ids that a client hands out locally
+-- (hi-lo), so the increment is also the client side block size.
+
+CREATE SEQUENCE IF NOT EXISTS doctor_id_seq INCREMENT BY 50 MINVALUE 0 START WITH 0;
+CREATE SEQUENCE IF NOT EXISTS patient_id_seq INCREMENT BY 50 MINVALUE 0 START WITH 0;
+CREATE SEQUENCE IF NOT EXISTS appointment_id_seq INCREMENT BY 50 MINVALUE 0 START WITH 0;
+
+-- start handing out ids right after the rows that were bulk loaded; archived
+-- appointments keep their ids taken (see appointment_ids in create.sql)
+SELECT setval('doctor_id_seq', (SELECT COALESCE(MAX(doctor_ID), -1) + 1 FROM Doctor), false);
+SELECT setval('patient_id_seq', (SELECT COALESCE(MAX(patient_ID), -1) + 1 FROM Patient), false);
+SELECT setval('appointment_id_seq', (SELECT COALESCE(MAX(appnt_ID), -1) + 1 FROM appointment_history), false);
@@ -0,0 +1,97 @@
+--------------------
+---NOTIFY CHANGES---
+--------------------
+-- Clients that keep the available appointments in memory (AvailabilityIndex)
+-- LISTEN on the appointment_changes channel and re-read only what changed
+-- instead of reloading every available appointment.
+--
+-- Statement level triggers send, on commit, the ids of the appointments whose
+-- row or links changed as a comma separated payload. A change to a doctor or
+-- a department, or a change too large for one notification (the payload is
+-- limited to 8000 bytes), is sent as '*', which asks for a full reload.
+-- Archiving (see partition_appointments.sql) only moves past appointments,
+-- which are never listed, and sends nothing.
+-- Running this script again replaces the triggers.
+
+CREATE OR REPLACE FUNCTION notify_ids(p_ids TEXT) RETURNS void
+LANGUAGE plpgsql AS $$
+BEGIN
+	IF p_ids IS NULL THEN
+		RETURN;
+	END IF;
+	PERFORM pg_notify('appointment_changes', CASE WHEN length(p_ids) > 7900 THEN '*' ELSE p_ids END);
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION appointment_notify() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+	IF current_setting('cs166.archiving', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'DELETE' THEN
+		PERFORM notify_ids((SELECT string_agg(DISTINCT o.appnt_ID::TEXT, ',') FROM old_rows o));
+	ELSE
+		PERFORM notify_ids((SELECT string_agg(DISTINCT n.appnt_ID::TEXT, ',') FROM new_rows n));
+	END IF;
+	RETURN NULL;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION has_appointment_notify() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+	IF current_setting('cs166.archiving', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'DELETE' THEN
+		PERFORM notify_ids((SELECT string_agg(DISTINCT o.appt_id::TEXT, ',') FROM old_links o));
+	ELSIF TG_OP = 'INSERT' THEN
+		PERFORM notify_ids((SELECT string_agg(DISTINCT n.appt_id::TEXT, ',') FROM new_links n));
+	ELSE
+		PERFORM notify_ids((SELECT string_agg(DISTINCT l.appt_id::TEXT, ',')
+			FROM (SELECT o.appt_id FROM old_links o UNION SELECT n.appt_id FROM new_links n) l));
+	END IF;
+	RETURN NULL;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION reference_notify() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+	PERFORM pg_notify('appointment_changes', '*');
+	RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS appointment_notify_insert ON Appointment;
+DROP TRIGGER IF EXISTS appointment_notify_delete ON Appointment;
+DROP TRIGGER IF EXISTS appointment_notify_update ON Appointment;
+DROP TRIGGER IF EXISTS has_appointment_notify_insert ON has_appointment;
+DROP TRIGGER IF EXISTS has_appointment_notify_delete ON has_appointment;
+DROP TRIGGER IF EXISTS has_appointment_notify_update ON has_appointment;
+DROP TRIGGER IF EXISTS doctor_notify ON Doctor;
+DROP TRIGGER IF EXISTS department_notify ON Department;
+
+CREATE TRIGGER appointment_notify_insert AFTER INSERT ON Appointment
+	REFERENCING NEW TABLE AS new_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE appointment_notify();
+CREATE TRIGGER appointment_notify_delete AFTER DELETE ON Appointment
+	REFERENCING OLD TABLE AS old_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE appointment_notify();
+CREATE TRIGGER appointment_notify_update AFTER UPDATE ON Appointment
+	REFERENCING NEW TABLE AS new_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE appointment_notify();
+CREATE TRIGGER has_appointment_notify_insert AFTER INSERT ON has_appointment
+	REFERENCING NEW TABLE AS new_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_notify();
+CREATE TRIGGER has_appointment_notify_delete AFTER DELETE ON has_appointment
+	REFERENCING OLD TABLE AS old_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_notify();
+CREATE TRIGGER has_appointment_notify_update AFTER UPDATE ON has_appointment
+	REFERENCING OLD TABLE AS old_links NEW TABLE AS new_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_notify();
+CREATE TRIGGER doctor_notify AFTER INSERT OR UPDATE OR DELETE ON Doctor
+	FOR EACH STATEMENT EXECUTE PROCEDURE reference_notify();
+CREATE TRIGGER department_notify AFTER INSERT OR UPDATE OR DELETE ON Department
+	FOR EACH STATEMENT EXECUTE PROCEDURE reference_notify();
@@ -0,0 +1,144 @@
+------------------
+---PARTITIONING---
+------------------
+-- Appointment is range partitioned by adate, one partition per month (see
+-- create.sql), so a query that filters on adate only reads the months it
+-- covers. The reports do; a lookup by id that knows the appointment's date
+-- (AddAppointment, or appointment_ids, see create.sql) adds it for the same
+-- reason.
+--
+-- Past appointments (status PA) do not change any more. archive_appointments
+-- moves the old ones, together with their has_appointment, searches and
+-- schedules links, into the *_archive tables, where they no longer take up
+-- room in the scans and indexes of the live tables. AppointmentArchiver
+-- calls it in the background and keeps the monthly partitions ahead of the
+-- calendar with ensure_date_partitions.
+--
+-- The maintained counts (capacity.sql, status_pivot.sql, patient_count.sql)
+-- keep counting archived appointments: their triggers skip the archiving
+-- deletes and their rebuilds read the *_history views.
+--
+-- A foreign key cannot reference appnt_ID alone once the primary key holds
+-- the partition key too, so the links reference appointment_ids, the
+-- registry of live appointment ids (see create.sql), instead.
+--
+-- Run after the data is loaded; running it again keeps the partitions and
+-- the rows in place.
+
+-- ensure_date_partitions creates the missing 'month' or 'year' partitions of
+-- p_parent (Appointment or appointment_archive) from p_from to p_to, moving
+-- the rows they cover out of the default partition first. Partitions are
+-- named <parent>_pYYYYMM or <parent>_pYYYY. Returns the number created.
+
+CREATE OR REPLACE FUNCTION ensure_date_partitions(
+	p_parent TEXT,
+	p_from DATE,
+	p_to DATE,
+	p_unit TEXT)
+RETURNS INTEGER
+LANGUAGE plpgsql AS $$
+DECLARE
+	v_parent TEXT := lower(p_parent);
+	v_start DATE;
+	v_end DATE;
+	v_name TEXT;
+	v_created INTEGER := 0;
+BEGIN
+	IF p_unit NOT IN ('month', 'year') THEN
+		RAISE EXCEPTION 'unsupported partition unit %', p_unit;
+	END IF;
+	v_start := date_trunc(p_unit, p_from)::DATE;
+	WHILE v_start <= p_to LOOP
+		v_end := (v_start + ('1 ' || p_unit)::INTERVAL)::DATE;
+		v_name := v_parent || '_p' || to_char(v_start, CASE p_unit WHEN 'year' THEN 'YYYY' ELSE 'YYYYMM' END);
+		IF to_regclass(v_name) IS NULL THEN
+			-- two callers creating the same partition take turns
+			PERFORM pg_advisory_xact_lock(hashtext(v_name));
+			IF to_regclass(v_name) IS NULL THEN
+				EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', v_name, v_parent);
+				EXECUTE format('WITH moved AS (DELETE FROM %I WHERE adate >= $1 AND adate < $2 RETURNING *) '
+					'INSERT INTO %I SELECT * FROM moved', v_parent || '_default', v_name) USING v_start, v_end;
+				EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+					v_parent, v_name, v_start, v_end);
+				v_created := v_created + 1;
+			END IF;
+		END IF;
+		v_start := v_end;
+	END LOOP;
+	RETURN v_created;
+END;
+$$;
+
+
+-- archive_appointments moves at most p_limit PA appointments dated before
+-- p_before, oldest first, and their links into the archive. Appointments
+-- another transaction holds (a booking looking at them) are skipped rather
+-- than waited on. The links go first, so the foreign keys on
+-- appointment_ids let the appointments go. Returns the number of
+-- appointments moved.
+
+CREATE OR REPLACE FUNCTION archive_appointments(
+	p_before DATE,
+	p_limit INTEGER)
+RETURNS INTEGER
+LANGUAGE plpgsql AS $$
+DECLARE
+	v_ids INTEGER[];
+	v_from DATE;
+	v_to DATE;
+BEGIN
+	SELECT array_agg(x.appnt_ID), min(x.adate), max(x.adate) INTO v_ids, v_from, v_to
+	FROM (SELECT a.appnt_ID, a.adate FROM Appointment a
+		WHERE a.status = 'PA' AND a.adate < p_before
+		ORDER BY a.adate
+		LIMIT p_limit
+		FOR UPDATE SKIP LOCKED) x;
+	IF v_ids IS NULL THEN
+		RETURN 0;
+	END IF;
+	PERFORM ensure_date_partitions('appointment_archive', v_from, v_to, 'year');
+
+	-- the maintained counts keep the archived appointments, see above
+	PERFORM set_config('cs166.archiving', 'on', true);
+
+	WITH moved AS (DELETE FROM has_appointment h WHERE h.appt_id = ANY (v_ids) RETURNING h.appt_id, h.doctor_id)
+	INSERT INTO has_appointment_archive (appt_id, doctor_id) SELECT * FROM moved;
+	WITH moved AS (DELETE FROM searches s WHERE s.aid = ANY (v_ids) RETURNING s.hid, s.pid, s.aid)
+	INSERT INTO searches_archive (hid, pid, aid) SELECT * FROM moved;
+	WITH moved AS (DELETE FROM schedules s WHERE s.appt_id = ANY (v_ids) RETURNING s.appt_id, s.staff_id)
+	INSERT INTO schedules_archive (appt_id, staff_id) SELECT * FROM moved;
+	-- the date range lets the delete skip the months that hold none of them
+	WITH moved AS (DELETE FROM Appointment a
+		WHERE a.appnt_ID = ANY (v_ids) AND a.adate BETWEEN v_from AND v_to
+		RETURNING a.appnt_ID, a.adate, a.time_slot, a.status)
+	INSERT INTO appointment_archive (appnt_ID, adate, time_slot, status) SELECT * FROM moved;
+
+	PERFORM set_config('cs166.archiving', 'off', true);
+	RETURN cardinality(v_ids);
+END;
+$$;
+
+
+-- the load put every row into appointment_default; take it out, create the
+-- months it covers and route the rows through Appointment in one pass,
+-- instead of moving them out of the default partition month by month. The
+-- rows keep their ids, which appointment_ids already holds, so its insert
+-- trigger stays off while they go back in.
+BEGIN;
+
+ALTER TABLE Appointment DETACH PARTITION appointment_default;
+ALTER TABLE appointment_default RENAME TO appointment_loaded;
+CREATE TABLE appointment_default PARTITION OF Appointment DEFAULT;
+
+SELECT ensure_date_partitions('appointment', coalesce(min(adate), current_date),
+	greatest(coalesce(max(adate), current_date), current_date + 90), 'month')
+FROM appointment_loaded;
+
+ALTER TABLE Appointment DISABLE TRIGGER appointment_ids_insert;
+INSERT INTO Appointment (appnt_ID, adate, time_slot, status)
+SELECT appnt_ID, adate, time_slot, status FROM appointment_loaded;
+ALTER TABLE Appointment ENABLE TRIGGER appointment_ids_insert;
+
+DROP TABLE appointment_loaded;
+
+COMMIT;
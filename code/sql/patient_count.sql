@@ -0,0 +1,222 @@
+-------------------
+---PATIENT COUNT---
+-------------------
+-- doctor_status_patients holds, per appointment status and doctor, how many
+-- distinct patients (searches.pid) have an appointment in that status linked
+-- to the doctor (has_appointment). It backs the "patients count with status"
+-- report, which becomes a primary key range scan instead of a four way join
+-- and a count(distinct ...).
+--
+-- A patient can have several appointments with the same doctor, so the
+-- number of those appointments is kept per (doctor, status, patient) in
+-- doctor_status_patient, and the distinct count only moves when that number
+-- goes from 0 to 1 or back. Both tables are maintained by statement level
+-- triggers on searches, has_appointment and Appointment (status changes) in
+-- the writing transaction; searches_aid_index in create_indexes.sql keeps
+-- the lookups of an appointment's patients cheap, and the appointment itself
+-- is found through appointment_ids, by id and date, so only its month is
+-- read. Archived appointments (see partition_appointments.sql) stay
+-- counted. Running this script again rebuilds both tables from scratch.
+
+CREATE TABLE IF NOT EXISTS doctor_status_patient
+(
+	doctor_id INTEGER NOT NULL,
+	status VARCHAR(2) NOT NULL,
+	pid INTEGER NOT NULL,
+	appts INTEGER NOT NULL,
+	PRIMARY KEY (doctor_id, status, pid)
+);
+
+CREATE TABLE IF NOT EXISTS doctor_status_patients
+(
+	status VARCHAR(2) NOT NULL,
+	doctor_id INTEGER NOT NULL,
+	patients INTEGER NOT NULL,
+	PRIMARY KEY (status, doctor_id)
+);
+
+-- applies (doctor, status, patient, +-appointments) deltas to both tables
+CREATE OR REPLACE FUNCTION doctor_patient_apply(
+	p_doctors INTEGER[],
+	p_statuses VARCHAR[],
+	p_pids INTEGER[],
+	p_counts BIGINT[])
+RETURNS void
+LANGUAGE sql AS $$
+	WITH delta AS (
+		SELECT d.doctor_id, d.status, d.pid, sum(d.n)::INTEGER AS n
+		FROM unnest(p_doctors, p_statuses, p_pids, p_counts) AS d (doctor_id, status, pid, n)
+		WHERE d.status IS NOT NULL
+		GROUP BY d.doctor_id, d.status, d.pid
+		HAVING sum(d.n) <> 0
+	), applied AS (
+		INSERT INTO doctor_status_patient AS x (doctor_id, status, pid, appts)
+		SELECT doctor_id, status, pid, n FROM delta
+		ON CONFLICT (doctor_id, status, pid) DO UPDATE SET appts = x.appts + EXCLUDED.appts
+		RETURNING x.doctor_id, x.status, x.pid, x.appts
+	)
+	INSERT INTO doctor_status_patients AS c (status, doctor_id, patients)
+	SELECT a.status, a.doctor_id,
+		sum(CASE WHEN a.appts > 0 AND a.appts - d.n <= 0 THEN 1
+			WHEN a.appts <= 0 AND a.appts - d.n > 0 THEN -1
+			ELSE 0 END)
+	FROM applied a JOIN delta d ON d.doctor_id = a.doctor_id AND d.status = a.status AND d.pid = a.pid
+	GROUP BY a.status, a.doctor_id
+	ON CONFLICT (status, doctor_id) DO UPDATE SET patients = c.patients + EXCLUDED.patients;
+
+	DELETE FROM doctor_status_patient x
+	USING unnest(p_doctors, p_statuses, p_pids) AS k (doctor_id, status, pid)
+	WHERE x.doctor_id = k.doctor_id AND x.status = k.status AND x.pid = k.pid AND x.appts = 0;
+$$;
+
+-- a patient searching an appointment counts for every doctor it is linked to
+CREATE OR REPLACE FUNCTION searches_patients() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+	v_doctors INTEGER[];
+	v_statuses VARCHAR[];
+	v_pids INTEGER[];
+	v_counts BIGINT[];
+BEGIN
+	-- archive_appointments moves history out, the counts keep it
+	IF current_setting('cs166.archiving', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('DELETE', 'UPDATE') THEN
+		SELECT array_agg(d.doctor_id), array_agg(d.status), array_agg(d.pid), array_agg(-d.n)
+		INTO v_doctors, v_statuses, v_pids, v_counts
+		FROM (SELECT h.doctor_id, a.status, s.pid, count(*) AS n
+			FROM old_searches s JOIN has_appointment h ON h.appt_id = s.aid JOIN appointment_ids i ON i.appnt_ID = s.aid
+			JOIN Appointment a ON a.appnt_ID = i.appnt_ID AND a.adate = i.adate
+			GROUP BY h.doctor_id, a.status, s.pid) d;
+		IF v_doctors IS NOT NULL THEN
+			PERFORM doctor_patient_apply(v_doctors, v_statuses, v_pids, v_counts);
+		END IF;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		SELECT array_agg(d.doctor_id), array_agg(d.status), array_agg(d.pid), array_agg(d.n)
+		INTO v_doctors, v_statuses, v_pids, v_counts
+		FROM (SELECT h.doctor_id, a.status, s.pid, count(*) AS n
+			FROM new_searches s JOIN has_appointment h ON h.appt_id = s.aid JOIN appointment_ids i ON i.appnt_ID = s.aid
+			JOIN Appointment a ON a.appnt_ID = i.appnt_ID AND a.adate = i.adate
+			GROUP BY h.doctor_id, a.status, s.pid) d;
+		IF v_doctors IS NOT NULL THEN
+			PERFORM doctor_patient_apply(v_doctors, v_statuses, v_pids, v_counts);
+		END IF;
+	END IF;
+	RETURN NULL;
+END;
+$$;
+
+-- linking an appointment to a doctor counts every patient searching it
+CREATE OR REPLACE FUNCTION has_appointment_patients() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+	v_doctors INTEGER[];
+	v_statuses VARCHAR[];
+	v_pids INTEGER[];
+	v_counts BIGINT[];
+BEGIN
+	-- archive_appointments moves history out, the counts keep it
+	IF current_setting('cs166.archiving', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('DELETE', 'UPDATE') THEN
+		SELECT array_agg(d.doctor_id), array_agg(d.status), array_agg(d.pid), array_agg(-d.n)
+		INTO v_doctors, v_statuses, v_pids, v_counts
+		FROM (SELECT l.doctor_id, a.status, s.pid, count(*) AS n
+			FROM old_links l JOIN searches s ON s.aid = l.appt_id JOIN appointment_ids i ON i.appnt_ID = l.appt_id
+			JOIN Appointment a ON a.appnt_ID = i.appnt_ID AND a.adate = i.adate
+			GROUP BY l.doctor_id, a.status, s.pid) d;
+		IF v_doctors IS NOT NULL THEN
+			PERFORM doctor_patient_apply(v_doctors, v_statuses, v_pids, v_counts);
+		END IF;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		SELECT array_agg(d.doctor_id), array_agg(d.status), array_agg(d.pid), array_agg(d.n)
+		INTO v_doctors, v_statuses, v_pids, v_counts
+		FROM (SELECT l.doctor_id, a.status, s.pid, count(*) AS n
+			FROM new_links l JOIN searches s ON s.aid = l.appt_id JOIN appointment_ids i ON i.appnt_ID = l.appt_id
+			JOIN Appointment a ON a.appnt_ID = i.appnt_ID AND a.adate = i.adate
+			GROUP BY l.doctor_id, a.status, s.pid) d;
+		IF v_doctors IS NOT NULL THEN
+			PERFORM doctor_patient_apply(v_doctors, v_statuses, v_pids, v_counts);
+		END IF;
+	END IF;
+	RETURN NULL;
+END;
+$$;
+
+-- a status change moves the appointment's patients from one status to another
+CREATE OR REPLACE FUNCTION appointment_patients() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+	v_doctors INTEGER[];
+	v_statuses VARCHAR[];
+	v_pids INTEGER[];
+	v_counts BIGINT[];
+BEGIN
+	SELECT array_agg(d.doctor_id), array_agg(d.status), array_agg(d.pid), array_agg(d.n)
+	INTO v_doctors, v_statuses, v_pids, v_counts
+	FROM (
+		SELECT h.doctor_id, x.status, s.pid, sum(x.delta) AS n
+		FROM old_appointments o
+		JOIN new_appointments n ON n.appnt_ID = o.appnt_ID
+		CROSS JOIN LATERAL (VALUES (o.status, -1), (n.status, 1)) AS x (status, delta)
+		JOIN has_appointment h ON h.appt_id = n.appnt_ID
+		JOIN searches s ON s.aid = n.appnt_ID
+		WHERE o.status IS DISTINCT FROM n.status
+		GROUP BY h.doctor_id, x.status, s.pid
+	) d;
+	IF v_doctors IS NOT NULL THEN
+		PERFORM doctor_patient_apply(v_doctors, v_statuses, v_pids, v_counts);
+	END IF;
+	RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS searches_patients_insert ON searches;
+DROP TRIGGER IF EXISTS searches_patients_delete ON searches;
+DROP TRIGGER IF EXISTS searches_patients_update ON searches;
+DROP TRIGGER IF EXISTS has_appointment_patients_insert ON has_appointment;
+DROP TRIGGER IF EXISTS has_appointment_patients_delete ON has_appointment;
+DROP TRIGGER IF EXISTS has_appointment_patients_update ON has_appointment;
+DROP TRIGGER IF EXISTS appointment_patients_update ON Appointment;
+
+CREATE TRIGGER searches_patients_insert AFTER INSERT ON searches
+	REFERENCING NEW TABLE AS new_searches
+	FOR EACH STATEMENT EXECUTE PROCEDURE searches_patients();
+CREATE TRIGGER searches_patients_delete AFTER DELETE ON searches
+	REFERENCING OLD TABLE AS old_searches
+	FOR EACH STATEMENT EXECUTE PROCEDURE searches_patients();
+CREATE TRIGGER searches_patients_update AFTER UPDATE ON searches
+	REFERENCING OLD TABLE AS old_searches NEW TABLE AS new_searches
+	FOR EACH STATEMENT EXECUTE PROCEDURE searches_patients();
+CREATE TRIGGER has_appointment_patients_insert AFTER INSERT ON has_appointment
+	REFERENCING NEW TABLE AS new_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_patients();
+CREATE TRIGGER has_appointment_patients_delete AFTER DELETE ON has_appointment
+	REFERENCING OLD TABLE AS old_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_patients();
+CREATE TRIGGER has_appointment_patients_update AFTER UPDATE ON has_appointment
+	REFERENCING OLD TABLE AS old_links NEW TABLE AS new_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_patients();
+CREATE TRIGGER appointment_patients_update AFTER UPDATE ON Appointment
+	REFERENCING OLD TABLE AS old_appointments NEW TABLE AS new_appointments
+	FOR EACH STATEMENT EXECUTE PROCEDURE appointment_patients();
+
+-- (re)build both tables from the links already in place
+TRUNCATE doctor_status_patient, doctor_status_patients;
+
+INSERT INTO doctor_status_patient (doctor_id, status, pid, appts)
+SELECT h.doctor_id, a.status, s.pid, count(*)
+FROM has_appointment_history h
+JOIN appointment_history a ON a.appnt_ID = h.appt_id
+JOIN searches_history s ON s.aid = h.appt_id
+WHERE a.status IS NOT NULL
+GROUP BY h.doctor_id, a.status, s.pid;
+
+INSERT INTO doctor_status_patients (status, doctor_id, patients)
+SELECT x.status, x.doctor_id, count(*)
+FROM doctor_status_patient x
+GROUP BY x.status, x.doctor_id;
@@ -0,0 +1,107 @@
+------------------
+---STATUS PIVOT---
+------------------
+-- doctor_status_count holds, per doctor, how many of the appointments linked
+-- to them (has_appointment) are in each status. It backs the "status number
+-- of appointments per doctor" report, which becomes a scan of this table
+-- instead of a join and group by over every link.
+--
+-- The counts are maintained by statement level triggers on has_appointment
+-- (links added or removed) and on Appointment (status changes), in the same
+-- transaction as the change; they look the linked appointments up by id and
+-- date (appointment_ids), so each lookup stays in one monthly partition.
+-- Archived appointments (see partition_appointments.sql) stay counted.
+-- Running this script again rebuilds the counts from scratch.
+
+CREATE TABLE IF NOT EXISTS doctor_status_count
+(
+	doctor_id INTEGER NOT NULL,
+	pa INTEGER NOT NULL DEFAULT 0,
+	ac INTEGER NOT NULL DEFAULT 0,
+	av INTEGER NOT NULL DEFAULT 0,
+	wl INTEGER NOT NULL DEFAULT 0,
+	PRIMARY KEY (doctor_id)
+);
+
+CREATE OR REPLACE FUNCTION has_appointment_status() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+	-- archive_appointments moves history out, the counts keep it
+	IF current_setting('cs166.archiving', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('DELETE', 'UPDATE') THEN
+		INSERT INTO doctor_status_count AS c (doctor_id, pa, ac, av, wl)
+		SELECT l.doctor_id,
+			-count(*) FILTER (WHERE a.status = 'PA'), -count(*) FILTER (WHERE a.status = 'AC'),
+			-count(*) FILTER (WHERE a.status = 'AV'), -count(*) FILTER (WHERE a.status = 'WL')
+		FROM old_links l JOIN appointment_ids i ON i.appnt_ID = l.appt_id
+		JOIN Appointment a ON a.appnt_ID = i.appnt_ID AND a.adate = i.adate
+		GROUP BY l.doctor_id
+		ON CONFLICT (doctor_id) DO UPDATE SET pa = c.pa + EXCLUDED.pa, ac = c.ac + EXCLUDED.ac,
+			av = c.av + EXCLUDED.av, wl = c.wl + EXCLUDED.wl;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO doctor_status_count AS c (doctor_id, pa, ac, av, wl)
+		SELECT l.doctor_id,
+			count(*) FILTER (WHERE a.status = 'PA'), count(*) FILTER (WHERE a.status = 'AC'),
+			count(*) FILTER (WHERE a.status = 'AV'), count(*) FILTER (WHERE a.status = 'WL')
+		FROM new_links l JOIN appointment_ids i ON i.appnt_ID = l.appt_id
+		JOIN Appointment a ON a.appnt_ID = i.appnt_ID AND a.adate = i.adate
+		GROUP BY l.doctor_id
+		ON CONFLICT (doctor_id) DO UPDATE SET pa = c.pa + EXCLUDED.pa, ac = c.ac + EXCLUDED.ac,
+			av = c.av + EXCLUDED.av, wl = c.wl + EXCLUDED.wl;
+	END IF;
+	RETURN NULL;
+END;
+$$;
+
+-- a status change moves the appointment from one column to another for
+-- every doctor it is linked to
+CREATE OR REPLACE FUNCTION appointment_status() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+	INSERT INTO doctor_status_count AS c (doctor_id, pa, ac, av, wl)
+	SELECT h.doctor_id,
+		count(*) FILTER (WHERE n.status = 'PA') - count(*) FILTER (WHERE o.status = 'PA'),
+		count(*) FILTER (WHERE n.status = 'AC') - count(*) FILTER (WHERE o.status = 'AC'),
+		count(*) FILTER (WHERE n.status = 'AV') - count(*) FILTER (WHERE o.status = 'AV'),
+		count(*) FILTER (WHERE n.status = 'WL') - count(*) FILTER (WHERE o.status = 'WL')
+	FROM old_appointments o
+	JOIN new_appointments n ON n.appnt_ID = o.appnt_ID
+	JOIN has_appointment h ON h.appt_id = n.appnt_ID
+	WHERE o.status IS DISTINCT FROM n.status
+	GROUP BY h.doctor_id
+	ON CONFLICT (doctor_id) DO UPDATE SET pa = c.pa + EXCLUDED.pa, ac = c.ac + EXCLUDED.ac,
+		av = c.av + EXCLUDED.av, wl = c.wl + EXCLUDED.wl;
+	RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS has_appointment_status_insert ON has_appointment;
+DROP TRIGGER IF EXISTS has_appointment_status_delete ON has_appointment;
+DROP TRIGGER IF EXISTS has_appointment_status_update ON has_appointment;
+DROP TRIGGER IF EXISTS appointment_status_update ON Appointment;
+
+CREATE TRIGGER has_appointment_status_insert AFTER INSERT ON has_appointment
+	REFERENCING NEW TABLE AS new_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_status();
+CREATE TRIGGER has_appointment_status_delete AFTER DELETE ON has_appointment
+	REFERENCING OLD TABLE AS old_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_status();
+CREATE TRIGGER has_appointment_status_update AFTER UPDATE ON has_appointment
+	REFERENCING OLD TABLE AS old_links NEW TABLE AS new_links
+	FOR EACH STATEMENT EXECUTE PROCEDURE has_appointment_status();
+CREATE TRIGGER appointment_status_update AFTER UPDATE ON Appointment
+	REFERENCING OLD TABLE AS old_appointments NEW TABLE AS new_appointments
+	FOR EACH STATEMENT EXECUTE PROCEDURE appointment_status();
+
+-- (re)build the counts from the links already in place
+TRUNCATE doctor_status_count;
+
+INSERT INTO doctor_status_count (doctor_id, pa, ac, av, wl)
+SELECT h.doctor_id,
+	count(*) FILTER (WHERE a.status = 'PA'), count(*) FILTER (WHERE a.status = 'AC'),
+	count(*) FILTER (WHERE a.status = 'AV'), count(*) FILTER (WHERE a.status = 'WL')
+FROM has_appointment_history h JOIN appointment_history a ON a.appnt_ID = h.appt_id
+GROUP BY h.doctor_id;